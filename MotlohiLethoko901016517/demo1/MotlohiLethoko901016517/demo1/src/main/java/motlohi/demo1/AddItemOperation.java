@@ -0,0 +1,55 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+public class AddItemOperation implements CanvasOperation {
+    private final Layer layer;
+    private final BoardItem item;
+    private long orderKey = -1; // Given by the document the first time the item is added
+
+    public AddItemOperation(Layer layer, BoardItem item) {
+        this.layer = layer;
+        this.item = item;
+    }
+
+    @Override
+    public void apply(LayerStack layers) {
+        BoardDocument document = layer.getDocument();
+        if (orderKey < 0) {
+            document.add(item);
+            orderKey = document.getOrderKey(item);
+        } else {
+            document.add(item, orderKey);
+        }
+    }
+
+    @Override
+    public void revert(LayerStack layers) {
+        layer.getDocument().removeAt(orderKey);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        return item.getBounds();
+    }
+
+    @Override
+    public long getRetainedBytes(boolean applied) {
+        return applied ? 0 : OperationHistory.estimateBytes(item);
+    }
+
+    @Override
+    public ItemChanges getChanges() {
+        ItemChanges changes = new ItemChanges();
+        changes.add(layer, orderKey, item);
+        return changes;
+    }
+
+    public Layer getLayer() {
+        return layer;
+    }
+
+    public BoardItem getItem() {
+        return item;
+    }
+}
@@ -0,0 +1,23 @@
+package motlohi.demo1;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// Writes finish in a temporary file next to the target, which then replaces the target in one
+// step, so a reader never sees a half-written file and a failed write leaves the old one.
+public final class AtomicFiles {
+    private AtomicFiles() {
+    }
+
+    // Replaces the target with the finished temporary file, atomically where the file system can
+    public static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package motlohi.demo1;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+
+// Binary encoding of single board items, shared by the board file formats. Coordinates are
+// fixed point at 1/32 of a board unit, well under a pixel at the deepest zoom, and stroke
+// points are stored as zigzag varint deltas from the previous point, so a typical sample
+// costs two or three bytes instead of eight.
+public final class BoardCodec {
+    public static final int COORDINATE_SCALE = 32;
+
+    private static final int STROKE = 1;
+    private static final int TEXT = 2;
+    private static final int IMAGE = 3;
+    private static final int MEDIA = 4;
+    private static final int SCALED_IMAGE = 5; // An image shown at another size than its own
+    private static final int VIDEO = 6;
+
+    // The PNG of each image that has no file bytes of its own, kept while the image is in use,
+    // so an image that is moved or placed again is not compressed again every time it is saved
+    // or journaled
+    private static final Map<Image, byte[]> ENCODED = new WeakHashMap<>();
+
+    private BoardCodec() {
+    }
+
+    public static void writeItem(BinaryWriter out, BoardItem item) {
+        if (item instanceof Stroke) {
+            Stroke stroke = (Stroke) item;
+            out.writeByte(STROKE);
+            writeColor(out, stroke.getColor());
+            out.writeFloat((float) stroke.getWidth());
+            out.writeByte(stroke.isCubic() ? 1 : 0);
+            float[] points = stroke.getPoints();
+            out.writeVarLong(points.length / 2);
+            long previousX = 0, previousY = 0;
+            for (int i = 0; i + 1 < points.length; i += 2) {
+                long x = quantize(points[i]);
+                long y = quantize(points[i + 1]);
+                out.writeSignedVarLong(x - previousX);
+                out.writeSignedVarLong(y - previousY);
+                previousX = x;
+                previousY = y;
+            }
+        } else if (item instanceof TextBlock) {
+            TextBlock text = (TextBlock) item;
+            out.writeByte(TEXT);
+            writeColor(out, text.getColor());
+            out.writeString(text.getFont().getName());
+            out.writeFloat((float) text.getFont().getSize());
+            out.writeVarLong(text.getLineCount());
+            for (int i = 0; i < text.getLineCount(); i++) {
+                out.writeString(text.getLine(i));
+                writeCoordinate(out, text.getLineX(i));
+                writeCoordinate(out, text.getLineY(i));
+            }
+        } else if (item instanceof ImageItem) {
+            ImageItem image = (ImageItem) item;
+            out.writeByte(image.isNativeSize() ? IMAGE : SCALED_IMAGE);
+            writeCoordinate(out, image.getX());
+            writeCoordinate(out, image.getY());
+            if (!image.isNativeSize()) {
+                writeCoordinate(out, image.getWidth());
+                writeCoordinate(out, image.getHeight());
+            }
+            byte[] data = encodeImage(image.getImage());
+            out.writeVarLong(data.length);
+            out.writeBytes(data, 0, data.length);
+        } else if (item instanceof MediaPlaceholder) {
+            MediaPlaceholder media = (MediaPlaceholder) item;
+            out.writeByte(MEDIA);
+            out.writeString(media.getName());
+            writeCoordinate(out, media.getX());
+            writeCoordinate(out, media.getY());
+        } else if (item instanceof VideoItem) {
+            // Only where the clip is; its frames come from the file again when it next plays
+            VideoItem video = (VideoItem) item;
+            out.writeByte(VIDEO);
+            out.writeString(video.getName());
+            out.writeString(video.getSource());
+            writeCoordinate(out, video.getX());
+            writeCoordinate(out, video.getY());
+            writeCoordinate(out, video.getWidth());
+            writeCoordinate(out, video.getHeight());
+        } else {
+            throw new IllegalArgumentException("Cannot store " + item.getClass().getSimpleName());
+        }
+    }
+
+    // Reads one item at the buffer's position and advances past it
+    public static BoardItem readItem(ByteBuffer in) {
+        int type = in.get();
+        switch (type) {
+            case STROKE: {
+                Color color = readColor(in);
+                float width = in.getFloat();
+                boolean cubic = in.get() != 0;
+                float[] points = new float[(int) readVarLong(in) * 2];
+                long x = 0, y = 0;
+                for (int i = 0; i < points.length; i += 2) {
+                    x += readSignedVarLong(in);
+                    y += readSignedVarLong(in);
+                    points[i] = (float) x / COORDINATE_SCALE;
+                    points[i + 1] = (float) y / COORDINATE_SCALE;
+                }
+                return new Stroke(color, width, points, cubic);
+            }
+            case TEXT: {
+                Color color = readColor(in);
+                Font font = new Font(readString(in), in.getFloat());
+                TextBlock text = new TextBlock(color, font);
+                int lines = (int) readVarLong(in);
+                for (int i = 0; i < lines; i++) {
+                    String line = readString(in);
+                    double x = readCoordinate(in);
+                    text.addLine(line, x, readCoordinate(in));
+                }
+                return text;
+            }
+            case IMAGE: {
+                double x = readCoordinate(in);
+                double y = readCoordinate(in);
+                byte[] data = new byte[(int) readVarLong(in)];
+                in.get(data);
+                return new ImageItem(ImageCache.getShared().get(data, 0, 0), x, y);
+            }
+            case SCALED_IMAGE: {
+                double x = readCoordinate(in);
+                double y = readCoordinate(in);
+                double width = readCoordinate(in);
+                double height = readCoordinate(in);
+                byte[] data = new byte[(int) readVarLong(in)];
+                in.get(data);
+                return new ImageItem(ImageCache.getShared().get(data, 0, 0), x, y, width, height);
+            }
+            case MEDIA: {
+                String name = readString(in);
+                double x = readCoordinate(in);
+                return new MediaPlaceholder(name, x, readCoordinate(in));
+            }
+            case VIDEO: {
+                String name = readString(in);
+                String source = readString(in);
+                double x = readCoordinate(in);
+                double y = readCoordinate(in);
+                double width = readCoordinate(in);
+                return new VideoItem(source, name, x, y, width, readCoordinate(in));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown item type " + type);
+        }
+    }
+
+    // Where an image item is, without its picture, for a picture already stored elsewhere
+    public static void writePlacement(BinaryWriter out, ImageItem image) {
+        writeCoordinate(out, image.getX());
+        writeCoordinate(out, image.getY());
+        writeCoordinate(out, image.getWidth());
+        writeCoordinate(out, image.getHeight());
+    }
+
+    public static ImageItem readPlacement(ByteBuffer in, Image image) {
+        double x = readCoordinate(in);
+        double y = readCoordinate(in);
+        double width = readCoordinate(in);
+        return new ImageItem(image, x, y, width, readCoordinate(in));
+    }
+
+    public static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static long readSignedVarLong(ByteBuffer in) {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public static String readString(ByteBuffer in) {
+        byte[] utf8 = new byte[(int) readVarLong(in)];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static long quantize(double value) {
+        return Math.round(value * COORDINATE_SCALE);
+    }
+
+    private static void writeCoordinate(BinaryWriter out, double value) {
+        out.writeSignedVarLong(quantize(value));
+    }
+
+    private static double readCoordinate(ByteBuffer in) {
+        return (double) readSignedVarLong(in) / COORDINATE_SCALE;
+    }
+
+    private static void writeColor(BinaryWriter out, Color color) {
+        out.writeByte((int) Math.round(color.getRed() * 255));
+        out.writeByte((int) Math.round(color.getGreen() * 255));
+        out.writeByte((int) Math.round(color.getBlue() * 255));
+        out.writeByte((int) Math.round(color.getOpacity() * 255));
+    }
+
+    private static Color readColor(ByteBuffer in) {
+        int r = in.get() & 0xFF, g = in.get() & 0xFF, b = in.get() & 0xFF, a = in.get() & 0xFF;
+        return Color.rgb(r, g, b, a / 255.0);
+    }
+
+    // Images are embedded so a board file is complete on its own: as the file they were decoded
+    // from when there is one, and otherwise as a PNG of their pixels. One still loading is
+    // waited for; one that failed to load is kept as a transparent area of the same size.
+    private static byte[] encodeImage(Image image) {
+        byte[] source = ImageCache.getShared().getSource(image);
+        if (source != null) {
+            return source;
+        }
+        awaitLoaded(image);
+        boolean loaded = !image.isError();
+        synchronized (ENCODED) {
+            byte[] png = ENCODED.get(image);
+            if (png != null) {
+                return png;
+            }
+        }
+        byte[] png = encodePixels(image);
+        if (loaded) {
+            synchronized (ENCODED) {
+                ENCODED.put(image, png);
+            }
+        }
+        return png;
+    }
+
+    // Items are encoded off the FX thread, which is where a background load reports progress
+    private static void awaitLoaded(Image image) {
+        if (image.isError() || image.getProgress() >= 1) {
+            return;
+        }
+        if (Platform.isFxApplicationThread()) {
+            throw new IllegalStateException("Cannot wait for an image to load on the FX thread");
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            InvalidationListener check = observable -> {
+                if (image.isError() || image.getProgress() >= 1) {
+                    done.countDown();
+                }
+            };
+            image.progressProperty().addListener(check);
+            image.errorProperty().addListener(check);
+            check.invalidated(null);
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an image to load", e);
+        }
+    }
+
+    private static byte[] encodePixels(Image image) {
+        int width = Math.max(1, (int) image.getWidth());
+        int height = Math.max(1, (int) image.getHeight());
+        PixelReader reader = image.isError() || image.getProgress() < 1 ? null : image.getPixelReader();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            PngEncoder encoder = new PngEncoder(out, width, height, true);
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                if (reader != null) {
+                    reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width);
+                }
+                encoder.writeRow(row, 0);
+            }
+            encoder.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,260 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Retained model of the items on one layer of the board. The canvas is only a render cache
+// of the documents. Items are kept in paint order and in a spatial index, so rendering,
+// hit-testing and erasing only look at the items near the area they work on. Changes are
+// collected into a dirty area until the view takes it to re-render just that part, and
+// reported to listeners, such as the journal and the board store, as they happen.
+public class BoardDocument {
+    // Told about every change, on the thread that made it
+    public interface Listener {
+        void itemAdded(BoardDocument document, long orderKey, BoardItem item);
+
+        void itemRemoved(BoardDocument document, long orderKey, BoardItem item);
+
+        void cleared(BoardDocument document);
+    }
+
+    // Gap between the order keys of consecutively added items, leaving room to insert between them
+    private static final long ORDER_GAP = 1L << 32;
+
+    private final TreeMap<Long, BoardItem> items; // Paint order key -> item
+    private final Map<BoardItem, Long> orderKeys;
+    private final LooseQuadtree<BoardItem> index;
+    private long nextOrderKey;
+    private final List<Listener> listeners;
+    private double dirtyMinX = Double.MAX_VALUE, dirtyMinY = Double.MAX_VALUE;
+    private double dirtyMaxX = -Double.MAX_VALUE, dirtyMaxY = -Double.MAX_VALUE;
+
+    public BoardDocument() {
+        this.items = new TreeMap<>();
+        this.orderKeys = new IdentityHashMap<>();
+        this.index = new LooseQuadtree<>();
+        this.listeners = new ArrayList<>(2);
+    }
+
+    // Adds an item on top of everything else
+    public void add(BoardItem item) {
+        add(item, nextOrderKey);
+    }
+
+    // Adds an item at a specific place in the paint order, e.g. when undo restores it. Whatever
+    // is at that key already is taken off first, as is the item itself if it is elsewhere, so
+    // the order, the keys and the index always hold the same items.
+    public void add(BoardItem item, long orderKey) {
+        BoardItem previous = items.get(orderKey);
+        if (previous != null) {
+            remove(previous);
+        }
+        if (orderKeys.containsKey(item)) {
+            remove(item);
+        }
+        items.put(orderKey, item);
+        orderKeys.put(item, orderKey);
+        index.insert(item, item.getBounds());
+        nextOrderKey = Math.max(nextOrderKey, orderKey + ORDER_GAP);
+        markDirty(item.getBounds());
+        for (Listener listener : listeners) {
+            listener.itemAdded(this, orderKey, item);
+        }
+    }
+
+    public void addAll(List<BoardItem> added) {
+        for (BoardItem item : added) {
+            add(item);
+        }
+    }
+
+    public boolean remove(BoardItem item) {
+        Long orderKey = orderKeys.remove(item);
+        if (orderKey == null) {
+            return false;
+        }
+        items.remove(orderKey);
+        index.remove(item);
+        markDirty(item.getBounds());
+        for (Listener listener : listeners) {
+            listener.itemRemoved(this, orderKey, item);
+        }
+        return true;
+    }
+
+    // Removes whatever item is at an order key and returns it, or null if there is none.
+    // Undo and redo go by key, so they also work on copies of items read back from disk.
+    public BoardItem removeAt(long orderKey) {
+        BoardItem item = items.get(orderKey);
+        if (item != null) {
+            remove(item);
+        }
+        return item;
+    }
+
+    // Re-indexes an item after its bounds changed; the old area must be marked dirty by the caller
+    public void update(BoardItem item) {
+        if (orderKeys.containsKey(item)) {
+            index.update(item, item.getBounds());
+            markDirty(item.getBounds());
+        }
+    }
+
+    // Removes every item and returns them by order key
+    public SortedMap<Long, BoardItem> clear() {
+        markDirty(getBounds());
+        SortedMap<Long, BoardItem> removed = new TreeMap<>(items);
+        items.clear();
+        orderKeys.clear();
+        index.clear();
+        for (Listener listener : listeners) {
+            listener.cleared(this);
+        }
+        return removed;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Highest order key in use, or -1 when empty
+    public long getMaxOrderKey() {
+        return items.isEmpty() ? -1 : items.lastKey();
+    }
+
+    // Makes new items go above every order key up to the given one, such as those of items
+    // that are still being loaded
+    public void reserveOrderKeys(long upTo) {
+        nextOrderKey = Math.max(nextOrderKey, upTo + ORDER_GAP);
+    }
+
+    public boolean hasOrderKey(long orderKey) {
+        return items.containsKey(orderKey);
+    }
+
+    public boolean contains(BoardItem item) {
+        return orderKeys.containsKey(item);
+    }
+
+    public long getOrderKey(BoardItem item) {
+        Long orderKey = orderKeys.get(item);
+        if (orderKey == null) {
+            throw new IllegalArgumentException("Item is not on the board");
+        }
+        return orderKey;
+    }
+
+    // A free order key just above the given one and below the next item, for placing a new
+    // item at an existing depth. Falls back to the top once the gap has been used up.
+    public long orderKeyAfter(long orderKey) {
+        Long next = items.higherKey(orderKey);
+        if (next == null) {
+            return Math.max(nextOrderKey, orderKey + ORDER_GAP);
+        }
+        if (next - orderKey < 2) {
+            return nextOrderKey;
+        }
+        return orderKey + (next - orderKey) / 2;
+    }
+
+    // All items in paint order
+    public Collection<BoardItem> getItems() {
+        return Collections.unmodifiableCollection(items.values());
+    }
+
+    // Items whose bounds intersect a board area, in paint order
+    public List<BoardItem> query(Rectangle2D area) {
+        List<BoardItem> found = new ArrayList<>();
+        index.query(area, found);
+        if (found.size() > items.size() / 8) {
+            // A zoomed-out area holds much of the board; walking the items in order is
+            // cheaper than sorting that many hits by key
+            found.clear();
+            for (BoardItem item : items.values()) {
+                if (item.getBounds().intersects(area)) {
+                    found.add(item);
+                }
+            }
+            return found;
+        }
+        found.sort(Comparator.comparingLong(orderKeys::get));
+        return found;
+    }
+
+    // Union of every item's bounds
+    public Rectangle2D getBounds() {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (BoardItem item : items.values()) {
+            Rectangle2D bounds = item.getBounds();
+            if (bounds.getWidth() <= 0 && bounds.getHeight() <= 0) {
+                continue;
+            }
+            minX = Math.min(minX, bounds.getMinX());
+            minY = Math.min(minY, bounds.getMinY());
+            maxX = Math.max(maxX, bounds.getMaxX());
+            maxY = Math.max(maxY, bounds.getMaxY());
+        }
+        if (maxX < minX) {
+            return Rectangle2D.EMPTY;
+        }
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public void markDirty(Rectangle2D bounds) {
+        if (bounds.getWidth() <= 0 && bounds.getHeight() <= 0) {
+            return;
+        }
+        dirtyMinX = Math.min(dirtyMinX, bounds.getMinX());
+        dirtyMinY = Math.min(dirtyMinY, bounds.getMinY());
+        dirtyMaxX = Math.max(dirtyMaxX, bounds.getMaxX());
+        dirtyMaxY = Math.max(dirtyMaxY, bounds.getMaxY());
+    }
+
+    // The area changed since the last call, or EMPTY, and starts collecting afresh
+    public Rectangle2D takeDirtyBounds() {
+        if (dirtyMaxX < dirtyMinX) {
+            return Rectangle2D.EMPTY;
+        }
+        Rectangle2D dirty = new Rectangle2D(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY);
+        dirtyMinX = Double.MAX_VALUE;
+        dirtyMinY = Double.MAX_VALUE;
+        dirtyMaxX = -Double.MAX_VALUE;
+        dirtyMaxY = -Double.MAX_VALUE;
+        return dirty;
+    }
+
+    // Paints the items overlapping a region onto a white background, clipped to the region
+    public void render(GraphicsContext gc, Rectangle2D region) {
+        gc.save();
+        gc.beginPath();
+        gc.rect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+        gc.clip();
+
+        gc.setFill(Color.WHITE);
+        gc.fillRect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+        for (BoardItem item : query(region)) {
+            item.render(gc);
+        }
+        gc.restore();
+    }
+}
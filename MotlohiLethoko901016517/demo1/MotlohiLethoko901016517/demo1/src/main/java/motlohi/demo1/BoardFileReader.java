@@ -0,0 +1,275 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Reads a .wbd board file through a read-only memory map. Opening only parses the trailer
+// and the chunk index, so it costs the same however large the board is; chunks are decoded
+// on request, typically the ones under the viewport first. Chunks can be decoded from
+// several threads at once.
+//
+// A BoardStore saves by appending new chunks and a new index to the end of the file. If such
+// an append was cut short, the last trailer is missing and the reader falls back to the
+// newest complete index before it, which is the previous save.
+public class BoardFileReader implements Closeable {
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int version;
+    private List<LayerInfo> layers;
+    private List<Chunk> chunks;
+    private long sequence;
+    private long fileEnd;
+
+    public BoardFileReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Board files over 2 GB are not supported");
+            }
+            if (size < 8 + BoardFormat.TRAILER_SIZE) {
+                throw new IOException("Not a board file: " + path.getFileName());
+            }
+            this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(0) != BoardFormat.MAGIC) {
+                throw new IOException("Not a board file: " + path.getFileName());
+            }
+            this.version = map.getInt(4);
+            if (version < 1 || version > BoardFormat.VERSION) {
+                throw new IOException("Unsupported board file version " + version);
+            }
+            int trailer = (int) size - BoardFormat.TRAILER_SIZE;
+            if (!readIndex(trailer)) {
+                // Walk back to the newest trailer whose index reads cleanly
+                do {
+                    trailer--;
+                } while (trailer >= BoardFormat.HEADER_SIZE && !readIndex(trailer));
+                if (trailer < BoardFormat.HEADER_SIZE) {
+                    throw new IOException("Board file is incomplete: " + path.getFileName());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Corrupt board file", e);
+        }
+    }
+
+    // Bottom first
+    public List<LayerInfo> getLayers() {
+        return layers;
+    }
+
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    public List<Chunk> getChunks(Rectangle2D area) {
+        List<Chunk> found = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            if (chunk.bounds.intersects(area)) {
+                found.add(chunk);
+            }
+        }
+        return found;
+    }
+
+    // The number the writer stored with this index, or 0 for files that have none
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Where the index in use ends; anything after it is an unfinished append
+    public long getFileEnd() {
+        return fileEnd;
+    }
+
+    public long getItemCount() {
+        long count = 0;
+        for (Chunk chunk : chunks) {
+            count += chunk.count;
+        }
+        return count;
+    }
+
+    public void readChunk(Chunk chunk, ItemVisitor visitor) {
+        ByteBuffer data = map.duplicate();
+        data.position((int) chunk.offset);
+        data.limit((int) chunk.offset + chunk.length);
+        long orderKey = 0;
+        for (int i = 0; i < chunk.count; i++) {
+            orderKey += BoardCodec.readSignedVarLong(data);
+            visitor.visit(chunk.layerIndex, orderKey, BoardCodec.readItem(data));
+        }
+    }
+
+    // The map itself is released once it is garbage collected
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean readIndex(int trailer) {
+        if (map.getInt(trailer + 8) != BoardFormat.INDEX_MAGIC) {
+            return false;
+        }
+        long indexOffset = map.getLong(trailer);
+        if (indexOffset < BoardFormat.HEADER_SIZE || indexOffset > trailer) {
+            return false;
+        }
+        try {
+            ByteBuffer index = map.duplicate();
+            index.position((int) indexOffset);
+            index.limit(trailer);
+            layers = readLayers(index);
+            sequence = version >= 2 ? index.getLong() : 0;
+            chunks = readChunks(index, (int) indexOffset);
+            if (index.hasRemaining()) {
+                return false;
+            }
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+        fileEnd = trailer + BoardFormat.TRAILER_SIZE;
+        return true;
+    }
+
+    private static List<LayerInfo> readLayers(ByteBuffer index) {
+        int count = (int) BoardCodec.readVarLong(index);
+        List<LayerInfo> layers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = BoardCodec.readString(index);
+            int flags = index.get();
+            layers.add(new LayerInfo(name, (flags & 1) != 0, (flags & 2) != 0, index.getLong()));
+        }
+        return Collections.unmodifiableList(layers);
+    }
+
+    private List<Chunk> readChunks(ByteBuffer index, int payloadEnd) throws IOException {
+        int count = (int) BoardCodec.readVarLong(index);
+        List<Chunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int layerIndex = index.get() & 0xFF;
+            int items = index.getInt();
+            long offset = index.getLong();
+            int length = index.getInt();
+            float minX = index.getFloat(), minY = index.getFloat();
+            float maxX = index.getFloat(), maxY = index.getFloat();
+            int cellX = 0, cellY = 0;
+            byte[] hash = null;
+            if (version >= 2) {
+                cellX = index.getInt();
+                cellY = index.getInt();
+                hash = new byte[BoardFormat.HASH_SIZE];
+                index.get(hash);
+            }
+            if (layerIndex >= layers.size() || offset < BoardFormat.HEADER_SIZE || length < 0
+                    || offset + length > payloadEnd) {
+                throw new IOException("Corrupt chunk index entry " + i);
+            }
+            chunks.add(new Chunk(layerIndex, items, offset, length,
+                    new Rectangle2D(minX, minY, Math.max(0, maxX - minX), Math.max(0, maxY - minY)),
+                    cellX, cellY, hash));
+        }
+        return Collections.unmodifiableList(chunks);
+    }
+
+    public interface ItemVisitor {
+        void visit(int layerIndex, long orderKey, BoardItem item);
+    }
+
+    public static class LayerInfo {
+        private final String name;
+        private final boolean visible;
+        private final boolean locked;
+        private final long maxOrderKey;
+
+        private LayerInfo(String name, boolean visible, boolean locked, long maxOrderKey) {
+            this.name = name;
+            this.visible = visible;
+            this.locked = locked;
+            this.maxOrderKey = maxOrderKey;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isVisible() {
+            return visible;
+        }
+
+        public boolean isLocked() {
+            return locked;
+        }
+
+        public long getMaxOrderKey() {
+            return maxOrderKey;
+        }
+    }
+
+    public static class Chunk {
+        private final int layerIndex;
+        private final int count;
+        private final long offset;
+        private final int length;
+        private final Rectangle2D bounds;
+        private final int cellX;
+        private final int cellY;
+        private final byte[] hash;
+
+        private Chunk(int layerIndex, int count, long offset, int length, Rectangle2D bounds,
+                      int cellX, int cellY, byte[] hash) {
+            this.layerIndex = layerIndex;
+            this.count = count;
+            this.offset = offset;
+            this.length = length;
+            this.bounds = bounds;
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.hash = hash;
+        }
+
+        public int getLayerIndex() {
+            return layerIndex;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public Rectangle2D getBounds() {
+            return bounds;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getCellX() {
+            return cellX;
+        }
+
+        public int getCellY() {
+            return cellY;
+        }
+
+        // The content hash, or null for chunks from version 1 files
+        public byte[] getHash() {
+            return hash;
+        }
+    }
+}
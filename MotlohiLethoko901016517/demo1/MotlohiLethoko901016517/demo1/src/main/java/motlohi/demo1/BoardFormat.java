@@ -0,0 +1,89 @@
+package motlohi.demo1;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+// The .wbd format's constants and encoders, shared by BoardStore, which writes the files, and
+// BoardFileReader. Items are grouped into chunks by layer and by the grid cell their center
+// falls in, so each chunk covers a compact area and a reader can decode just the chunks a
+// view needs.
+//
+// Layout: header (magic, version), chunk payloads, then the index (layers with their flags
+// and highest order key, a sequence number, then each chunk's layer, item count, offset,
+// length, bounds, grid cell and content hash), then a trailer holding the index offset and a
+// second magic number. A chunk payload is its items, each as a zigzag varint order key delta
+// and a BoardCodec item. Index entries may point at chunks anywhere before the index, so a
+// BoardStore can append a new index that reuses the chunks already in the file.
+public final class BoardFormat {
+    public static final int MAGIC = 0x57424431; // "WBD1"
+    public static final int INDEX_MAGIC = 0x57424449; // "WBDI"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 8;
+    public static final int TRAILER_SIZE = 12;
+    public static final int HASH_SIZE = 16;
+    public static final double CELL_SIZE = 2048;
+    public static final int MAX_CHUNK_ITEMS = 512;
+    public static final int MAX_CHUNK_BYTES = 64 * 1024;
+
+    private BoardFormat() {
+    }
+
+    // The grid cell, along one axis, of an item spanning min to max
+    public static int cellOf(double min, double max) {
+        double cell = Math.floor((min + max) / 2 / CELL_SIZE);
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, cell));
+    }
+
+    public static int layerFlags(Layer layer) {
+        return (layer.isVisible() ? 1 : 0) | (layer.isLocked() ? 2 : 0);
+    }
+
+    // Content address of a chunk payload: the first HASH_SIZE bytes of its SHA-256
+    public static byte[] hash(BinaryWriter data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data.toByteArray());
+            return Arrays.copyOf(digest, HASH_SIZE);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void writeHeader(BinaryWriter out) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    static void writeLayerTable(BinaryWriter out, String[] names, int[] flags, long[] maxOrderKeys, long sequence,
+                                int chunkCount) {
+        out.writeVarLong(names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeString(names[i]);
+            out.writeByte(flags[i]);
+            out.writeLong(maxOrderKeys[i]);
+        }
+        out.writeLong(sequence);
+        out.writeVarLong(chunkCount);
+    }
+
+    static void writeEntry(BinaryWriter out, int layerIndex, int count, long offset, int length,
+                           double minX, double minY, double maxX, double maxY, int cellX, int cellY, byte[] hash) {
+        out.writeByte(layerIndex);
+        out.writeInt(count);
+        out.writeLong(offset);
+        out.writeInt(length);
+        // Rounded outwards so the float box still contains every item
+        out.writeFloat(Math.nextDown((float) minX));
+        out.writeFloat(Math.nextDown((float) minY));
+        out.writeFloat(Math.nextUp((float) maxX));
+        out.writeFloat(Math.nextUp((float) maxY));
+        out.writeInt(cellX);
+        out.writeInt(cellY);
+        out.writeBytes(hash, 0, HASH_SIZE);
+    }
+
+    static void writeTrailer(BinaryWriter out, long indexOffset) {
+        out.writeLong(indexOffset);
+        out.writeInt(INDEX_MAGIC);
+    }
+}
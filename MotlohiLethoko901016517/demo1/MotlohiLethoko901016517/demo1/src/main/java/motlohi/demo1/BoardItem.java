@@ -0,0 +1,15 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+
+// Anything retained on the board: strokes, text, images and media placeholders
+public interface BoardItem {
+    void render(GraphicsContext gc);
+
+    // Software rendering for the tile rasterizer; called from worker threads
+    void rasterize(Raster raster);
+
+    // Area of the board the item paints over
+    Rectangle2D getBounds();
+}
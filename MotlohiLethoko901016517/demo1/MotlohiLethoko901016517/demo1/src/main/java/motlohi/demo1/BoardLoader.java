@@ -0,0 +1,278 @@
+package motlohi.demo1;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.geometry.Point2D;
+import javafx.geometry.Rectangle2D;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Opens .wbd boards into the drawing canvas. The chunks under the viewport are decoded right
+// away on the FX thread so the first screen shows at once; the rest are decoded in the
+// background, nearest first, and added to the layers a batch at a time between frames.
+// The opened file stays bound to a BoardStore, so saving back to it only writes the changes.
+public class BoardLoader {
+    private static final int BATCH_ITEMS = 4096;
+
+    private final DrawingCanvas drawingCanvas;
+    private LoadTask loading;
+    private BoardStore store;
+
+    public BoardLoader(DrawingCanvas drawingCanvas) {
+        this.drawingCanvas = drawingCanvas;
+    }
+
+    // Replaces the board with a file's contents. Returns the task that loads the chunks off
+    // screen, which the caller runs; the board is usable while it does. The file's index and
+    // the chunks on screen are read before the board is touched, so a file that cannot be
+    // read leaves the board as it was.
+    public Task<Long> open(File file) throws IOException {
+        BoardFileReader reader = new BoardFileReader(file.toPath());
+        BoardView view = drawingCanvas.getView();
+        Rectangle2D visible = view.getVisibleBounds();
+        List<DecodedChunk> shown = new ArrayList<>();
+        List<BoardFileReader.Chunk> rest = new ArrayList<>();
+        try {
+            for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+                if (chunk.getBounds().intersects(visible)) {
+                    DecodedChunk decoded = new DecodedChunk(chunk);
+                    reader.readChunk(chunk, decoded::add);
+                    shown.add(decoded);
+                } else {
+                    rest.add(chunk);
+                }
+            }
+        } catch (RuntimeException e) {
+            reader.close();
+            throw new IOException("Corrupt board file", e);
+        }
+
+        if (loading != null) {
+            loading.cancel();
+        }
+        // The opened file replaces the session, so the journal takes a checkpoint once it is in
+        SessionJournal journal = drawingCanvas.getJournal();
+        if (journal != null) {
+            journal.suspend();
+        }
+        try {
+            loading = start(file, reader, shown, rest);
+            return loading;
+        } catch (RuntimeException e) {
+            // Whatever made it onto the board is kept, but it no longer stands for the file
+            unbind();
+            resumeJournal();
+            reader.close();
+            throw e;
+        }
+    }
+
+    private LoadTask start(File file, BoardFileReader reader, List<DecodedChunk> shown,
+                           List<BoardFileReader.Chunk> rest) {
+        if (store != null) {
+            store.close();
+        }
+        drawingCanvas.resetBoard();
+        store = new BoardStore(file.toPath(), drawingCanvas.getLayers());
+        store.load(reader);
+
+        LayerStack stack = drawingCanvas.getLayers();
+        List<BoardFileReader.LayerInfo> stored = reader.getLayers();
+        Layer[] targets = new Layer[stored.size()];
+        int position = 0;
+        for (int i = 0; i < stored.size(); i++) {
+            BoardFileReader.LayerInfo info = stored.get(i);
+            for (Layer layer : stack.getLayers()) {
+                if (layer.getName().equals(info.getName())) {
+                    targets[i] = layer;
+                }
+            }
+            if (targets[i] == null) {
+                // A layer this version does not have; its items go where new ones of their kind would
+                continue;
+            }
+            stack.moveTo(targets[i], position++);
+            targets[i].setVisible(info.isVisible());
+            targets[i].setLocked(info.isLocked());
+            targets[i].getDocument().reserveOrderKeys(info.getMaxOrderKey());
+        }
+        drawingCanvas.layersChanged();
+
+        BoardView view = drawingCanvas.getView();
+        for (DecodedChunk decoded : shown) {
+            addAll(targets, decoded);
+        }
+        view.refresh();
+
+        Rectangle2D visible = view.getVisibleBounds();
+        Point2D center = new Point2D(visible.getMinX() + visible.getWidth() / 2, visible.getMinY() + visible.getHeight() / 2);
+        rest.sort(Comparator.comparingDouble(chunk -> distance(chunk.getBounds(), center)));
+        return new LoadTask(reader, rest, targets);
+    }
+
+    // The store of the file the board was last opened from or saved to, if any
+    public BoardStore getStore() {
+        return store;
+    }
+
+    // Lets go of the file the board came from, so the next save asks where to write
+    public void unbind() {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+    }
+
+    // Binds the board to a file it is about to be saved to for the first time
+    public BoardStore bind(File file) {
+        if (store != null) {
+            store.close();
+        }
+        store = new BoardStore(file.toPath(), drawingCanvas.getLayers());
+        return store;
+    }
+
+    private void addAll(Layer[] targets, DecodedChunk decoded) {
+        for (int i = 0; i < decoded.size; i++) {
+            add(targets, decoded.layerIndex, decoded.orderKeys[i], decoded.items[i]);
+        }
+    }
+
+    private void add(Layer[] targets, int layerIndex, long orderKey, BoardItem item) {
+        Layer layer = targets[layerIndex];
+        if (layer == null) {
+            drawingCanvas.getLayers().getLayerFor(item).getDocument().add(item);
+        } else {
+            // Already in the file as it is
+            store.setIgnoring(true);
+            try {
+                layer.getDocument().add(item, orderKey);
+            } finally {
+                store.setIgnoring(false);
+            }
+        }
+    }
+
+    private static double distance(Rectangle2D bounds, Point2D point) {
+        double dx = Math.max(0, Math.max(bounds.getMinX() - point.getX(), point.getX() - bounds.getMaxX()));
+        double dy = Math.max(0, Math.max(bounds.getMinY() - point.getY(), point.getY() - bounds.getMaxY()));
+        return dx * dx + dy * dy;
+    }
+
+    private void resumeJournal() {
+        if (drawingCanvas.getJournal() != null) {
+            drawingCanvas.getJournal().resume();
+        }
+    }
+
+    private class LoadTask extends Task<Long> {
+        private final BoardFileReader reader;
+        private final List<BoardFileReader.Chunk> chunks;
+        private final Layer[] targets;
+        private final BoardStore target;
+
+        private LoadTask(BoardFileReader reader, List<BoardFileReader.Chunk> chunks, Layer[] targets) {
+            this.reader = reader;
+            this.chunks = chunks;
+            this.targets = targets;
+            this.target = store;
+            updateTitle("Opening board");
+        }
+
+        @Override
+        protected Long call() throws IOException {
+            try {
+                long loaded = 0;
+                long total = 0;
+                for (BoardFileReader.Chunk chunk : chunks) {
+                    total += chunk.getCount();
+                }
+
+                List<DecodedChunk> batch = new ArrayList<>();
+                int batchItems = 0;
+                for (BoardFileReader.Chunk chunk : chunks) {
+                    if (isCancelled()) {
+                        return loaded;
+                    }
+                    DecodedChunk decoded = new DecodedChunk(chunk);
+                    reader.readChunk(chunk, decoded::add);
+                    batch.add(decoded);
+                    batchItems += chunk.getCount();
+                    loaded += chunk.getCount();
+                    if (batchItems >= BATCH_ITEMS) {
+                        publish(batch);
+                        batch = new ArrayList<>();
+                        batchItems = 0;
+                        updateProgress(loaded, total);
+                    }
+                }
+                publish(batch);
+                updateProgress(total, total);
+                return loaded;
+            } finally {
+                reader.close();
+            }
+        }
+
+        @Override
+        protected void succeeded() {
+            resumeJournal();
+        }
+
+        // The board holds only part of the file now. Saving its dirty cells into the file
+        // would write an index without the chunks never loaded, so the board lets go of the
+        // file and the next save writes a whole one.
+        @Override
+        protected void cancelled() {
+            releaseFile();
+            resumeJournal();
+        }
+
+        @Override
+        protected void failed() {
+            releaseFile();
+            resumeJournal();
+        }
+
+        private void releaseFile() {
+            if (store == target) {
+                unbind();
+            }
+        }
+
+        // Adds decoded chunks on the FX thread, refreshing after each so only its area re-renders
+        private void publish(List<DecodedChunk> batch) {
+            Platform.runLater(() -> {
+                if (isCancelled()) {
+                    return;
+                }
+                for (DecodedChunk decoded : batch) {
+                    addAll(targets, decoded);
+                    drawingCanvas.getView().refresh();
+                }
+            });
+        }
+    }
+
+    private static class DecodedChunk {
+        private final int layerIndex;
+        private final long[] orderKeys;
+        private final BoardItem[] items;
+        private int size;
+
+        private DecodedChunk(BoardFileReader.Chunk chunk) {
+            this.layerIndex = chunk.getLayerIndex();
+            this.orderKeys = new long[chunk.getCount()];
+            this.items = new BoardItem[chunk.getCount()];
+        }
+
+        private void add(int layerIndex, long orderKey, BoardItem item) {
+            orderKeys[size] = orderKey;
+            items[size++] = item;
+        }
+    }
+}
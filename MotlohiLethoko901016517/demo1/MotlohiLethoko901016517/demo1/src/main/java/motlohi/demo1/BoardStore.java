@@ -0,0 +1,558 @@
+package motlohi.demo1;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.geometry.Rectangle2D;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Keeps a .wbd file in step with the board by saving only what changed. Every item belongs to
+// the grid cell its center is in, and each cell of each layer is stored as chunks of its
+// items in order key order, split at fixed sizes, and addressed by a hash of their bytes.
+// The store follows the layers' changes and marks the cells they touch; a save re-encodes
+// just those cells, appends the chunks whose hash is not in the file yet and then a new
+// index (the manifest) listing every live chunk, so its cost follows the size of the edit
+// rather than of the board. The previous index stays valid until the new trailer is synced,
+// so a save cut short leaves the last one readable.
+//
+// Replaced chunks and old indexes are left in the file as garbage. Once that outgrows
+// MIN_GARBAGE_BYTES and half the live data, the save that noticed it copies the live chunks
+// into a new file and moves it over the old one, still on the background thread.
+public class BoardStore implements BoardDocument.Listener {
+    private static final long MIN_GARBAGE_BYTES = 8L * 1024 * 1024;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final Path file;
+    private final LayerStack stack;
+    private final Map<BoardDocument, String> layerNames;
+
+    // Used on the FX thread only
+    private final Set<Cell> dirtyCells;
+    private final Set<String> dirtyLayers; // Layers to write whole, such as after a clear
+    private boolean ignoring;
+
+    // Used by one save at a time
+    private Map<Cell, List<Entry>> manifest;
+    private Map<ByteBuffer, Entry> byHash;
+    private long fileEnd; // 0 until the file holds an index this store wrote or loaded
+    private String[] names;
+    private int[] flags;
+    private long[] maxOrderKeys;
+    private long sequence;
+
+    // Starts out with every layer to be written, as for a file that does not exist yet
+    public BoardStore(Path file, LayerStack stack) {
+        this.file = file.toAbsolutePath();
+        this.stack = stack;
+        this.layerNames = new IdentityHashMap<>();
+        this.dirtyCells = new HashSet<>();
+        this.dirtyLayers = new HashSet<>();
+        this.manifest = new HashMap<>();
+        this.byHash = new HashMap<>();
+
+        for (Layer layer : stack.getLayers()) {
+            layerNames.put(layer.getDocument(), layer.getName());
+            dirtyLayers.add(layer.getName());
+            layer.getDocument().addListener(this);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Takes over the chunks of the file the board was loaded from, so only later changes are
+    // written. Only the reader's index is used, so it may already be closed. Files from before
+    // chunks were hashed are rewritten whole on the first save.
+    public void load(BoardFileReader reader) {
+        for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+            if (chunk.getHash() == null) {
+                return;
+            }
+        }
+        synchronized (this) {
+            manifest = new HashMap<>();
+            byHash = new HashMap<>();
+            List<BoardFileReader.LayerInfo> layers = reader.getLayers();
+            for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+                Rectangle2D bounds = chunk.getBounds();
+                Entry entry = new Entry(chunk.getCount(), chunk.getOffset(), chunk.getLength(), bounds.getMinX(),
+                        bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY(), chunk.getHash());
+                Cell cell = new Cell(layers.get(chunk.getLayerIndex()).getName(), chunk.getCellX(), chunk.getCellY());
+                manifest.computeIfAbsent(cell, c -> new ArrayList<>()).add(entry);
+                byHash.put(ByteBuffer.wrap(entry.hash), entry);
+            }
+            fileEnd = reader.getFileEnd();
+            sequence = reader.getSequence();
+        }
+        dirtyLayers.clear();
+    }
+
+    // While set, changes are taken to be in the file already, e.g. while it is being loaded
+    public void setIgnoring(boolean ignoring) {
+        this.ignoring = ignoring;
+    }
+
+    // Marks the cell of an item that changed without this store seeing it
+    public void markDirty(String layerName, BoardItem item) {
+        dirtyCells.add(cellOf(layerName, item));
+    }
+
+    public void markLayerDirty(String layerName) {
+        dirtyLayers.add(layerName);
+    }
+
+    // Copies the changed cells here, on the FX thread, and returns the task that writes them
+    public Task<File> save(long sequence) {
+        return new SaveTask(new Snapshot(sequence));
+    }
+
+    // Copies the changed cells and writes them on the calling thread, which must be the one
+    // that changes the board. Returns the bytes appended.
+    long saveNow(long sequence) throws IOException {
+        Snapshot snapshot = new Snapshot(sequence);
+        try {
+            return snapshot.write();
+        } catch (IOException | RuntimeException e) {
+            snapshot.restore();
+            throw e;
+        }
+    }
+
+    // Stops following the board
+    public void close() {
+        for (Layer layer : stack.getLayers()) {
+            layer.getDocument().removeListener(this);
+        }
+    }
+
+    @Override
+    public void itemAdded(BoardDocument document, long orderKey, BoardItem item) {
+        if (!ignoring) {
+            dirtyCells.add(cellOf(layerNames.get(document), item));
+        }
+    }
+
+    @Override
+    public void itemRemoved(BoardDocument document, long orderKey, BoardItem item) {
+        if (!ignoring) {
+            dirtyCells.add(cellOf(layerNames.get(document), item));
+        }
+    }
+
+    @Override
+    public void cleared(BoardDocument document) {
+        if (!ignoring) {
+            String name = layerNames.get(document);
+            dirtyLayers.add(name);
+            dirtyCells.removeIf(cell -> cell.layer.equals(name));
+        }
+    }
+
+    private static Cell cellOf(String layerName, BoardItem item) {
+        Rectangle2D bounds = item.getBounds();
+        return new Cell(layerName, BoardFormat.cellOf(bounds.getMinX(), bounds.getMaxX()),
+                BoardFormat.cellOf(bounds.getMinY(), bounds.getMaxY()));
+    }
+
+    // Appends the changed cells' new chunks and a new index. Returns the bytes appended.
+    private synchronized long write(Map<Cell, TreeMap<Long, BoardItem>> cells, Set<String> replacedLayers,
+                                    String[] names, int[] flags, long[] maxOrderKeys, long sequence) throws IOException {
+        if (cells.isEmpty() && replacedLayers.isEmpty() && fileEnd != 0 && sequence == this.sequence
+                && Arrays.equals(names, this.names) && Arrays.equals(flags, this.flags)
+                && Arrays.equals(maxOrderKeys, this.maxOrderKeys)) {
+            return 0;
+        }
+        Map<Cell, List<Entry>> next = new HashMap<>(manifest);
+        next.keySet().removeIf(cell -> replacedLayers.contains(cell.layer));
+        Map<ByteBuffer, Entry> added = new HashMap<>();
+
+        boolean rewrite = fileEnd == 0;
+        Path target = rewrite ? temporaryFile() : file;
+        long start = rewrite ? 0 : fileEnd;
+        long end;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            BinaryWriter out = new BinaryWriter(WRITE_BUFFER_BYTES + BoardFormat.MAX_CHUNK_BYTES);
+            if (rewrite) {
+                channel.truncate(0);
+                BoardFormat.writeHeader(out);
+            } else if (channel.size() > fileEnd) {
+                // The rest of a save that did not finish
+                channel.truncate(fileEnd);
+            }
+            long position = start + out.size();
+
+            BinaryWriter data = new BinaryWriter(BoardFormat.MAX_CHUNK_BYTES * 2);
+            for (Map.Entry<Cell, TreeMap<Long, BoardItem>> cell : cells.entrySet()) {
+                List<Entry> entries = new ArrayList<>();
+                ChunkBounds bounds = new ChunkBounds();
+                long lastOrderKey = 0;
+                int count = 0;
+                data.reset();
+                int remaining = cell.getValue().size();
+                for (Map.Entry<Long, BoardItem> item : cell.getValue().entrySet()) {
+                    data.writeSignedVarLong(item.getKey() - lastOrderKey);
+                    BoardCodec.writeItem(data, item.getValue());
+                    bounds.include(item.getValue().getBounds());
+                    lastOrderKey = item.getKey();
+                    count++;
+                    remaining--;
+                    if (count < BoardFormat.MAX_CHUNK_ITEMS && data.size() < BoardFormat.MAX_CHUNK_BYTES
+                            && remaining > 0) {
+                        continue;
+                    }
+
+                    byte[] hash = BoardFormat.hash(data);
+                    ByteBuffer key = ByteBuffer.wrap(hash);
+                    Entry stored = added.containsKey(key) ? added.get(key) : rewrite ? null : byHash.get(key);
+                    long offset;
+                    if (stored != null) {
+                        offset = stored.offset;
+                    } else {
+                        offset = position;
+                        out.writeBytes(data.toByteArray(), 0, data.size());
+                        position += data.size();
+                        if (out.size() >= WRITE_BUFFER_BYTES) {
+                            writeFully(channel, out, position - out.size());
+                        }
+                    }
+                    Entry entry = new Entry(count, offset, data.size(), bounds.minX, bounds.minY, bounds.maxX,
+                            bounds.maxY, hash);
+                    entries.add(entry);
+                    added.putIfAbsent(key, entry);
+
+                    bounds = new ChunkBounds();
+                    lastOrderKey = 0;
+                    count = 0;
+                    data.reset();
+                }
+                if (entries.isEmpty()) {
+                    next.remove(cell.getKey());
+                } else {
+                    next.put(cell.getKey(), entries);
+                }
+            }
+            writeFully(channel, out, position - out.size());
+            // The chunks must be on disk before an index that points at them
+            channel.force(false);
+
+            end = writeIndex(channel, position, next, names, flags, maxOrderKeys, sequence);
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            if (rewrite) {
+                Files.deleteIfExists(target);
+            }
+            throw e;
+        }
+        if (rewrite) {
+            AtomicFiles.moveIntoPlace(target, file);
+            byHash = new HashMap<>();
+        }
+
+        manifest = next;
+        byHash.putAll(added);
+        fileEnd = end;
+        this.names = names;
+        this.flags = flags;
+        this.maxOrderKeys = maxOrderKeys;
+        this.sequence = sequence;
+
+        long live = liveBytes();
+        if (fileEnd - live > Math.max(MIN_GARBAGE_BYTES, live / 2)) {
+            compact();
+        }
+        return end - start;
+    }
+
+    // Copies the live chunks, in file order, into a new file that replaces this one
+    private void compact() throws IOException {
+        TreeMap<Long, Entry> live = new TreeMap<>();
+        for (List<Entry> entries : manifest.values()) {
+            for (Entry entry : entries) {
+                live.putIfAbsent(entry.offset, entry);
+            }
+        }
+
+        Path temp = temporaryFile();
+        Map<Long, Long> moved = new HashMap<>();
+        Map<Cell, List<Entry>> compacted = new HashMap<>();
+        long end;
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            BinaryWriter header = new BinaryWriter(BoardFormat.HEADER_SIZE);
+            BoardFormat.writeHeader(header);
+            writeFully(target, header, 0);
+            long position = BoardFormat.HEADER_SIZE;
+            for (Entry entry : live.values()) {
+                long copied = 0;
+                while (copied < entry.length) {
+                    copied += source.transferTo(entry.offset + copied, entry.length - copied,
+                            target.position(position + copied));
+                }
+                moved.put(entry.offset, position);
+                position += entry.length;
+            }
+            target.force(false);
+
+            for (Map.Entry<Cell, List<Entry>> cell : manifest.entrySet()) {
+                List<Entry> entries = new ArrayList<>(cell.getValue().size());
+                for (Entry entry : cell.getValue()) {
+                    entries.add(entry.movedTo(moved.get(entry.offset)));
+                }
+                compacted.put(cell.getKey(), entries);
+            }
+            end = writeIndex(target, position, compacted, names, flags, maxOrderKeys, sequence);
+            target.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        AtomicFiles.moveIntoPlace(temp, file);
+
+        manifest = compacted;
+        byHash = new HashMap<>();
+        for (List<Entry> entries : manifest.values()) {
+            for (Entry entry : entries) {
+                byHash.put(ByteBuffer.wrap(entry.hash), entry);
+            }
+        }
+        fileEnd = end;
+    }
+
+    private long liveBytes() {
+        Set<Long> counted = new HashSet<>();
+        long live = BoardFormat.HEADER_SIZE;
+        for (List<Entry> entries : manifest.values()) {
+            for (Entry entry : entries) {
+                if (counted.add(entry.offset)) {
+                    live += entry.length;
+                }
+            }
+        }
+        return live;
+    }
+
+    // Writes the layer table, an entry per chunk and the trailer at a position; returns where they end
+    private static long writeIndex(FileChannel channel, long position, Map<Cell, List<Entry>> manifest,
+                                   String[] names, int[] flags, long[] maxOrderKeys, long sequence) throws IOException {
+        Map<String, Integer> layerIndexes = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            layerIndexes.put(names[i], i);
+        }
+        int chunkCount = 0;
+        for (Map.Entry<Cell, List<Entry>> cell : manifest.entrySet()) {
+            if (layerIndexes.containsKey(cell.getKey().layer)) {
+                chunkCount += cell.getValue().size();
+            }
+        }
+
+        BinaryWriter index = new BinaryWriter(256 + chunkCount * 64);
+        BoardFormat.writeLayerTable(index, names, flags, maxOrderKeys, sequence, chunkCount);
+        for (Map.Entry<Cell, List<Entry>> cell : manifest.entrySet()) {
+            Integer layerIndex = layerIndexes.get(cell.getKey().layer);
+            if (layerIndex == null) {
+                continue;
+            }
+            for (Entry entry : cell.getValue()) {
+                BoardFormat.writeEntry(index, layerIndex, entry.count, entry.offset, entry.length, entry.minX,
+                        entry.minY, entry.maxX, entry.maxY, cell.getKey().x, cell.getKey().y, entry.hash);
+            }
+        }
+        BoardFormat.writeTrailer(index, position);
+        long end = position + index.size();
+        writeFully(channel, index, position);
+        return end;
+    }
+
+    private static void writeFully(FileChannel channel, BinaryWriter data, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data.toByteArray());
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        data.reset();
+    }
+
+    private Path temporaryFile() {
+        return file.resolveSibling(file.getFileName() + ".part");
+    }
+
+    private class SaveTask extends Task<File> {
+        private final Snapshot snapshot;
+
+        private SaveTask(Snapshot snapshot) {
+            this.snapshot = snapshot;
+            updateTitle("Saving " + file.getFileName());
+        }
+
+        @Override
+        protected File call() throws IOException {
+            snapshot.write();
+            return file.toFile();
+        }
+
+        // What this save held goes back to being unsaved, for the next save to retry
+        @Override
+        protected void failed() {
+            restore();
+        }
+
+        @Override
+        protected void cancelled() {
+            restore();
+        }
+
+        private void restore() {
+            if (Platform.isFxApplicationThread()) {
+                snapshot.restore();
+            } else {
+                Platform.runLater(snapshot::restore);
+            }
+        }
+    }
+
+    // The changed cells' items and the layer table as they were when a save started
+    private class Snapshot {
+        private final long sequence;
+        private final Map<Cell, TreeMap<Long, BoardItem>> cells;
+        private final Set<String> replacedLayers;
+        private final String[] names;
+        private final int[] flags;
+        private final long[] maxOrderKeys;
+
+        private Snapshot(long sequence) {
+            this.sequence = sequence;
+            this.cells = new HashMap<>();
+            this.replacedLayers = new HashSet<>(dirtyLayers);
+
+            List<Layer> layers = stack.getLayers();
+            this.names = new String[layers.size()];
+            this.flags = new int[layers.size()];
+            this.maxOrderKeys = new long[layers.size()];
+            for (int i = 0; i < layers.size(); i++) {
+                Layer layer = layers.get(i);
+                BoardDocument document = layer.getDocument();
+                names[i] = layer.getName();
+                flags[i] = BoardFormat.layerFlags(layer);
+                maxOrderKeys[i] = Math.max(0, document.getMaxOrderKey());
+                if (replacedLayers.contains(layer.getName())) {
+                    for (BoardItem item : document.getItems()) {
+                        cells.computeIfAbsent(cellOf(layer.getName(), item), c -> new TreeMap<>())
+                                .put(document.getOrderKey(item), item);
+                    }
+                }
+            }
+            for (Cell cell : dirtyCells) {
+                if (replacedLayers.contains(cell.layer)) {
+                    continue;
+                }
+                BoardDocument document = stack.getLayer(cell.layer).getDocument();
+                TreeMap<Long, BoardItem> items = new TreeMap<>();
+                Rectangle2D area = new Rectangle2D(cell.x * BoardFormat.CELL_SIZE,
+                        cell.y * BoardFormat.CELL_SIZE, BoardFormat.CELL_SIZE, BoardFormat.CELL_SIZE);
+                for (BoardItem item : document.query(area)) {
+                    if (cellOf(cell.layer, item).equals(cell)) {
+                        items.put(document.getOrderKey(item), item);
+                    }
+                }
+                // An empty cell is saved too, which drops the chunks it had
+                cells.put(cell, items);
+            }
+            dirtyCells.clear();
+            dirtyLayers.clear();
+        }
+
+        private long write() throws IOException {
+            return BoardStore.this.write(cells, replacedLayers, names, flags, maxOrderKeys, sequence);
+        }
+
+        // On the thread that changes the board
+        private void restore() {
+            dirtyLayers.addAll(replacedLayers);
+            for (Cell cell : cells.keySet()) {
+                if (!replacedLayers.contains(cell.layer)) {
+                    dirtyCells.add(cell);
+                }
+            }
+        }
+    }
+
+    private static class ChunkBounds {
+        private double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        private double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+
+        private void include(Rectangle2D bounds) {
+            minX = Math.min(minX, bounds.getMinX());
+            minY = Math.min(minY, bounds.getMinY());
+            maxX = Math.max(maxX, bounds.getMaxX());
+            maxY = Math.max(maxY, bounds.getMaxY());
+        }
+    }
+
+    // A chunk as listed in the index
+    private static class Entry {
+        private final int count;
+        private final long offset;
+        private final int length;
+        private final double minX, minY, maxX, maxY;
+        private final byte[] hash;
+
+        private Entry(int count, long offset, int length, double minX, double minY, double maxX, double maxY,
+                      byte[] hash) {
+            this.count = count;
+            this.offset = offset;
+            this.length = length;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.hash = hash;
+        }
+
+        private Entry movedTo(long offset) {
+            return new Entry(count, offset, length, minX, minY, maxX, maxY, hash);
+        }
+    }
+
+    private static class Cell {
+        private final String layer;
+        private final int x;
+        private final int y;
+
+        private Cell(String layer, int x, int y) {
+            this.layer = layer;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Cell)) {
+                return false;
+            }
+            Cell other = (Cell) o;
+            return x == other.x && y == other.y && layer.equals(other.layer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layer, x, y);
+        }
+    }
+}
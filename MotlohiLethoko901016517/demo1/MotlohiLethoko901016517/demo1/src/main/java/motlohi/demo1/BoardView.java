@@ -0,0 +1,442 @@
+package motlohi.demo1;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Viewport onto the unbounded board. The board is split into fixed-size tiles per zoom level;
+// visible tiles are rasterized from the document on worker threads into a TileCache and
+// blitted to the screen canvas. The FX thread only queries which items a tile needs and
+// copies finished pixels into images, so panning and zooming never wait on rendering.
+// Zoomed out, tiles form a mipmap pyramid: a tile whose four children one octave finer are
+// cached is averaged down from them instead of rasterizing everything it covers.
+// Each layer's part of a tile is cached separately, so after an edit only the changed layer
+// is re-rendered over the dirty area and the tile is composited again from the rest.
+public class BoardView {
+    public static final int TILE_SIZE = 256;
+    private static final double ZOOM_STEP = Math.pow(2, 0.25);
+    private static final int MIN_ZOOM_LEVEL = -16;
+    private static final int MAX_ZOOM_LEVEL = 12;
+    private static final int LEVELS_PER_OCTAVE = 4; // Zoom levels per doubling of the scale
+    private static final int MAX_COARSER_FALLBACK = 8;
+
+    private final Canvas canvas;
+    private final GraphicsContext gc;
+    private final LayerStack layers;
+    private final TileCache tiles;
+    private final LayerTileCache layerTiles;
+    private final TileRasterizer rasterizer;
+    private final Map<TileCache.Key, PendingTile> pending; // Tiles being rendered in the background
+    private final AnimationTimer painter;
+    private final List<Runnable> viewListeners; // Told when what the viewport shows may have changed
+    private Runnable liveInk; // Draws ink that is on the screen canvas but not yet in any tile
+
+    // Screen-space position of the viewport's top-left corner at the current zoom level
+    private double originX, originY;
+    private int zoomLevel;
+
+    public BoardView(Canvas canvas, LayerStack layers) {
+        this.canvas = canvas;
+        this.gc = canvas.getGraphicsContext2D();
+        this.layers = layers;
+        this.tiles = new TileCache(TileCache.DEFAULT_BYTE_BUDGET);
+        this.layerTiles = new LayerTileCache(LayerTileCache.DEFAULT_BYTE_BUDGET);
+        this.rasterizer = new TileRasterizer(TILE_SIZE);
+        this.pending = new HashMap<>();
+        this.viewListeners = new ArrayList<>();
+        this.painter = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                paintTiles(0, 0, canvas.getWidth(), canvas.getHeight());
+                drawLiveInk(0, 0, canvas.getWidth(), canvas.getHeight());
+            }
+        };
+    }
+
+    public double getScale() {
+        return Math.pow(ZOOM_STEP, zoomLevel);
+    }
+
+    public int getZoomLevel() {
+        return zoomLevel;
+    }
+
+    public double toBoardX(double screenX) {
+        return (screenX + originX) / getScale();
+    }
+
+    public double toBoardY(double screenY) {
+        return (screenY + originY) / getScale();
+    }
+
+    public double toScreenX(double boardX) {
+        return boardX * getScale() - originX;
+    }
+
+    public double toScreenY(double boardY) {
+        return boardY * getScale() - originY;
+    }
+
+    public Rectangle2D getVisibleBounds() {
+        double scale = getScale();
+        return new Rectangle2D(originX / scale, originY / scale, canvas.getWidth() / scale, canvas.getHeight() / scale);
+    }
+
+    // Lets live drawing on the screen canvas use board coordinates
+    public void applyBoardTransform(GraphicsContext target) {
+        double scale = getScale();
+        target.setTransform(scale, 0, 0, scale, -originX, -originY);
+    }
+
+    public void panBy(double dx, double dy) {
+        originX = Math.round(originX - dx);
+        originY = Math.round(originY - dy);
+        repaint();
+    }
+
+    // Changes zoom by whole steps while keeping the board point under the cursor in place
+    public void zoomAt(double screenX, double screenY, int steps) {
+        int level = Math.max(MIN_ZOOM_LEVEL, Math.min(MAX_ZOOM_LEVEL, zoomLevel + steps));
+        if (level == zoomLevel) {
+            return;
+        }
+        double boardX = toBoardX(screenX);
+        double boardY = toBoardY(screenY);
+        cancelPending(null);
+        zoomLevel = level;
+        originX = Math.round(boardX * getScale() - screenX);
+        originY = Math.round(boardY * getScale() - screenY);
+        repaint();
+    }
+
+    // Marks the tiles covering a changed board area stale and starts re-rendering the visible
+    // ones. The old tiles stay on screen until the new ones arrive, so nothing flashes.
+    public void invalidate(Rectangle2D boardBounds) {
+        if (boardBounds.getWidth() <= 0 || boardBounds.getHeight() <= 0) {
+            return;
+        }
+        tiles.invalidate(boardBounds);
+        cancelPending(boardBounds);
+        forEachTile(toScreenX(boardBounds.getMinX()), toScreenY(boardBounds.getMinY()),
+                toScreenX(boardBounds.getMaxX()), toScreenY(boardBounds.getMaxY()), this::requestTile);
+    }
+
+    public void invalidateAll() {
+        tiles.invalidateAll();
+        layerTiles.clear();
+        cancelPending(null);
+        repaint();
+    }
+
+    // Re-renders whatever the layers' documents report as changed since the last refresh.
+    // Only the edited layer's rasters are dropped; hidden layers need no new tiles at all.
+    public void refresh() {
+        for (Layer layer : layers.getLayers()) {
+            Rectangle2D dirty = layer.getDocument().takeDirtyBounds();
+            if (dirty.getWidth() <= 0 && dirty.getHeight() <= 0) {
+                continue;
+            }
+            layerTiles.invalidate(layer, dirty);
+            if (layer.isVisible()) {
+                invalidate(dirty);
+            }
+        }
+    }
+
+    // Composites every tile again after layers were hidden, shown or reordered. The layers'
+    // own rasters are still valid, so no items are rendered for layers that have them cached.
+    public void recomposite() {
+        tiles.invalidateAll();
+        cancelPending(null);
+        repaint();
+    }
+
+    // Schedules a full repaint of the viewport on the next pulse. Panning, zooming, resizing
+    // and showing or hiding layers all come through here, so view listeners are told too.
+    public void repaint() {
+        painter.start();
+        for (Runnable listener : viewListeners) {
+            listener.run();
+        }
+    }
+
+    // Ink drawn straight onto the screen canvas, such as a freehand stroke in progress, is in
+    // no tile, so tiles painted over it have it drawn again, clipped to the tile. Set to null
+    // once the ink is in the document.
+    public void setLiveInk(Runnable liveInk) {
+        this.liveInk = liveInk;
+    }
+
+    public void addViewListener(Runnable listener) {
+        viewListeners.add(listener);
+    }
+
+    // Whether tiles over a board area are still being rendered in the background
+    public boolean isRendering(Rectangle2D boardBounds) {
+        for (PendingTile job : pending.values()) {
+            if (job.bounds.intersects(boardBounds)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public TileCache getTileCache() {
+        return tiles;
+    }
+
+    public LayerTileCache getLayerTileCache() {
+        return layerTiles;
+    }
+
+    public TileRasterizer getRasterizer() {
+        return rasterizer;
+    }
+
+    // Blits the cached tiles overlapping a screen rectangle and requests the missing or stale
+    // ones. Tiles that have never been rendered are left white until they arrive.
+    private void paintTiles(double x0, double y0, double x1, double y1) {
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        forEachTile(x0, y0, x1, y1, (tileX, tileY) -> {
+            WritableImage tile = tiles.get(zoomLevel, tileX, tileY);
+            if (tile != null) {
+                gc.drawImage(tile, tileX * (double) TILE_SIZE - originX, tileY * (double) TILE_SIZE - originY);
+            } else if (!drawFallback(tileX, tileY)) {
+                gc.setFill(Color.WHITE);
+                gc.fillRect(tileX * (double) TILE_SIZE - originX, tileY * (double) TILE_SIZE - originY,
+                        TILE_SIZE, TILE_SIZE);
+            }
+            requestTile(tileX, tileY);
+        });
+    }
+
+    private void forEachTile(double x0, double y0, double x1, double y1, TileVisitor visitor) {
+        x0 = Math.max(0, x0);
+        y0 = Math.max(0, y0);
+        x1 = Math.min(canvas.getWidth(), x1);
+        y1 = Math.min(canvas.getHeight(), y1);
+        if (x1 <= x0 || y1 <= y0) {
+            return;
+        }
+
+        int firstTileX = (int) Math.floor((x0 + originX) / TILE_SIZE);
+        int lastTileX = (int) Math.floor((x1 - 1 + originX) / TILE_SIZE);
+        int firstTileY = (int) Math.floor((y0 + originY) / TILE_SIZE);
+        int lastTileY = (int) Math.floor((y1 - 1 + originY) / TILE_SIZE);
+        for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+            for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+                visitor.visit(tileX, tileY);
+            }
+        }
+    }
+
+    // Hands a missing or stale tile to the rasterizer unless it is already on its way
+    private void requestTile(int tileX, int tileY) {
+        TileCache.Key key = new TileCache.Key(zoomLevel, tileX, tileY);
+        if (!tiles.needsRender(zoomLevel, tileX, tileY) || pending.containsKey(key)) {
+            return;
+        }
+
+        double scale = getScale();
+        double size = TILE_SIZE / scale;
+        PendingTile job = new PendingTile(zoomLevel, tileX, tileY,
+                new Rectangle2D(tileX * size, tileY * size, size, size), layers.getVisibleLayers());
+        pending.put(key, job);
+
+        Image[] children = getFreshChildren(tileX, tileY);
+        if (children != null) {
+            rasterizer.downsampleAsync(children, () -> job.cancelled).whenComplete((pixels, error) ->
+                    Platform.runLater(() -> finishTile(key, job, pixels, null, error)));
+            return;
+        }
+
+        // Item lists are taken here, on the FX thread; workers never touch the documents
+        int[][] cached = new int[job.layers.size()][];
+        List<List<BoardItem>> items = new ArrayList<>(job.layers.size());
+        for (int i = 0; i < cached.length; i++) {
+            Layer layer = job.layers.get(i);
+            cached[i] = layerTiles.get(layer, zoomLevel, tileX, tileY);
+            items.add(cached[i] != null ? List.of() : layer.getDocument().query(job.bounds));
+        }
+        rasterizer.renderLayersAsync(cached, items, job.bounds.getMinX(), job.bounds.getMinY(), scale,
+                () -> job.cancelled).whenComplete((rendered, error) ->
+                Platform.runLater(() -> finishTile(key, job, rendered != null ? rendered.getPixels() : null,
+                        rendered, error)));
+    }
+
+    // The four up-to-date tiles one octave finer that cover a zoomed-out tile, if all are cached
+    private Image[] getFreshChildren(int tileX, int tileY) {
+        int childLevel = zoomLevel + LEVELS_PER_OCTAVE;
+        if (zoomLevel >= 0 || childLevel > MAX_ZOOM_LEVEL) {
+            return null;
+        }
+        Image[] children = new Image[4];
+        for (int q = 0; q < 4; q++) {
+            int childX = tileX * 2 + (q & 1);
+            int childY = tileY * 2 + (q >> 1);
+            if (tiles.needsRender(childLevel, childX, childY)) {
+                return null;
+            }
+            children[q] = tiles.get(childLevel, childX, childY);
+        }
+        return children;
+    }
+
+    // Stands in for a tile that has never been rendered with the nearest zoom level that has
+    // its area cached, scaled to fit, so zooming shows a preview at once instead of white
+    private boolean drawFallback(int tileX, int tileY) {
+        double size = TILE_SIZE / getScale();
+        Rectangle2D bounds = new Rectangle2D(tileX * size, tileY * size, size, size);
+        for (int distance = 1; distance <= MAX_COARSER_FALLBACK; distance++) {
+            if (drawLevel(zoomLevel - distance, bounds)) {
+                return true;
+            }
+            // Finer levels need more tiles per stand-in, so only look one octave up
+            if (distance <= LEVELS_PER_OCTAVE && drawLevel(zoomLevel + distance, bounds)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Draws the cached tiles of another zoom level over a board area, if they cover all of it
+    private boolean drawLevel(int level, Rectangle2D bounds) {
+        if (level < MIN_ZOOM_LEVEL || level > MAX_ZOOM_LEVEL) {
+            return false;
+        }
+        double levelSize = TILE_SIZE / Math.pow(ZOOM_STEP, level);
+        int firstX = (int) Math.floor(bounds.getMinX() / levelSize);
+        int lastX = (int) Math.ceil(bounds.getMaxX() / levelSize) - 1;
+        int firstY = (int) Math.floor(bounds.getMinY() / levelSize);
+        int lastY = (int) Math.ceil(bounds.getMaxY() / levelSize) - 1;
+        WritableImage[] cover = new WritableImage[(lastX - firstX + 1) * (lastY - firstY + 1)];
+        int n = 0;
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                WritableImage image = tiles.get(level, x, y);
+                if (image == null) {
+                    return false;
+                }
+                cover[n++] = image;
+            }
+        }
+
+        gc.save();
+        gc.beginPath();
+        gc.rect(toScreenX(bounds.getMinX()), toScreenY(bounds.getMinY()),
+                bounds.getWidth() * getScale(), bounds.getHeight() * getScale());
+        gc.clip();
+        double screenSize = levelSize * getScale();
+        n = 0;
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                gc.drawImage(cover[n++], toScreenX(x * levelSize), toScreenY(y * levelSize), screenSize, screenSize);
+            }
+        }
+        gc.restore();
+        return true;
+    }
+
+    private void finishTile(TileCache.Key key, PendingTile job, int[] pixels, TileRasterizer.RenderedTile rendered,
+                            Throwable error) {
+        if (pending.get(key) == job) {
+            pending.remove(key);
+        }
+        if (error != null) {
+            System.err.println("Failed to render tile: " + error);
+            return;
+        }
+        if (pixels == null) {
+            return;
+        }
+        if (job.cancelled) {
+            rasterizer.recycle(pixels);
+            return;
+        }
+
+        if (rendered != null) {
+            for (int i = 0; i < job.layers.size(); i++) {
+                if (rendered.getLayer(i) != null) {
+                    layerTiles.put(job.layers.get(i), job.zoomLevel, job.tileX, job.tileY, rendered.getLayer(i),
+                            job.bounds);
+                }
+            }
+        }
+
+        WritableImage image = new WritableImage(TILE_SIZE, TILE_SIZE);
+        image.getPixelWriter().setPixels(0, 0, TILE_SIZE, TILE_SIZE, PixelFormat.getIntArgbPreInstance(),
+                IntBuffer.wrap(pixels), TILE_SIZE);
+        rasterizer.recycle(pixels);
+        tiles.put(job.zoomLevel, job.tileX, job.tileY, image, job.bounds);
+
+        // Only this tile is drawn, so live ink elsewhere on the canvas is left alone
+        if (job.zoomLevel == zoomLevel) {
+            double x = job.tileX * (double) TILE_SIZE - originX;
+            double y = job.tileY * (double) TILE_SIZE - originY;
+            gc.setTransform(1, 0, 0, 1, 0, 0);
+            gc.drawImage(image, x, y);
+            drawLiveInk(x, y, TILE_SIZE, TILE_SIZE);
+        }
+    }
+
+    // Draws the live ink again over a screen area that tiles were just painted on
+    private void drawLiveInk(double x, double y, double width, double height) {
+        if (liveInk == null) {
+            return;
+        }
+        gc.save();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.beginPath();
+        gc.rect(x, y, width, height);
+        gc.clip();
+        liveInk.run();
+        gc.restore();
+    }
+
+    // Cancels background renders overlapping a board area, or all of them for null
+    private void cancelPending(Rectangle2D boardBounds) {
+        Iterator<PendingTile> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            PendingTile job = iterator.next();
+            if (boardBounds == null || job.bounds.intersects(boardBounds)) {
+                job.cancelled = true;
+                iterator.remove();
+            }
+        }
+    }
+
+    private interface TileVisitor {
+        void visit(int tileX, int tileY);
+    }
+
+    private static class PendingTile {
+        private final int zoomLevel;
+        private final int tileX;
+        private final int tileY;
+        private final Rectangle2D bounds;
+        private final List<Layer> layers; // Visible layers, bottom first, when the render started
+        private volatile boolean cancelled;
+
+        private PendingTile(int zoomLevel, int tileX, int tileY, Rectangle2D bounds, List<Layer> layers) {
+            this.zoomLevel = zoomLevel;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.bounds = bounds;
+            this.layers = layers;
+        }
+    }
+}
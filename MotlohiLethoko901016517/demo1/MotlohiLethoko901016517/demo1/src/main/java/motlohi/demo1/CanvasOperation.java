@@ -0,0 +1,21 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+// A single committed, undoable change to the board's layers
+public interface CanvasOperation {
+    void apply(LayerStack layers);
+
+    void revert(LayerStack layers);
+
+    // Area of the board whose rendering the operation changes
+    Rectangle2D getBounds();
+
+    // Estimated bytes of the items only the operation keeps alive: those it holds that are off
+    // the board while it is applied, or while it is reverted
+    long getRetainedBytes(boolean applied);
+
+    // What applying the operation takes off the board and puts on it, by layer and order key,
+    // for when the history spills the operation to disk
+    ItemChanges getChanges();
+}
@@ -0,0 +1,65 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+// Empties every layer that is not locked. Undo puts the items back at their own order keys.
+public class ClearOperation implements CanvasOperation {
+    private Map<Layer, SortedMap<Long, BoardItem>> removed = new IdentityHashMap<>();
+    private Rectangle2D bounds = Rectangle2D.EMPTY;
+
+    @Override
+    public void apply(LayerStack layers) {
+        bounds = layers.getBounds();
+        removed = new IdentityHashMap<>();
+        for (Layer layer : layers.getLayers()) {
+            if (!layer.isLocked()) {
+                removed.put(layer, layer.getDocument().clear());
+            }
+        }
+    }
+
+    @Override
+    public void revert(LayerStack layers) {
+        for (Map.Entry<Layer, SortedMap<Long, BoardItem>> entry : removed.entrySet()) {
+            BoardDocument document = entry.getKey().getDocument();
+            for (Map.Entry<Long, BoardItem> item : entry.getValue().entrySet()) {
+                document.add(item.getValue(), item.getKey());
+            }
+        }
+    }
+
+    // Once reverted the items are back on the board, so the history holds nothing extra
+    @Override
+    public long getRetainedBytes(boolean applied) {
+        long bytes = 0;
+        if (applied) {
+            for (SortedMap<Long, BoardItem> items : removed.values()) {
+                for (BoardItem item : items.values()) {
+                    bytes += OperationHistory.estimateBytes(item);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public ItemChanges getChanges() {
+        ItemChanges changes = new ItemChanges();
+        for (Map.Entry<Layer, SortedMap<Long, BoardItem>> entry : removed.entrySet()) {
+            for (Map.Entry<Long, BoardItem> item : entry.getValue().entrySet()) {
+                changes.remove(entry.getKey(), item.getKey(), item.getValue());
+            }
+        }
+        return changes;
+    }
+
+    // Everything that was on the board when it was cleared
+    @Override
+    public Rectangle2D getBounds() {
+        return bounds;
+    }
+}
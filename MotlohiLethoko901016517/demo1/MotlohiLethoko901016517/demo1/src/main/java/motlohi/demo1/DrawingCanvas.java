@@ -1,37 +1,100 @@
 package motlohi.demo1;
 
+import javafx.animation.AnimationTimer;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Cursor;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.WritableImage;
-import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.StrokeLineCap;
 import javafx.scene.shape.StrokeLineJoin;
 
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class DrawingCanvas {
+    // What the eraser does to the strokes it touches
+    public enum EraserMode {
+        OFF, SPLIT, STROKE
+    }
+
+    private static final double RESIZE_HANDLE = 10; // Screen pixels
+    private static final double MIN_IMAGE_SIZE = 8; // Screen pixels
+
     private final Canvas canvas;
     private final GraphicsContext gc;
+    private final PreviewOverlay overlay;
+    private final Pane boardPane;
     private final StackPane canvasContainer;
-    private final Stack<WritableImage> undoStack;
-    private final Stack<WritableImage> redoStack;
+    private final LayerStack layers;
+    private final BoardView view;
+    private final VideoCompositor videos;
+    private final OperationHistory history;
+    private final StrokeBuffer strokeBuffer; // Samples of the freehand stroke or eraser sweep in progress
+    private final StrokeCapture strokeCapture;
+    private final StrokeCapture.PathSink canvasPath;
+    private final AnimationTimer strokeRenderer;
+    private int renderedPoint; // Last buffered sample already erased
+    private EraseOperation eraseOperation; // Eraser gesture in progress, if any
+    private TransformImageOperation imageOperation; // Image move or resize in progress, if any
+    private boolean isResizingImage;
+    private boolean hasImageTarget; // Pointer moved since the image was last placed
+    private double grabX, grabY; // Board offset of the pointer from the image's corner
+    private double targetX, targetY, targetWidth, targetHeight;
+    private Runnable onLayersChanged;
+    private SessionJournal journal;
+    private List<BoardItem> heldItems; // Added while new items are held, in order
 
     private Color currentColor;
     private double strokeWidth;
-    private boolean eraserMode;
+    private EraserMode eraserMode;
+    private boolean isMovingImages;
     private boolean isDrawingStraightLine;
-    private double lastX, lastY;
-    private double prevX, prevY; // For smooth drawing
+    private boolean isPanning;
+    private boolean isIgnoringGesture; // Pressed while the ink layer was hidden or locked
+    private double lastX, lastY; // Board coordinates
+    private double lineEndX, lineEndY;
+    private double panX, panY; // Screen coordinates
 
     public DrawingCanvas() {
         this.canvas = new Canvas(950, 550);
         this.gc = canvas.getGraphicsContext2D();
-        this.canvasContainer = new StackPane(canvas);
-        this.undoStack = new Stack<>();
-        this.redoStack = new Stack<>();
+        this.overlay = new PreviewOverlay(canvas.getWidth(), canvas.getHeight());
+        this.boardPane = new Pane(canvas, overlay.getCanvas());
+        this.canvasContainer = new StackPane(boardPane);
+        this.layers = new LayerStack();
+        this.view = new BoardView(canvas, layers);
+        this.videos = new VideoCompositor(view, layers, canvas);
+        this.history = new OperationHistory(layers, view);
+        this.strokeBuffer = new StrokeBuffer(1024);
+        this.strokeCapture = new StrokeCapture(strokeBuffer, view::toBoardX, view::toBoardY);
+        this.canvasPath = new StrokeCapture.PathSink() {
+            @Override
+            public void moveTo(double x, double y) {
+                gc.moveTo(x, y);
+            }
+
+            @Override
+            public void quadraticCurveTo(double controlX, double controlY, double x, double y) {
+                gc.quadraticCurveTo(controlX, controlY, x, y);
+            }
+        };
+        this.strokeRenderer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (imageOperation != null) {
+                    flushImageTransform();
+                } else if (eraseOperation != null) {
+                    flushErase();
+                } else {
+                    flushStroke();
+                }
+            }
+        };
         initializeCanvas();
         styleCanvasContainer();
     }
@@ -39,15 +102,25 @@ public class DrawingCanvas {
     private void initializeCanvas() {
         currentColor = Color.BLACK;
         strokeWidth = 3.0;
-        eraserMode = false;
+        eraserMode = EraserMode.OFF;
         isDrawingStraightLine = false;
 
         // Configure smoother stroke rendering
         gc.setLineCap(StrokeLineCap.ROUND);
         gc.setLineJoin(StrokeLineJoin.ROUND);
 
-        clearCanvas();
+        // The canvases follow the size of the board area; the board itself has no edges
+        boardPane.setPrefSize(canvas.getWidth(), canvas.getHeight());
+        canvas.widthProperty().bind(boardPane.widthProperty());
+        canvas.heightProperty().bind(boardPane.heightProperty());
+        overlay.getCanvas().widthProperty().bind(boardPane.widthProperty());
+        overlay.getCanvas().heightProperty().bind(boardPane.heightProperty());
+        canvas.widthProperty().addListener((obs, oldVal, newVal) -> view.repaint());
+        canvas.heightProperty().addListener((obs, oldVal, newVal) -> view.repaint());
+
+        view.repaint();
         setupDrawingHandlers();
+        setupNavigationHandlers();
     }
 
     private void styleCanvasContainer() {
@@ -56,119 +129,461 @@ public class DrawingCanvas {
     }
 
     public void clearCanvas() {
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        undoStack.clear();
-        redoStack.clear();
-        saveCanvasState();
+        execute(new ClearOperation());
+    }
+
+    // Adds an item to the layer for its kind, unless that layer is locked
+    public void addItem(BoardItem item) {
+        if (heldItems != null) {
+            heldItems.add(item);
+            return;
+        }
+        Layer layer = layers.getLayerFor(item);
+        if (layer.isLocked()) {
+            return;
+        }
+        execute(new AddItemOperation(layer, item));
+    }
+
+    // Applies an operation to the layers, re-renders what it changed and records it for undo/redo
+    public void execute(CanvasOperation operation) {
+        operation.apply(layers);
+        view.refresh();
+        history.record(operation);
+    }
+
+    // Re-renders the whole view from the layers
+    public void redraw() {
+        view.invalidateAll();
+    }
+
+    // Empties every layer and the undo history before another board is opened
+    public void resetBoard() {
+        for (Layer layer : layers.getLayers()) {
+            layer.getDocument().clear();
+            layer.getDocument().takeDirtyBounds();
+            layer.setVisible(true);
+            layer.setLocked(false);
+        }
+        history.clear();
+        view.invalidateAll();
+        layersChanged();
+    }
+
+    // Stops drawing on the board and keeps items added some other way, such as text, until
+    // releaseNewItems. Recovery holds them until it has reserved the order keys of the items
+    // it restores, so nothing new takes one of those keys or ends up painted beneath them.
+    public void holdNewItems() {
+        if (heldItems == null) {
+            heldItems = new ArrayList<>();
+            canvasContainer.setDisable(true);
+        }
+    }
+
+    // Adds the items held since holdNewItems, on top of the board, and allows drawing again
+    public void releaseNewItems() {
+        if (heldItems == null) {
+            return;
+        }
+        List<BoardItem> held = heldItems;
+        heldItems = null;
+        canvasContainer.setDisable(false);
+        for (BoardItem item : held) {
+            addItem(item);
+        }
+    }
+
+    public void setJournal(SessionJournal journal) {
+        this.journal = journal;
+    }
+
+    public SessionJournal getJournal() {
+        return journal;
+    }
+
+    // Lets the layer panel follow changes made other than through it, such as opening a board
+    public void setOnLayersChanged(Runnable onLayersChanged) {
+        this.onLayersChanged = onLayersChanged;
+    }
+
+    public void layersChanged() {
+        if (onLayersChanged != null) {
+            onLayersChanged.run();
+        }
+    }
+
+    public void setLayerVisible(Layer layer, boolean visible) {
+        if (layer.isVisible() != visible) {
+            layer.setVisible(visible);
+            view.recomposite();
+        }
+    }
+
+    public void setLayerLocked(Layer layer, boolean locked) {
+        layer.setLocked(locked);
+    }
+
+    public void moveLayerUp(Layer layer) {
+        if (layers.moveUp(layer)) {
+            view.recomposite();
+        }
+    }
+
+    public void moveLayerDown(Layer layer) {
+        if (layers.moveDown(layer)) {
+            view.recomposite();
+        }
     }
 
     private void setupDrawingHandlers() {
         canvas.setOnMousePressed(e -> {
+            // Middle or right button drags the view instead of drawing
+            if (!e.isPrimaryButtonDown()) {
+                isPanning = true;
+                panX = e.getX();
+                panY = e.getY();
+                return;
+            }
+
+            if (isMovingImages) {
+                beginImageTransform(view.toBoardX(e.getX()), view.toBoardY(e.getY()));
+                return;
+            }
+
+            // Ink and erasing only work on the ink layer
+            if (!getInkLayer().isEditable()) {
+                isIgnoringGesture = true;
+                return;
+            }
+
+            if (eraserMode != EraserMode.OFF) {
+                beginErase(view.toBoardX(e.getX()), view.toBoardY(e.getY()));
+                return;
+            }
+
+            startDrawing();
             if (e.isShiftDown()) {
-                isDrawingStraightLine = true;
-                lastX = e.getX();
-                lastY = e.getY();
-                startDrawing(e);
+                beginStraightLine(view.toBoardX(e.getX()), view.toBoardY(e.getY()));
             } else {
-                isDrawingStraightLine = false;
-                prevX = e.getX();
-                prevY = e.getY();
-                startDrawing(e);
+                beginFreehand(view.toBoardX(e.getX()), view.toBoardY(e.getY()));
             }
         });
 
         canvas.setOnMouseDragged(e -> {
+            if (isPanning) {
+                view.panBy(e.getX() - panX, e.getY() - panY);
+                panX = e.getX();
+                panY = e.getY();
+                return;
+            }
+            if (isIgnoringGesture) {
+                return;
+            }
+
+            if (!e.isShiftDown() && !isDrawingStraightLine && imageOperation == null && eraseOperation == null) {
+                // The freehand path, which runs for every event of a drag and must not allocate
+                strokeCapture.dragTo(e.getX(), e.getY());
+                return;
+            }
+            double x = view.toBoardX(e.getX());
+            double y = view.toBoardY(e.getY());
+            if (imageOperation != null) {
+                updateImageTarget(x, y);
+                return;
+            }
+            if (eraseOperation != null) {
+                strokeBuffer.append(x, y);
+                return;
+            }
             if (e.isShiftDown()) {
                 if (!isDrawingStraightLine) {
-                    isDrawingStraightLine = true;
-                    lastX = e.getX();
-                    lastY = e.getY();
+                    commitFreehand();
+                    beginStraightLine(x, y);
                 }
-                drawStraightLine(e);
+                drawStraightLine(x, y);
             } else {
-                isDrawingStraightLine = false;
-                drawSmooth(e);
+                commitStraightLine();
+                beginFreehand(x, y);
+                strokeBuffer.append(x, y);
             }
         });
 
         canvas.setOnMouseReleased(e -> {
-            saveCanvasState();
+            if (isPanning) {
+                isPanning = false;
+                return;
+            }
+            if (isIgnoringGesture) {
+                isIgnoringGesture = false;
+                return;
+            }
+            if (imageOperation != null) {
+                commitImageTransform();
+                return;
+            }
+            if (eraseOperation != null) {
+                commitErase();
+                return;
+            }
+            if (isDrawingStraightLine) {
+                commitStraightLine();
+            } else {
+                commitFreehand();
+            }
             isDrawingStraightLine = false;
         });
     }
 
-    private void startDrawing(MouseEvent e) {
-        gc.setStroke(eraserMode ? Color.WHITE : currentColor);
-        gc.setLineWidth(strokeWidth);
-        gc.beginPath();
-        gc.moveTo(e.getX(), e.getY());
-        gc.stroke();
+    // Scrolling pans the board, Ctrl+scroll zooms around the cursor
+    private void setupNavigationHandlers() {
+        canvas.setOnScroll(e -> {
+            if (e.isControlDown()) {
+                view.zoomAt(e.getX(), e.getY(), e.getDeltaY() > 0 ? 1 : -1);
+            } else {
+                view.panBy(e.getDeltaX(), e.getDeltaY());
+            }
+            e.consume();
+        });
+    }
+
+    private void startDrawing() {
+        gc.setStroke(currentColor);
+        gc.setLineWidth(getBoardStrokeWidth());
+    }
+
+    private void beginFreehand(double x, double y) {
+        isDrawingStraightLine = false;
+        strokeCapture.begin(x, y);
+        videos.setHeld(true);
+        view.setLiveInk(this::redrawStroke);
+        strokeRenderer.start();
     }
 
-    private void drawSmooth(MouseEvent e) {
-        double x = e.getX();
-        double y = e.getY();
+    private void beginErase(double x, double y) {
+        eraseOperation = new EraseOperation(getInkLayer());
+        strokeBuffer.clear();
+        strokeBuffer.append(x, y);
+        renderedPoint = 0;
+        eraseSegment(x, y, x, y, getBoardStrokeWidth() / 2);
+        view.refresh();
+        drawEraserCursor(x, y);
+        strokeRenderer.start();
+    }
 
-        // Calculate control point (midpoint between previous and current position)
-        double ctrlX = (x + prevX) / 2;
-        double ctrlY = (y + prevY) / 2;
+    private void beginStraightLine(double x, double y) {
+        isDrawingStraightLine = true;
+        lastX = x;
+        lastY = y;
+        lineEndX = x;
+        lineEndY = y;
+    }
 
-        // Draw quadratic Bézier curve
+    // Runs once per pulse: draws every sample queued since the last frame as one path
+    private void flushStroke() {
+        if (!strokeCapture.hasPending()) {
+            return;
+        }
+        view.applyBoardTransform(gc);
         gc.beginPath();
-        gc.moveTo(prevX, prevY);
-        gc.quadraticCurveTo(ctrlX, ctrlY, x, y);
+        strokeCapture.walkPending(canvasPath);
         gc.stroke();
+    }
+
+    // Draws the stroke so far again, after the view painted tiles over it
+    private void redrawStroke() {
+        view.applyBoardTransform(gc);
+        gc.beginPath();
+        if (strokeCapture.walkRendered(canvasPath)) {
+            gc.stroke();
+        }
+    }
+
+    // Runs once per pulse while erasing: sweeps the eraser along every queued sample and
+    // re-renders the tiles under everything it changed in one go
+    private void flushErase() {
+        int last = strokeBuffer.getPointCount() - 1;
+        if (last <= renderedPoint) {
+            return;
+        }
+
+        double radius = getBoardStrokeWidth() / 2;
+        for (int i = renderedPoint + 1; i <= last; i++) {
+            eraseSegment(strokeBuffer.getX(i - 1), strokeBuffer.getY(i - 1),
+                    strokeBuffer.getX(i), strokeBuffer.getY(i), radius);
+        }
+        renderedPoint = last;
+        view.refresh();
+        drawEraserCursor(strokeBuffer.getX(last), strokeBuffer.getY(last));
+    }
+
+    // Erases the strokes under one sweep of the eraser; the ink layer's document records the changed area
+    private void eraseSegment(double x0, double y0, double x1, double y1, double radius) {
+        Rectangle2D area = new Rectangle2D(Math.min(x0, x1) - radius, Math.min(y0, y1) - radius,
+                Math.abs(x1 - x0) + 2 * radius, Math.abs(y1 - y0) + 2 * radius);
+        for (BoardItem item : eraseOperation.getLayer().getDocument().query(area)) {
+            if (!(item instanceof Stroke)) {
+                continue;
+            }
+            Stroke stroke = (Stroke) item;
+
+            List<Stroke> pieces;
+            if (eraserMode == EraserMode.STROKE) {
+                pieces = StrokeEraser.hits(stroke, x0, y0, x1, y1, radius) ? Collections.emptyList() : null;
+            } else {
+                pieces = StrokeEraser.split(stroke, x0, y0, x1, y1, radius, 1 / view.getScale());
+            }
+            if (pieces != null) {
+                eraseOperation.replace(stroke, pieces);
+            }
+        }
+    }
+
+    private void drawEraserCursor(double x, double y) {
+        double radius = strokeWidth / 2;
+        overlay.drawCircle(view.toScreenX(x), view.toScreenY(y), Math.max(radius, 2), Color.GRAY);
+    }
 
-        // Store current position for next segment
-        prevX = x;
-        prevY = y;
+    private void commitErase() {
+        strokeRenderer.stop();
+        flushErase();
+        overlay.clear();
+        if (!eraseOperation.isEmpty()) {
+            // Already applied while dragging, so it only needs recording for undo
+            history.record(eraseOperation);
+        }
+        eraseOperation = null;
+        strokeBuffer.clear();
     }
 
-    private void drawStraightLine(MouseEvent e) {
-        double newX = e.getX();
-        double newY = e.getY();
+    // Picks up the topmost image under the pointer. Its bottom-right corner resizes it,
+    // anywhere else moves it.
+    private void beginImageTransform(double x, double y) {
+        Layer layer = layers.getLayer(LayerStack.BACKGROUND);
+        double handle = RESIZE_HANDLE / view.getScale();
+        ImageItem image = null;
+        if (layer.isEditable()) {
+            List<BoardItem> found = layer.getDocument().query(
+                    new Rectangle2D(x - handle, y - handle, handle * 2, handle * 2));
+            for (int i = found.size() - 1; i >= 0 && image == null; i--) {
+                if (found.get(i) instanceof ImageItem && (found.get(i).getBounds().contains(x, y)
+                        || isOnCorner(found.get(i).getBounds(), x, y, handle))) {
+                    image = (ImageItem) found.get(i);
+                }
+            }
+        }
+        if (image == null) {
+            isIgnoringGesture = true;
+            return;
+        }
+
+        imageOperation = new TransformImageOperation(layer, image);
+        Rectangle2D bounds = image.getBounds();
+        isResizingImage = isOnCorner(bounds, x, y, handle);
+        grabX = x - bounds.getMinX();
+        grabY = y - bounds.getMinY();
+        canvas.setCursor(isResizingImage ? Cursor.SE_RESIZE : Cursor.MOVE);
+        drawImageFrame(bounds);
+        strokeRenderer.start();
+    }
+
+    private static boolean isOnCorner(Rectangle2D bounds, double x, double y, double handle) {
+        return Math.abs(x - bounds.getMaxX()) <= handle && Math.abs(y - bounds.getMaxY()) <= handle;
+    }
+
+    // Works out where the image goes; it is placed there on the next pulse
+    private void updateImageTarget(double x, double y) {
+        Rectangle2D bounds = imageOperation.getOriginal().getBounds();
+        if (isResizingImage) {
+            // Keeps the aspect ratio, following whichever side the pointer pulls further
+            double minScale = MIN_IMAGE_SIZE / view.getScale() / Math.max(1e-9, Math.min(bounds.getWidth(), bounds.getHeight()));
+            double scale = Math.max(minScale, Math.max((x - bounds.getMinX()) / bounds.getWidth(),
+                    (y - bounds.getMinY()) / bounds.getHeight()));
+            targetX = bounds.getMinX();
+            targetY = bounds.getMinY();
+            targetWidth = bounds.getWidth() * scale;
+            targetHeight = bounds.getHeight() * scale;
+        } else {
+            targetX = x - grabX;
+            targetY = y - grabY;
+            targetWidth = bounds.getWidth();
+            targetHeight = bounds.getHeight();
+        }
+        hasImageTarget = true;
+    }
 
+    // Runs once per pulse while an image is dragged. The image is replaced in its layer and
+    // only that layer is rendered again where it was and where it is now; the other layers'
+    // cached rasters are composited over it as they are.
+    private void flushImageTransform() {
+        if (!hasImageTarget) {
+            return;
+        }
+        hasImageTarget = false;
+        imageOperation.setBounds(targetX, targetY, targetWidth, targetHeight);
+        view.refresh();
+        drawImageFrame(imageOperation.getCurrent().getBounds());
+    }
+
+    private void drawImageFrame(Rectangle2D bounds) {
+        overlay.drawFrame(view.toScreenX(bounds.getMinX()), view.toScreenY(bounds.getMinY()),
+                bounds.getWidth() * view.getScale(), bounds.getHeight() * view.getScale(), RESIZE_HANDLE / 2,
+                Color.DODGERBLUE);
+    }
+
+    private void commitImageTransform() {
+        strokeRenderer.stop();
+        flushImageTransform();
+        overlay.clear();
+        canvas.setCursor(null);
+        if (!imageOperation.isEmpty()) {
+            // Already applied while dragging, so it only needs recording for undo
+            history.record(imageOperation);
+        }
+        imageOperation = null;
+    }
+
+    private void drawStraightLine(double newX, double newY) {
         if (Math.abs(newX - lastX) > Math.abs(newY - lastY)) {
             newY = lastY;
         } else {
             newX = lastX;
         }
 
-        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        if (!undoStack.isEmpty()) {
-            gc.drawImage(undoStack.peek(), 0, 0);
-        }
+        // The board itself is untouched until the line is committed
+        overlay.drawLine(view.toScreenX(lastX), view.toScreenY(lastY), view.toScreenX(newX), view.toScreenY(newY),
+                currentColor, strokeWidth);
 
-        gc.beginPath();
-        gc.moveTo(lastX, lastY);
-        gc.lineTo(newX, newY);
-        gc.stroke();
+        lineEndX = newX;
+        lineEndY = newY;
     }
 
-    public void saveCanvasState() {
-        WritableImage snapshot = new WritableImage((int)canvas.getWidth(), (int)canvas.getHeight());
-        canvas.snapshot(null, snapshot);
-        undoStack.push(snapshot);
-        redoStack.clear();
+    private void commitFreehand() {
+        strokeRenderer.stop();
+        videos.setHeld(false);
+        view.setLiveInk(null);
+        flushStroke();
+        if (strokeBuffer.getPointCount() > 1) {
+            // Store the simplified curve and repaint its area so the canvas matches the document
+            addItem(StrokeSimplifier.buildStroke(currentColor, getBoardStrokeWidth(), strokeBuffer.toArray(),
+                    1 / view.getScale()));
+        }
+        strokeBuffer.clear();
     }
 
-    public void undo() {
-        if (undoStack.size() > 1) {
-            redoStack.push(undoStack.pop());
-            WritableImage previousState = undoStack.peek();
-            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-            gc.drawImage(previousState, 0, 0);
+    private void commitStraightLine() {
+        overlay.clear();
+        if (lineEndX != lastX || lineEndY != lastY) {
+            addItem(new Stroke(currentColor, getBoardStrokeWidth(),
+                    new float[]{(float) lastX, (float) lastY, (float) lineEndX, (float) lineEndY}));
         }
     }
 
+    public void undo() {
+        history.undo();
+    }
+
     public void redo() {
-        if (!redoStack.isEmpty()) {
-            WritableImage nextState = redoStack.pop();
-            undoStack.push(nextState);
-            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-            gc.drawImage(nextState, 0, 0);
-        }
+        history.redo();
     }
 
     // Getters and setters
@@ -180,8 +595,28 @@ public class DrawingCanvas {
         return canvas;
     }
 
-    public GraphicsContext getGraphicsContext() {
-        return gc;
+    public PreviewOverlay getOverlay() {
+        return overlay;
+    }
+
+    public BoardView getView() {
+        return view;
+    }
+
+    public VideoCompositor getVideos() {
+        return videos;
+    }
+
+    public OperationHistory getHistory() {
+        return history;
+    }
+
+    public LayerStack getLayers() {
+        return layers;
+    }
+
+    public Layer getInkLayer() {
+        return layers.getLayer(LayerStack.INK);
     }
 
     public void setCurrentColor(Color color) {
@@ -200,15 +635,34 @@ public class DrawingCanvas {
         return strokeWidth;
     }
 
-    public void setEraserMode(boolean eraserMode) {
+    // Stroke width in board units, so lines look the chosen width at the current zoom
+    public double getBoardStrokeWidth() {
+        return strokeWidth / view.getScale();
+    }
+
+    public void setEraserMode(EraserMode eraserMode) {
         this.eraserMode = eraserMode;
     }
 
-    public boolean isEraserMode() {
+    public EraserMode getEraserMode() {
         return eraserMode;
     }
 
+    public boolean isEraserMode() {
+        return eraserMode != EraserMode.OFF;
+    }
+
+    // While on, dragging an image moves it and dragging its bottom-right corner resizes it
+    public void setMovingImages(boolean movingImages) {
+        this.isMovingImages = movingImages;
+    }
+
+    public boolean isMovingImages() {
+        return isMovingImages;
+    }
+
+    // Cycles off -> split eraser -> stroke eraser -> off
     public void toggleEraser() {
-        this.eraserMode = !this.eraserMode;
+        this.eraserMode = EraserMode.values()[(eraserMode.ordinal() + 1) % EraserMode.values().length];
     }
 }
\ No newline at end of file
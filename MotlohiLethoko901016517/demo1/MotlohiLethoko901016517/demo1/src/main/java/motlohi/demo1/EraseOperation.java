@@ -0,0 +1,111 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One eraser gesture. The gesture edits the document as the pointer moves; this records what
+// it removed and what pieces it left behind, with their paint order keys, so undo and redo
+// can swap them back without recomputing any geometry.
+public class EraseOperation implements CanvasOperation {
+    private final Layer layer;
+    private final Map<BoardItem, Long> removed; // Items that were on the board before the gesture
+    private final Map<BoardItem, Long> added;   // Pieces the gesture left on the board
+    private double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+    private double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+
+    public EraseOperation(Layer layer) {
+        this.layer = layer;
+        this.removed = new IdentityHashMap<>();
+        this.added = new IdentityHashMap<>();
+    }
+
+    // Replaces an item with what is left of it, at the item's depth. Returns the changed area.
+    public Rectangle2D replace(BoardItem item, List<? extends BoardItem> pieces) {
+        BoardDocument document = layer.getDocument();
+        long orderKey = document.getOrderKey(item);
+        document.remove(item);
+        if (added.remove(item) == null) {
+            removed.put(item, orderKey);
+        }
+
+        long pieceKey = orderKey;
+        for (BoardItem piece : pieces) {
+            document.add(piece, pieceKey);
+            added.put(piece, pieceKey);
+            pieceKey = document.orderKeyAfter(pieceKey);
+        }
+
+        Rectangle2D changed = item.getBounds();
+        include(changed);
+        return changed;
+    }
+
+    public Layer getLayer() {
+        return layer;
+    }
+
+    public boolean isEmpty() {
+        return removed.isEmpty() && added.isEmpty();
+    }
+
+    @Override
+    public void apply(LayerStack layers) {
+        BoardDocument document = layer.getDocument();
+        for (long orderKey : removed.values()) {
+            document.removeAt(orderKey);
+        }
+        for (Map.Entry<BoardItem, Long> entry : added.entrySet()) {
+            document.add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void revert(LayerStack layers) {
+        BoardDocument document = layer.getDocument();
+        for (long orderKey : added.values()) {
+            document.removeAt(orderKey);
+        }
+        for (Map.Entry<BoardItem, Long> entry : removed.entrySet()) {
+            document.add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        if (maxX < minX) {
+            return Rectangle2D.EMPTY;
+        }
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    @Override
+    public long getRetainedBytes(boolean applied) {
+        long bytes = 0;
+        for (BoardItem item : applied ? removed.keySet() : added.keySet()) {
+            bytes += OperationHistory.estimateBytes(item);
+        }
+        return bytes;
+    }
+
+    @Override
+    public ItemChanges getChanges() {
+        ItemChanges changes = new ItemChanges();
+        for (Map.Entry<BoardItem, Long> entry : removed.entrySet()) {
+            changes.remove(layer, entry.getValue(), entry.getKey());
+        }
+        for (Map.Entry<BoardItem, Long> entry : added.entrySet()) {
+            changes.add(layer, entry.getValue(), entry.getKey());
+        }
+        return changes;
+    }
+
+    private void include(Rectangle2D bounds) {
+        minX = Math.min(minX, bounds.getMinX());
+        minY = Math.min(minY, bounds.getMinY());
+        maxX = Math.max(maxX, bounds.getMaxX());
+        maxY = Math.max(maxY, bounds.getMaxY());
+    }
+}
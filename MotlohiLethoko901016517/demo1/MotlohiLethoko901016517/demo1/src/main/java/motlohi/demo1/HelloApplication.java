@@ -5,9 +5,11 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 public class HelloApplication extends Application {
+    private Whiteboard whiteboard;
+
     @Override
     public void start(Stage primaryStage) {
-        Whiteboard whiteboard = new Whiteboard();
+        whiteboard = new Whiteboard();
 
         Scene scene = new Scene(whiteboard.getRoot(), 1100, 700);
         primaryStage.setTitle("Interactive Digital Whiteboard");
@@ -15,6 +17,11 @@ public class HelloApplication extends Application {
         primaryStage.show();
     }
 
+    @Override
+    public void stop() {
+        whiteboard.close();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
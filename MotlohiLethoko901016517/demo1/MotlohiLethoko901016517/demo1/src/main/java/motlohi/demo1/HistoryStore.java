@@ -0,0 +1,276 @@
+package motlohi.demo1;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Storage for undo history that no longer fits in memory as operations. Operations are
+// written as their item changes and deflated on a background thread into direct (off-heap)
+// buffers. Once those pass their budget, the oldest are appended to a temp file. Both are
+// read back when undo or redo reaches them. Entries leave in stack order, so the file shrinks
+// back as they are taken and is truncated once nothing on disk is live.
+public class HistoryStore {
+    private final Set<Entry> compressed; // In the order they were put, oldest first
+    private final ExecutorService writer;
+    private long offHeapBudget;
+    private int entryCount;
+    private long bytesOffHeap;
+    private long bytesOnDisk;
+    private long fileEnd;
+    private Path spillPath;
+    private FileChannel spillFile;
+
+    public HistoryStore(long offHeapBudget) {
+        this.offHeapBudget = offHeapBudget;
+        this.compressed = new LinkedHashSet<>();
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "history-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Hands an operation's changes over to be compressed. They stay reachable through the
+    // entry until that is done.
+    public synchronized Entry put(ItemChanges changes) {
+        Entry entry = new Entry(changes);
+        entryCount++;
+        writer.execute(() -> compress(entry));
+        return entry;
+    }
+
+    // Reads an entry back, on the layers of the stack, and forgets it
+    public ItemChanges take(Entry entry, LayerStack layers) {
+        ByteBuffer data;
+        int length;
+        synchronized (this) {
+            if (entry.taken) {
+                throw new IllegalArgumentException("History entry was already taken");
+            }
+            ItemChanges pending = entry.pending;
+            if (pending == null) {
+                data = entry.offHeap != null ? entry.offHeap.duplicate() : readSpilled(entry);
+            } else {
+                data = null;
+            }
+            length = entry.rawLength;
+            release(entry);
+            if (pending != null) {
+                return pending;
+            }
+        }
+        return ItemChanges.read(inflate(data, length), layers);
+    }
+
+    // Forgets an entry without reading it, as when redo steps are discarded
+    public synchronized void remove(Entry entry) {
+        if (!entry.taken) {
+            release(entry);
+        }
+    }
+
+    public synchronized void setOffHeapBudget(long offHeapBudget) {
+        this.offHeapBudget = offHeapBudget;
+        spillOverBudget();
+    }
+
+    public synchronized int getEntryCount() {
+        return entryCount;
+    }
+
+    // Entries held compressed in direct buffers
+    public synchronized int getCompressedCount() {
+        return compressed.size();
+    }
+
+    public synchronized long getBytesOffHeap() {
+        return bytesOffHeap;
+    }
+
+    public synchronized long getBytesOnDisk() {
+        return bytesOnDisk;
+    }
+
+    private void compress(Entry entry) {
+        ItemChanges changes;
+        synchronized (this) {
+            changes = entry.pending;
+        }
+        if (changes == null) {
+            return;
+        }
+        BinaryWriter out = new BinaryWriter();
+        ByteBuffer data;
+        try {
+            changes.write(out);
+            data = deflate(out.toByteArray());
+        } catch (RuntimeException e) {
+            // Keep the entry as it is, undo still works without compressing it
+            System.err.println("Could not encode undo history: " + e);
+            return;
+        }
+
+        synchronized (this) {
+            if (entry.taken) {
+                return;
+            }
+            entry.offHeap = data;
+            entry.rawLength = out.size();
+            entry.pending = null;
+            compressed.add(entry);
+            bytesOffHeap += data.capacity();
+            spillOverBudget();
+        }
+    }
+
+    // Moves the oldest compressed entries to disk until the rest fit the budget
+    private void spillOverBudget() {
+        Iterator<Entry> oldest = compressed.iterator();
+        while (bytesOffHeap > offHeapBudget && oldest.hasNext()) {
+            Entry entry = oldest.next();
+            try {
+                FileChannel file = openSpillFile();
+                ByteBuffer data = entry.offHeap.duplicate();
+                long offset = fileEnd;
+                while (data.hasRemaining()) {
+                    file.write(data, offset + data.position());
+                }
+                entry.offset = offset;
+                entry.length = entry.offHeap.capacity();
+                entry.offHeap = null;
+                oldest.remove();
+                fileEnd = offset + entry.length;
+                bytesOffHeap -= entry.length;
+                bytesOnDisk += entry.length;
+            } catch (IOException e) {
+                // Keep the entry off-heap, undo still works without the spill file
+                System.err.println("Could not spill undo history: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void release(Entry entry) {
+        entry.taken = true;
+        entryCount--;
+        if (entry.pending != null) {
+            entry.pending = null;
+            return;
+        }
+        if (entry.offHeap != null) {
+            compressed.remove(entry);
+            bytesOffHeap -= entry.offHeap.capacity();
+            entry.offHeap = null;
+            return;
+        }
+        bytesOnDisk -= entry.length;
+        if (entry.offset + entry.length == fileEnd) {
+            fileEnd = entry.offset;
+        }
+        if (bytesOnDisk == 0 && spillFile != null) {
+            fileEnd = 0;
+            truncateSpillFile();
+        }
+    }
+
+    private FileChannel openSpillFile() throws IOException {
+        if (spillFile == null) {
+            spillPath = Files.createTempFile("whiteboard-history", ".bin");
+            spillPath.toFile().deleteOnExit();
+            spillFile = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return spillFile;
+    }
+
+    private void truncateSpillFile() {
+        try {
+            spillFile.truncate(0);
+        } catch (IOException e) {
+            System.err.println("Could not truncate undo history file: " + e.getMessage());
+        }
+    }
+
+    private ByteBuffer readSpilled(Entry entry) {
+        ByteBuffer data = ByteBuffer.allocate(entry.length);
+        try {
+            while (data.hasRemaining()) {
+                if (spillFile.read(data, entry.offset + data.position()) < 0) {
+                    throw new IOException("Undo history file is truncated");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        data.flip();
+        return data;
+    }
+
+    private static ByteBuffer deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(input);
+        deflater.finish();
+        ByteBuffer output = ByteBuffer.allocate(Math.max(64, input.length / 2));
+        while (!deflater.finished()) {
+            if (!output.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(output.capacity() * 2);
+                output.flip();
+                larger.put(output);
+                output = larger;
+            }
+            deflater.deflate(output);
+        }
+        deflater.end();
+
+        output.flip();
+        ByteBuffer offHeap = ByteBuffer.allocateDirect(output.remaining());
+        offHeap.put(output);
+        offHeap.flip();
+        return offHeap;
+    }
+
+    private static ByteBuffer inflate(ByteBuffer compressed, int length) {
+        ByteBuffer output = ByteBuffer.allocate(length);
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        try {
+            while (output.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(output) == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Entry ends early");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt undo history entry", e);
+        } finally {
+            inflater.end();
+        }
+        output.flip();
+        return output;
+    }
+
+    // One stored operation: its changes until they are compressed, then the compressed bytes
+    // off-heap, then where those are in the file
+    public static final class Entry {
+        private ItemChanges pending;
+        private ByteBuffer offHeap;
+        private int rawLength;
+        private long offset;
+        private int length;
+        private boolean taken;
+
+        private Entry(ItemChanges pending) {
+            this.pending = pending;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package motlohi.demo1;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+// Decoded pictures shared by everything in the app that loads one, keyed by a hash of the
+// picture's bytes and the size it was decoded at. The same picture dropped five times, or
+// embedded in many items of a board file, is decoded once per size and held once.
+// Entries are evicted least recently used first once their pixels pass the byte budget.
+// Each image is charged for its own pixels and for the ImagePyramid levels the rasterizer
+// derives from it, which add up to a third more, so the budget bounds both.
+// An evicted image that is still on the board is remembered weakly and handed out again,
+// so eviction never leads to two copies of the same pixels.
+public class ImageCache {
+    public static final long DEFAULT_BYTE_BUDGET = 256L * 1024 * 1024;
+
+    private static final ImageCache SHARED = new ImageCache(
+            Long.getLong("whiteboard.imageCacheBytes", DEFAULT_BYTE_BUDGET));
+
+    private final LinkedHashMap<Key, Image> images;
+    private final Map<Key, Released> released;
+    private final ReferenceQueue<Image> collected;
+    private final Map<Key, CompletableFuture<Image>> decoding;
+    private final Map<Image, byte[]> sources; // File bytes of images decoded at their own size
+    private long byteBudget;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long decodedBytes;
+
+    public ImageCache(long byteBudget) {
+        this.byteBudget = byteBudget;
+        this.images = new LinkedHashMap<>(64, 0.75f, true);
+        this.released = new HashMap<>();
+        this.collected = new ReferenceQueue<>();
+        this.decoding = new HashMap<>();
+        this.sources = new WeakHashMap<>();
+    }
+
+    // The app's cache; its budget can be set with -Dwhiteboard.imageCacheBytes
+    public static ImageCache getShared() {
+        return SHARED;
+    }
+
+    // The picture in a file's bytes, scaled down as it is decoded to fit within maxWidth by
+    // maxHeight, and never scaled up. A bound of 0 leaves that side free. Requests that come
+    // to the same size share one decoded image. Safe to call from any thread; a decode runs
+    // on the calling thread, and other threads asking for the same image wait for it.
+    public Image get(byte[] data, int maxWidth, int maxHeight) {
+        int[] size = ImageHeader.readSize(data);
+        int width = 0, height = 0;
+        if (size != null) {
+            double scale = 1;
+            if (maxWidth > 0) {
+                scale = Math.min(scale, (double) maxWidth / size[0]);
+            }
+            if (maxHeight > 0) {
+                scale = Math.min(scale, (double) maxHeight / size[1]);
+            }
+            if (scale < 1) {
+                width = (int) Math.max(1, Math.round(size[0] * scale));
+                height = (int) Math.max(1, Math.round(size[1] * scale));
+            }
+        }
+        MessageDigest digest = newDigest();
+        digest.update(data);
+        int requestedWidth = width, requestedHeight = height;
+        Image image = get(new Key(digest.digest(), width, height),
+                () -> new Image(new ByteArrayInputStream(data), requestedWidth, requestedHeight, true, true));
+        if (width == 0 && height == 0 && !image.isError()) {
+            synchronized (this) {
+                sources.putIfAbsent(image, data);
+            }
+        }
+        return image;
+    }
+
+    // The file bytes an image was decoded from, if it was decoded at its own size here, or
+    // null. Storing these keeps a JPEG a JPEG rather than a PNG of its decoded pixels.
+    public synchronized byte[] getSource(Image image) {
+        return sources.get(image);
+    }
+
+    // An image decoded elsewhere, such as one dropped from another application, swapped for
+    // the cached copy of the same pixels when there is one
+    public Image intern(Image image) {
+        PixelReader reader = image.getPixelReader();
+        if (reader == null || image.isError() || image.getProgress() < 1) {
+            return image;
+        }
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        MessageDigest digest = newDigest();
+        // Marks the hash as one of pixels, so it can never match the hash of a file
+        digest.update((byte) 1);
+        int[] row = new int[width];
+        ByteBuffer rowBytes = ByteBuffer.allocate(width * 4);
+        for (int y = 0; y < height; y++) {
+            reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width);
+            rowBytes.clear();
+            rowBytes.asIntBuffer().put(row);
+            digest.update(rowBytes.array());
+        }
+        return get(new Key(digest.digest(), width, height), () -> image);
+    }
+
+    public synchronized void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        evict();
+    }
+
+    public synchronized long getByteBudget() {
+        return byteBudget;
+    }
+
+    // Bytes charged for the images held by the cache itself, pyramids included, not counting
+    // evicted images still in use
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Bytes of pixels decoded over the cache's life, including decodes evicted since
+    public synchronized long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    public synchronized void clear() {
+        images.clear();
+        released.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("image cache: %d hits, %d misses, %d evictions, %d images in %d of %d MB",
+                hits, misses, evictions, images.size(), bytes >> 20, byteBudget >> 20);
+    }
+
+    private Image get(Key key, Supplier<Image> decoder) {
+        CompletableFuture<Image> pending;
+        synchronized (this) {
+            Image image = lookup(key);
+            if (image != null) {
+                hits++;
+                return image;
+            }
+            pending = decoding.get(key);
+            if (pending != null) {
+                hits++;
+            } else {
+                misses++;
+                decoding.put(key, new CompletableFuture<>());
+            }
+        }
+        if (pending != null) {
+            return pending.join();
+        }
+
+        Image image;
+        try {
+            image = decoder.get();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                decoding.remove(key).completeExceptionally(e);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            // Pictures that fail to decode are not kept, so the next request tries again
+            if (!image.isError()) {
+                decodedBytes += (long) image.getWidth() * (long) image.getHeight() * 4;
+                insert(key, image);
+            }
+            decoding.remove(key).complete(image);
+        }
+        return image;
+    }
+
+    private Image lookup(Key key) {
+        Image image = images.get(key);
+        if (image == null) {
+            Released reference = released.remove(key);
+            image = reference != null ? reference.get() : null;
+            if (image != null) {
+                insert(key, image);
+            }
+        }
+        return image;
+    }
+
+    private void insert(Key key, Image image) {
+        Image previous = images.put(key, image);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += sizeOf(image);
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Image>> eldest = images.entrySet().iterator();
+        while (bytes > byteBudget && eldest.hasNext()) {
+            Map.Entry<Key, Image> entry = eldest.next();
+            bytes -= sizeOf(entry.getValue());
+            released.put(entry.getKey(), new Released(entry.getKey(), entry.getValue(), collected));
+            eldest.remove();
+            evictions++;
+        }
+        // Forgets evicted images that have since been garbage collected
+        Released reference;
+        while ((reference = (Released) collected.poll()) != null) {
+            released.remove(reference.key, reference);
+        }
+    }
+
+    // The image's pixels and its pyramid's reduced levels
+    private static long sizeOf(Image image) {
+        long pixels = (long) image.getWidth() * (long) image.getHeight() * 4;
+        return pixels + pixels / 3;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Released extends WeakReference<Image> {
+        private final Key key;
+
+        private Released(Key key, Image image, ReferenceQueue<Image> queue) {
+            super(image, queue);
+            this.key = key;
+        }
+    }
+
+    // A content hash and the size decoded at, with 0 by 0 for the picture's own size
+    static class Key {
+        private final byte[] hash;
+        private final int width;
+        private final int height;
+
+        Key(byte[] hash, int width, int height) {
+            this.hash = hash;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && Arrays.equals(hash, other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(Arrays.hashCode(hash), width, height);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package motlohi.demo1;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+// Reads the pixel size of a PNG, JPEG, GIF or BMP picture from its header, without decoding
+// it, so a large picture can be scaled down while it is decoded instead of afterwards.
+public final class ImageHeader {
+    private ImageHeader() {
+    }
+
+    // Width and height, or null if the format isn't known or the header can't be read
+    public static int[] readSize(byte[] data) {
+        try {
+            return readSize(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static int[] readSize(DataInputStream in) throws IOException {
+        int first = in.readUnsignedByte();
+        int second = in.readUnsignedByte();
+        if (first == 0x89 && second == 'P') {
+            // The rest of the signature and the length of IHDR, which always comes first
+            in.skipNBytes(10);
+            if (in.readInt() != 0x49484452) {
+                return null;
+            }
+            return size(in.readInt(), in.readInt());
+        } else if (first == 'G' && second == 'I') {
+            in.skipNBytes(4);
+            return size(readShortLE(in), readShortLE(in));
+        } else if (first == 'B' && second == 'M') {
+            in.skipNBytes(12);
+            if (readIntLE(in) == 12) {
+                return size(readShortLE(in), readShortLE(in));
+            }
+            // Bottom-up bitmaps have a positive height, top-down ones a negative one
+            return size(readIntLE(in), Math.abs(readIntLE(in)));
+        } else if (first == 0xFF && second == 0xD8) {
+            return readJpegSize(in);
+        }
+        return null;
+    }
+
+    // Walks the segments up to the frame header, skipping metadata such as EXIF thumbnails
+    private static int[] readJpegSize(DataInputStream in) throws IOException {
+        while (true) {
+            int marker = in.readUnsignedByte();
+            if (marker != 0xFF) {
+                return null;
+            }
+            while (marker == 0xFF) {
+                marker = in.readUnsignedByte();
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                return null;
+            }
+            int length = in.readUnsignedShort();
+            // Start of frame, of any kind; C4, C8 and CC are other segments in the same range
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                in.readUnsignedByte();
+                int height = in.readUnsignedShort();
+                return size(in.readUnsignedShort(), height);
+            }
+            in.skipNBytes(length - 2);
+        }
+    }
+
+    private static int[] size(int width, int height) {
+        return width > 0 && height > 0 ? new int[]{width, height} : null;
+    }
+
+    private static int readShortLE(DataInputStream in) throws IOException {
+        return in.readUnsignedByte() | in.readUnsignedByte() << 8;
+    }
+
+    private static int readIntLE(DataInputStream in) throws IOException {
+        return readShortLE(in) | readShortLE(in) << 16;
+    }
+}
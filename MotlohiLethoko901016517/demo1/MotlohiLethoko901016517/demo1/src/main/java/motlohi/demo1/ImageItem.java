@@ -0,0 +1,88 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+
+// A picture placed on the board at any position and size. Moving or resizing one replaces
+// the item with a copy that shares its image and mipmap pyramid, so only the board area
+// it covers is rendered again; the pixels are never copied or decoded again.
+public class ImageItem implements BoardItem {
+    private final Image image;
+    private final ImagePyramid pyramid;
+    private final double x;
+    private final double y;
+    private final double width;
+    private final double height;
+
+    // At the image's own size, one board unit per pixel
+    public ImageItem(Image image, double x, double y) {
+        this(image, x, y, image.getWidth(), image.getHeight());
+    }
+
+    public ImageItem(Image image, double x, double y, double width, double height) {
+        this.image = image;
+        this.pyramid = ImagePyramid.of(image);
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    // The same picture placed over another board area
+    public ImageItem withBounds(double x, double y, double width, double height) {
+        return new ImageItem(image, x, y, width, height);
+    }
+
+    @Override
+    public void render(GraphicsContext gc) {
+        gc.drawImage(image, x, y, width, height);
+    }
+
+    @Override
+    public void rasterize(Raster raster) {
+        int level = pyramid.levelFor(width * raster.getScale(), height * raster.getScale());
+        if (level == 0) {
+            PixelReader reader = pyramid.getReader();
+            if (reader != null) {
+                raster.drawImage(reader, pyramid.getWidth(0), pyramid.getHeight(0), x, y, width, height);
+            }
+            return;
+        }
+        int[] source = pyramid.getLevel(level);
+        if (source != null) {
+            raster.drawImage(source, pyramid.getWidth(level), pyramid.getHeight(level), x, y, width, height);
+        }
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        return new Rectangle2D(x, y, width, height);
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    // Whether the picture is shown at its own size, one board unit per pixel
+    public boolean isNativeSize() {
+        return width == image.getWidth() && height == image.getHeight();
+    }
+}
@@ -0,0 +1,130 @@
+package motlohi.demo1;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Premultiplied copies of an image at successive halvings of its size, for the software
+// rasterizer. An image is drawn from the smallest level that still has a texel for every
+// pixel it covers, so zoomed out it neither aliases nor costs more than its size on
+// screen. Level 0 is the image itself, read through its PixelReader, so the copies add at
+// most a third to the image's own pixels. The others are built on first use, the first
+// straight from the reader and each after it averaged down from the one above, and are
+// shared by every board item showing the same image, however it is moved or resized.
+public class ImagePyramid {
+    private static final Map<Image, ImagePyramid> PYRAMIDS = new WeakHashMap<>();
+
+    // Weak, so the shared map does not keep the image alive; its items hold it
+    private final WeakReference<Image> source;
+    private final int[] widths;
+    private final int[] heights;
+    private final int[][] levels; // Level 0 stays null; it is read from the image
+
+    private ImagePyramid(Image image) {
+        this.source = new WeakReference<>(image);
+        int width = Math.max(1, (int) image.getWidth());
+        int height = Math.max(1, (int) image.getHeight());
+        int count = 1;
+        for (int w = width, h = height; w > 1 || h > 1; w = (w + 1) / 2, h = (h + 1) / 2) {
+            count++;
+        }
+        this.widths = new int[count];
+        this.heights = new int[count];
+        this.levels = new int[count][];
+        for (int level = 0; level < count; level++) {
+            widths[level] = width;
+            heights[level] = height;
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+    }
+
+    public static synchronized ImagePyramid of(Image image) {
+        return PYRAMIDS.computeIfAbsent(image, ImagePyramid::new);
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getWidth(int level) {
+        return widths[level];
+    }
+
+    public int getHeight(int level) {
+        return heights[level];
+    }
+
+    // The smallest level at least the given size in pixels, or the full image when enlarged
+    public int levelFor(double pixelWidth, double pixelHeight) {
+        int level = 0;
+        while (level + 1 < levels.length && widths[level + 1] >= pixelWidth && heights[level + 1] >= pixelHeight) {
+            level++;
+        }
+        return level;
+    }
+
+    // The reader of the full-size image, or null while the image has not finished loading
+    public PixelReader getReader() {
+        Image image = source.get();
+        PixelReader reader = image != null ? image.getPixelReader() : null;
+        if (reader == null || image.getProgress() < 1 || image.isError()) {
+            return null;
+        }
+        return reader;
+    }
+
+    // A reduced level's pixels, from 1 down, or null while the image has not finished loading
+    public synchronized int[] getLevel(int level) {
+        if (level < 1) {
+            throw new IllegalArgumentException("Level 0 is read from the image");
+        }
+        if (levels[level] != null) {
+            return levels[level];
+        }
+
+        int aboveWidth = widths[level - 1], aboveHeight = heights[level - 1];
+        int width = widths[level], height = heights[level];
+        int[] pixels = new int[width * height];
+        if (level == 1) {
+            PixelReader reader = getReader();
+            if (reader == null) {
+                return null;
+            }
+            // Two rows of the image at a time
+            int[] rows = new int[aboveWidth * 2];
+            for (int y = 0; y < height; y++) {
+                int count = Math.min(2, aboveHeight - y * 2);
+                reader.getPixels(0, y * 2, aboveWidth, count, PixelFormat.getIntArgbPreInstance(), rows, 0, aboveWidth);
+                reduceRow(rows, aboveWidth, 0, (count - 1) * aboveWidth, pixels, y * width, width);
+            }
+        } else {
+            int[] above = getLevel(level - 1);
+            if (above == null) {
+                return null;
+            }
+            for (int y = 0; y < height; y++) {
+                int top = y * 2 * aboveWidth;
+                int bottom = Math.min(y * 2 + 1, aboveHeight - 1) * aboveWidth;
+                reduceRow(above, aboveWidth, top, bottom, pixels, y * width, width);
+            }
+        }
+        levels[level] = pixels;
+        return pixels;
+    }
+
+    // Averages two rows of a level into one row of the next. An odd last row or column is
+    // averaged with itself.
+    private static void reduceRow(int[] above, int aboveWidth, int top, int bottom, int[] pixels, int row, int width) {
+        for (int x = 0; x < width; x++) {
+            int left = x * 2;
+            int right = Math.min(left + 1, aboveWidth - 1);
+            pixels[row + x] = TileRasterizer.average(above[top + left], above[top + right],
+                    above[bottom + left], above[bottom + right]);
+        }
+    }
+}
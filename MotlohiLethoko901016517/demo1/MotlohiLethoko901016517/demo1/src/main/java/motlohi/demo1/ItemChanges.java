@@ -0,0 +1,125 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// What an operation takes off the board and puts on it when applied: items with their layers
+// and paint order keys. Replayed by key it gives the same board as the operation it came
+// from, even with copies of the items, so the history writes operations out in this form
+// when it spills them to disk and undoes them from it when read back.
+public class ItemChanges implements CanvasOperation {
+    private final List<Change> removed;
+    private final List<Change> added;
+
+    public ItemChanges() {
+        this.removed = new ArrayList<>();
+        this.added = new ArrayList<>();
+    }
+
+    public void remove(Layer layer, long orderKey, BoardItem item) {
+        removed.add(new Change(layer, orderKey, item));
+    }
+
+    public void add(Layer layer, long orderKey, BoardItem item) {
+        added.add(new Change(layer, orderKey, item));
+    }
+
+    @Override
+    public void apply(LayerStack layers) {
+        swap(removed, added);
+    }
+
+    @Override
+    public void revert(LayerStack layers) {
+        swap(added, removed);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (List<Change> changes : List.of(removed, added)) {
+            for (Change change : changes) {
+                Rectangle2D bounds = change.item.getBounds();
+                minX = Math.min(minX, bounds.getMinX());
+                minY = Math.min(minY, bounds.getMinY());
+                maxX = Math.max(maxX, bounds.getMaxX());
+                maxY = Math.max(maxY, bounds.getMaxY());
+            }
+        }
+        if (maxX < minX) {
+            return Rectangle2D.EMPTY;
+        }
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    @Override
+    public long getRetainedBytes(boolean applied) {
+        long bytes = 0;
+        for (Change change : applied ? removed : added) {
+            bytes += OperationHistory.estimateBytes(change.item);
+        }
+        return bytes;
+    }
+
+    @Override
+    public ItemChanges getChanges() {
+        return this;
+    }
+
+    public void write(BinaryWriter out) {
+        writeChanges(out, removed);
+        writeChanges(out, added);
+    }
+
+    // Reads changes written by write, on the layers of the same names
+    public static ItemChanges read(ByteBuffer in, LayerStack layers) {
+        ItemChanges changes = new ItemChanges();
+        readChanges(in, layers, changes.removed);
+        readChanges(in, layers, changes.added);
+        return changes;
+    }
+
+    // Takes one set of items off the board by key and puts the other back at its keys
+    private static void swap(List<Change> off, List<Change> on) {
+        for (Change change : off) {
+            change.layer.getDocument().removeAt(change.orderKey);
+        }
+        for (Change change : on) {
+            change.layer.getDocument().add(change.item, change.orderKey);
+        }
+    }
+
+    private static void writeChanges(BinaryWriter out, List<Change> changes) {
+        out.writeVarLong(changes.size());
+        for (Change change : changes) {
+            out.writeString(change.layer.getName());
+            out.writeLong(change.orderKey);
+            BoardCodec.writeItem(out, change.item);
+        }
+    }
+
+    private static void readChanges(ByteBuffer in, LayerStack layers, List<Change> changes) {
+        int count = (int) BoardCodec.readVarLong(in);
+        for (int i = 0; i < count; i++) {
+            Layer layer = layers.getLayer(BoardCodec.readString(in));
+            long orderKey = in.getLong();
+            changes.add(new Change(layer, orderKey, BoardCodec.readItem(in)));
+        }
+    }
+
+    private static class Change {
+        private final Layer layer;
+        private final long orderKey;
+        private final BoardItem item;
+
+        private Change(Layer layer, long orderKey, BoardItem item) {
+            this.layer = layer;
+            this.orderKey = orderKey;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package motlohi.demo1;
+
+// A named, independently rendered slice of the board with its own items and spatial index.
+// Hidden layers are left out of the composite; locked layers refuse new edits.
+public class Layer {
+    private final String name;
+    private final BoardDocument document;
+    private boolean visible;
+    private boolean locked;
+
+    public Layer(String name) {
+        this.name = name;
+        this.document = new BoardDocument();
+        this.visible = true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BoardDocument getDocument() {
+        return document;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    public boolean isLocked() {
+        return locked;
+    }
+
+    public void setLocked(boolean locked) {
+        this.locked = locked;
+    }
+
+    // Edits are only taken on layers the user can see and has not locked
+    public boolean isEditable() {
+        return visible && !locked;
+    }
+}
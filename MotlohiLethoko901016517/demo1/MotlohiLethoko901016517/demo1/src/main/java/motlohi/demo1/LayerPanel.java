@@ -0,0 +1,86 @@
+package motlohi.demo1;
+
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import java.util.List;
+
+// Side panel listing the board's layers top first, with visibility, lock and ordering controls
+public class LayerPanel {
+    private final VBox layerBox;
+    private final VBox rows;
+    private final DrawingCanvas drawingCanvas;
+
+    public LayerPanel(DrawingCanvas drawingCanvas) {
+        this.drawingCanvas = drawingCanvas;
+        this.rows = new VBox(5);
+        this.layerBox = new VBox(10);
+
+        initializeLayerBox();
+        rebuildRows();
+        drawingCanvas.setOnLayersChanged(this::rebuildRows);
+    }
+
+    private void initializeLayerBox() {
+        Label title = new Label("Layers");
+        title.setStyle("-fx-font-weight: bold; -fx-text-fill: #333;");
+        layerBox.getChildren().addAll(title, rows);
+        layerBox.setPadding(new Insets(10));
+        layerBox.setStyle("-fx-border-color: #ccc; -fx-background-color: rgba(255,255,255,0.9); -fx-padding: 10px; -fx-border-radius: 10px;");
+        layerBox.setPrefWidth(200);
+    }
+
+    private void rebuildRows() {
+        rows.getChildren().clear();
+        List<Layer> layers = drawingCanvas.getLayers().getLayers();
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            rows.getChildren().add(createRow(layers.get(i)));
+        }
+    }
+
+    private VBox createRow(Layer layer) {
+        Label name = new Label(layer.getName());
+        name.setStyle("-fx-font-weight: bold; -fx-text-fill: #333;");
+
+        CheckBox visible = new CheckBox("Visible");
+        visible.setSelected(layer.isVisible());
+        visible.setOnAction(e -> drawingCanvas.setLayerVisible(layer, visible.isSelected()));
+
+        CheckBox locked = new CheckBox("Lock");
+        locked.setSelected(layer.isLocked());
+        locked.setOnAction(e -> drawingCanvas.setLayerLocked(layer, locked.isSelected()));
+
+        Button up = createSmallButton("Up");
+        up.setOnAction(e -> {
+            drawingCanvas.moveLayerUp(layer);
+            rebuildRows();
+        });
+        Button down = createSmallButton("Down");
+        down.setOnAction(e -> {
+            drawingCanvas.moveLayerDown(layer);
+            rebuildRows();
+        });
+
+        HBox controls = new HBox(5, visible, locked, up, down);
+        controls.setAlignment(Pos.CENTER_LEFT);
+        VBox row = new VBox(3, name, controls);
+        row.setStyle("-fx-background-color: #f0f0f0; -fx-padding: 5px; -fx-border-radius: 5px;");
+        return row;
+    }
+
+    private Button createSmallButton(String text) {
+        Button button = new Button(text);
+        button.setStyle("-fx-background-color: #3498db; -fx-text-fill: white; -fx-font-size: 10px; " +
+                "-fx-padding: 2px 6px; -fx-background-radius: 5px; -fx-cursor: hand;");
+        return button;
+    }
+
+    public VBox getLayerBox() {
+        return layerBox;
+    }
+}
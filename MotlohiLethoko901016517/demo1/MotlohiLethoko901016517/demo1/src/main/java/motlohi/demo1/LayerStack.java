@@ -0,0 +1,115 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The board's layers from bottom to top. Images sit on the background, ink above them and
+// text annotations on top, so each kind of change only touches its own layer.
+public class LayerStack {
+    public static final String BACKGROUND = "Background";
+    public static final String INK = "Ink";
+    public static final String ANNOTATIONS = "Annotations";
+
+    private final List<Layer> layers;
+
+    public LayerStack() {
+        this.layers = new ArrayList<>();
+        layers.add(new Layer(BACKGROUND));
+        layers.add(new Layer(INK));
+        layers.add(new Layer(ANNOTATIONS));
+    }
+
+    // Bottom to top
+    public List<Layer> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    public List<Layer> getVisibleLayers() {
+        List<Layer> visible = new ArrayList<>(layers.size());
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                visible.add(layer);
+            }
+        }
+        return visible;
+    }
+
+    public Layer getLayer(String name) {
+        for (Layer layer : layers) {
+            if (layer.getName().equals(name)) {
+                return layer;
+            }
+        }
+        throw new IllegalArgumentException("No layer named " + name);
+    }
+
+    // The layer an item goes on when it is added to the board
+    public Layer getLayerFor(BoardItem item) {
+        if (item instanceof Stroke) {
+            return getLayer(INK);
+        }
+        if (item instanceof TextBlock) {
+            return getLayer(ANNOTATIONS);
+        }
+        return getLayer(BACKGROUND);
+    }
+
+    public boolean moveUp(Layer layer) {
+        int index = layers.indexOf(layer);
+        if (index < 0 || index == layers.size() - 1) {
+            return false;
+        }
+        Collections.swap(layers, index, index + 1);
+        return true;
+    }
+
+    public boolean moveDown(Layer layer) {
+        int index = layers.indexOf(layer);
+        if (index <= 0) {
+            return false;
+        }
+        Collections.swap(layers, index, index - 1);
+        return true;
+    }
+
+    // Moves a layer to a position counted from the bottom
+    public void moveTo(Layer layer, int index) {
+        if (layers.remove(layer)) {
+            layers.add(Math.max(0, Math.min(index, layers.size())), layer);
+        }
+    }
+
+    // Items of every visible layer over a board area, bottom layer first, in paint order
+    public List<BoardItem> query(Rectangle2D area) {
+        List<BoardItem> found = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                found.addAll(layer.getDocument().query(area));
+            }
+        }
+        return found;
+    }
+
+    // Union of every layer's bounds
+    public Rectangle2D getBounds() {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Layer layer : layers) {
+            Rectangle2D bounds = layer.getDocument().getBounds();
+            if (bounds.getWidth() <= 0 && bounds.getHeight() <= 0) {
+                continue;
+            }
+            minX = Math.min(minX, bounds.getMinX());
+            minY = Math.min(minY, bounds.getMinY());
+            maxX = Math.max(maxX, bounds.getMaxX());
+            maxY = Math.max(maxY, bounds.getMaxY());
+        }
+        if (maxX < minX) {
+            return Rectangle2D.EMPTY;
+        }
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
+}
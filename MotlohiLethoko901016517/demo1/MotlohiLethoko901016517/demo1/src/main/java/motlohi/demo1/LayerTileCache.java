@@ -0,0 +1,106 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// LRU cache of each layer's own rendering of a tile, kept transparent so it can be composited
+// over the layers below. An edit on one layer drops only that layer's rasters in the changed
+// area; the other layers' rasters are reused when the tile is composited again.
+public class LayerTileCache {
+    public static final long DEFAULT_BYTE_BUDGET = 128L * 1024 * 1024;
+
+    private final LinkedHashMap<Key, Entry> rasters;
+    private final long byteBudget;
+    private long bytes;
+
+    public LayerTileCache(long byteBudget) {
+        this.byteBudget = byteBudget;
+        this.rasters = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    public int[] get(Layer layer, int zoomLevel, int tileX, int tileY) {
+        Entry entry = rasters.get(new Key(layer, zoomLevel, tileX, tileY));
+        return entry != null ? entry.pixels : null;
+    }
+
+    public void put(Layer layer, int zoomLevel, int tileX, int tileY, int[] pixels, Rectangle2D boardBounds) {
+        Entry previous = rasters.put(new Key(layer, zoomLevel, tileX, tileY), new Entry(pixels, boardBounds));
+        if (previous != null) {
+            bytes -= previous.pixels.length * 4L;
+        }
+        bytes += pixels.length * 4L;
+
+        Iterator<Entry> eldest = rasters.values().iterator();
+        while (bytes > byteBudget && eldest.hasNext()) {
+            bytes -= eldest.next().pixels.length * 4L;
+            eldest.remove();
+        }
+    }
+
+    // Drops a layer's rasters, at any zoom level, that overlap a changed board area
+    public void invalidate(Layer layer, Rectangle2D boardBounds) {
+        Iterator<Map.Entry<Key, Entry>> iterator = rasters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> next = iterator.next();
+            if (next.getKey().layer == layer && next.getValue().boardBounds.intersects(boardBounds)) {
+                bytes -= next.getValue().pixels.length * 4L;
+                iterator.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        rasters.clear();
+        bytes = 0;
+    }
+
+    public int size() {
+        return rasters.size();
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    private static class Entry {
+        private final int[] pixels;
+        private final Rectangle2D boardBounds;
+
+        private Entry(int[] pixels, Rectangle2D boardBounds) {
+            this.pixels = pixels;
+            this.boardBounds = boardBounds;
+        }
+    }
+
+    private static class Key {
+        private final Layer layer;
+        private final int zoomLevel;
+        private final int tileX;
+        private final int tileY;
+
+        private Key(Layer layer, int zoomLevel, int tileX, int tileY) {
+            this.layer = layer;
+            this.zoomLevel = zoomLevel;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return layer == other.layer && zoomLevel == other.zoomLevel && tileX == other.tileX && tileY == other.tileY;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(layer), zoomLevel, tileX, tileY);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Incremental spatial index over item bounding boxes for an unbounded board. Each node's
+// bounds are loosened to twice its size, so an item is stored in exactly one node chosen by
+// its center and size and never needs splitting. The root grows outwards on demand.
+public class LooseQuadtree<T> {
+    private static final double INITIAL_HALF_SIZE = 1024;
+    private static final double MIN_HALF_SIZE = 4;
+
+    private final Map<T, Entry<T>> entries;
+    private Node<T> root;
+
+    public LooseQuadtree() {
+        this.entries = new IdentityHashMap<>();
+        this.root = new Node<>(null, 0, 0, INITIAL_HALF_SIZE);
+    }
+
+    public void insert(T item, Rectangle2D bounds) {
+        if (entries.containsKey(item)) {
+            update(item, bounds);
+            return;
+        }
+        Entry<T> entry = new Entry<>(item, bounds);
+        entries.put(item, entry);
+        place(entry);
+    }
+
+    public boolean remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        detach(entry);
+        return true;
+    }
+
+    // Re-files an item whose bounds changed
+    public void update(T item, Rectangle2D bounds) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            insert(item, bounds);
+            return;
+        }
+        detach(entry);
+        entry.setBounds(bounds);
+        place(entry);
+    }
+
+    public void clear() {
+        entries.clear();
+        root = new Node<>(null, 0, 0, INITIAL_HALF_SIZE);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Adds every item whose bounds intersect the range to the output list
+    public void query(Rectangle2D range, List<T> out) {
+        query(range.getMinX(), range.getMinY(), range.getMaxX(), range.getMaxY(), out);
+    }
+
+    public void queryPoint(double x, double y, List<T> out) {
+        query(x, y, x, y, out);
+    }
+
+    private void query(double minX, double minY, double maxX, double maxY, List<T> out) {
+        Deque<Node<T>> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node<T> node = pending.pop();
+            double loose = node.half * 2;
+            if (node.cx - loose > maxX || node.cx + loose < minX
+                    || node.cy - loose > maxY || node.cy + loose < minY) {
+                continue;
+            }
+            if (node.entries != null) {
+                for (Entry<T> entry : node.entries) {
+                    if (entry.minX <= maxX && entry.maxX >= minX && entry.minY <= maxY && entry.maxY >= minY) {
+                        out.add(entry.item);
+                    }
+                }
+            }
+            if (node.children != null) {
+                for (Node<T> child : node.children) {
+                    if (child != null) {
+                        pending.push(child);
+                    }
+                }
+            }
+        }
+    }
+
+    private void place(Entry<T> entry) {
+        double cx = (entry.minX + entry.maxX) / 2;
+        double cy = (entry.minY + entry.maxY) / 2;
+        double extent = Math.max(entry.maxX - entry.minX, entry.maxY - entry.minY);
+
+        if (root.isEmpty() && !fits(root, cx, cy, extent)) {
+            root = new Node<>(null, cx, cy, Math.max(INITIAL_HALF_SIZE, extent));
+        }
+        while (!fits(root, cx, cy, extent)) {
+            grow(cx, cy);
+        }
+
+        // Descend while the item is small enough for the child's loose bounds
+        Node<T> node = root;
+        while (node.half / 2 >= MIN_HALF_SIZE && extent <= node.half) {
+            node = node.child(quadrant(node, cx, cy));
+        }
+        node.add(entry);
+        entry.node = node;
+    }
+
+    private void detach(Entry<T> entry) {
+        Node<T> node = entry.node;
+        node.entries.remove(entry);
+        entry.node = null;
+
+        // Prune nodes left with nothing in or below them
+        while (node.parent != null && node.isEmpty()) {
+            Node<T> parent = node.parent;
+            parent.children[quadrant(parent, node.cx, node.cy)] = null;
+            node = parent;
+        }
+    }
+
+    private boolean fits(Node<T> node, double cx, double cy, double extent) {
+        return Math.abs(cx - node.cx) <= node.half && Math.abs(cy - node.cy) <= node.half
+                && extent <= node.half * 2;
+    }
+
+    // Doubles the root towards a point; the old root becomes one quadrant of the new one
+    private void grow(double towardsX, double towardsY) {
+        Node<T> old = root;
+        double cx = old.cx + (towardsX >= old.cx ? old.half : -old.half);
+        double cy = old.cy + (towardsY >= old.cy ? old.half : -old.half);
+        Node<T> grown = new Node<>(null, cx, cy, old.half * 2);
+        if (!old.isEmpty()) {
+            grown.children = newChildren();
+            grown.children[quadrant(grown, old.cx, old.cy)] = old;
+            old.parent = grown;
+        }
+        root = grown;
+    }
+
+    private static <T> int quadrant(Node<T> node, double x, double y) {
+        return (x >= node.cx ? 1 : 0) | (y >= node.cy ? 2 : 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] newChildren() {
+        return (Node<T>[]) new Node<?>[4];
+    }
+
+    private static class Node<T> {
+        private final double cx, cy, half;
+        private Node<T> parent;
+        private Node<T>[] children;
+        private List<Entry<T>> entries;
+
+        private Node(Node<T> parent, double cx, double cy, double half) {
+            this.parent = parent;
+            this.cx = cx;
+            this.cy = cy;
+            this.half = half;
+        }
+
+        private Node<T> child(int quadrant) {
+            if (children == null) {
+                children = newChildren();
+            }
+            if (children[quadrant] == null) {
+                double offset = half / 2;
+                children[quadrant] = new Node<>(this,
+                        cx + ((quadrant & 1) != 0 ? offset : -offset),
+                        cy + ((quadrant & 2) != 0 ? offset : -offset),
+                        offset);
+            }
+            return children[quadrant];
+        }
+
+        private void add(Entry<T> entry) {
+            if (entries == null) {
+                entries = new ArrayList<>(4);
+            }
+            entries.add(entry);
+        }
+
+        private boolean isEmpty() {
+            if (entries != null && !entries.isEmpty()) {
+                return false;
+            }
+            if (children != null) {
+                for (Node<T> child : children) {
+                    if (child != null) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private double minX, minY, maxX, maxY;
+        private Node<T> node;
+
+        private Entry(T item, Rectangle2D bounds) {
+            this.item = item;
+            setBounds(bounds);
+        }
+
+        private void setBounds(Rectangle2D bounds) {
+            minX = bounds.getMinX();
+            minY = bounds.getMinY();
+            maxX = bounds.getMaxX();
+            maxY = bounds.getMaxY();
+        }
+    }
+}
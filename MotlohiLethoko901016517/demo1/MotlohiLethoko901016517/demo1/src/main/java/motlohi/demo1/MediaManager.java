@@ -0,0 +1,366 @@
+package motlohi.demo1;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaException;
+import javafx.scene.media.MediaPlayer;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Owns every media player in the app. Clips ask for playback through a handle, and the
+// manager decides which players actually run: only clips that are on screen, and at most a
+// fixed number of them, the most recently started first; the others wait paused and resume
+// when a slot frees up. A player left paused past the idle timeout is disposed, freeing its
+// decoder, and created again at the same position the next time its clip plays.
+// Everything here runs on the FX thread.
+public class MediaManager {
+    public static final int DEFAULT_MAX_ACTIVE = 4;
+    public static final double DEFAULT_IDLE_SECONDS = 30;
+    private static final Duration CHECK_INTERVAL = Duration.millis(500);
+    private static final int DECODER_FRAMES = 3; // Decoded frames a video player is assumed to hold
+
+    private static MediaManager shared;
+
+    private final List<Handle> handles;
+    private final int maxActive;
+    private final long idleNanos;
+    private final Timeline checker;
+    private long playersCreated;
+    private long playersDisposed;
+
+    public MediaManager(int maxActive, double idleSeconds) {
+        this.handles = new ArrayList<>();
+        this.maxActive = maxActive;
+        this.idleNanos = (long) (idleSeconds * 1_000_000_000);
+        this.checker = new Timeline(new KeyFrame(CHECK_INTERVAL, e -> check()));
+        checker.setCycleCount(Timeline.INDEFINITE);
+    }
+
+    // The app's manager; -Dwhiteboard.maxMediaPlayers and -Dwhiteboard.mediaIdleSeconds set its limits
+    public static MediaManager getShared() {
+        if (shared == null) {
+            shared = new MediaManager(Integer.getInteger("whiteboard.maxMediaPlayers", DEFAULT_MAX_ACTIVE),
+                    Double.parseDouble(System.getProperty("whiteboard.mediaIdleSeconds",
+                            String.valueOf(DEFAULT_IDLE_SECONDS))));
+        }
+        return shared;
+    }
+
+    // A handle on a clip; no player is created until it is prepared or played. The display
+    // node, if any, is where the clip is shown, and it only plays while that node is on screen.
+    // onPlayer is told each time the player is created, and given null before it is disposed.
+    public Handle open(String source, Node display, Consumer<MediaPlayer> onPlayer) {
+        Handle handle = new Handle(source, display, onPlayer);
+        handles.add(handle);
+        checker.play();
+        return handle;
+    }
+
+    // Players currently playing, each running a decoder
+    public int getActiveCount() {
+        int active = 0;
+        for (Handle handle : handles) {
+            if (handle.player != null && handle.player.getStatus() == MediaPlayer.Status.PLAYING) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    // Players that exist, playing or not
+    public int getOpenCount() {
+        int open = 0;
+        for (Handle handle : handles) {
+            if (handle.player != null) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    // An estimate of the decoded frames the open players hold; JavaFX does not report it
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (Handle handle : handles) {
+            if (handle.player != null) {
+                Media media = handle.player.getMedia();
+                bytes += (long) media.getWidth() * media.getHeight() * 4 * DECODER_FRAMES;
+            }
+        }
+        return bytes;
+    }
+
+    public long getPlayersCreated() {
+        return playersCreated;
+    }
+
+    public long getPlayersDisposed() {
+        return playersDisposed;
+    }
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("media: %d of %d players playing, %d open, about %d MB of frames",
+                getActiveCount(), maxActive, getOpenCount(), getEstimatedBytes() >> 20);
+    }
+
+    // Gives the slots to the most recently started clips that want to play and are on screen
+    private void schedule() {
+        List<Handle> waiting = new ArrayList<>();
+        for (Handle handle : handles) {
+            if (handle.isPlaying && handle.isShown() && !handle.isFailed) {
+                waiting.add(handle);
+            } else {
+                handle.run(false);
+            }
+        }
+        waiting.sort(Comparator.comparingLong((Handle handle) -> handle.requested).reversed());
+        for (int i = 0; i < waiting.size(); i++) {
+            waiting.get(i).run(i < maxActive);
+        }
+    }
+
+    // Runs twice a second: follows clips in and out of view and disposes idle players
+    private void check() {
+        long now = System.nanoTime();
+        for (Handle handle : handles) {
+            if (handle.display != null) {
+                handle.isOnScreen = isOnScreen(handle.display);
+            }
+        }
+        schedule();
+        for (Handle handle : handles) {
+            if (handle.player != null && !handle.isRunning && now - handle.idleSince > idleNanos) {
+                handle.dispose();
+            }
+        }
+        if (handles.isEmpty()) {
+            checker.stop();
+        }
+    }
+
+    // Whether a node is in a showing, not minimized window, inside the window's bounds
+    private static boolean isOnScreen(Node node) {
+        Scene scene = node.getScene();
+        Window window = scene != null ? scene.getWindow() : null;
+        if (window == null || !window.isShowing() || (window instanceof Stage && ((Stage) window).isIconified())) {
+            return false;
+        }
+        for (Node n = node; n != null; n = n.getParent()) {
+            if (!n.isVisible()) {
+                return false;
+            }
+        }
+        Bounds bounds = node.localToScene(node.getBoundsInLocal());
+        return bounds.getMaxX() > 0 && bounds.getMaxY() > 0
+                && bounds.getMinX() < scene.getWidth() && bounds.getMinY() < scene.getHeight();
+    }
+
+    // One clip's playback, however many players it goes through
+    public class Handle {
+        private final String source;
+        private final Node display;
+        private final Consumer<MediaPlayer> onPlayer;
+        private final DoubleProperty volume;
+        private MediaPlayer player;
+        private boolean isReady;
+        private boolean isFailed;
+        private boolean isPlaying; // Asked to play by its owner
+        private boolean isRunning; // Let play by the manager
+        private boolean isShown = true;
+        private boolean isOnScreen = true;
+        private boolean isMuted;
+        private boolean isLooping;
+        private long requested; // When play was last asked for; the newest requests get slots first
+        private long idleSince;
+        private Duration resumeAt = Duration.ZERO;
+
+        private Handle(String source, Node display, Consumer<MediaPlayer> onPlayer) {
+            this.source = source;
+            this.display = display;
+            this.onPlayer = onPlayer;
+            this.volume = new SimpleDoubleProperty(1);
+        }
+
+        // Creates the player without playing it, so a view shows the clip's first frame
+        public void prepare() {
+            if (player == null && !isFailed) {
+                create();
+            }
+        }
+
+        public void play() {
+            isPlaying = true;
+            requested = System.nanoTime();
+            schedule();
+        }
+
+        public void pause() {
+            isPlaying = false;
+            schedule();
+        }
+
+        // Pauses and goes back to the start
+        public void stop() {
+            isPlaying = false;
+            resumeAt = Duration.ZERO;
+            if (player != null) {
+                player.stop();
+            }
+            schedule();
+        }
+
+        // For owners that know better than the scene whether the clip is in view
+        public void setShown(boolean shown) {
+            if (shown != isShown) {
+                isShown = shown;
+                schedule();
+            }
+        }
+
+        public void setMuted(boolean muted) {
+            this.isMuted = muted;
+            if (player != null) {
+                player.setMute(muted);
+            }
+        }
+
+        public void setLooping(boolean looping) {
+            this.isLooping = looping;
+            if (player != null) {
+                player.setCycleCount(looping ? MediaPlayer.INDEFINITE : 1);
+            }
+        }
+
+        // Kept across players, so a control bound to it survives the player being disposed
+        public DoubleProperty volumeProperty() {
+            return volume;
+        }
+
+        // The current player, or null while there is none
+        public MediaPlayer getPlayer() {
+            return player;
+        }
+
+        public boolean isPlaying() {
+            return isPlaying;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        // Disposes the player for good; the handle must not be used afterwards
+        public void release() {
+            dispose();
+            handles.remove(this);
+            schedule();
+        }
+
+        private boolean isShown() {
+            return isShown && isOnScreen;
+        }
+
+        private void run(boolean run) {
+            if (run && player == null) {
+                create();
+            }
+            if (run != isRunning) {
+                isRunning = run;
+                if (!run) {
+                    idleSince = System.nanoTime();
+                }
+            }
+            // A player that is not ready yet takes up the state it should be in once it is
+            if (player != null && isReady) {
+                if (run && player.getStatus() != MediaPlayer.Status.PLAYING) {
+                    player.play();
+                } else if (!run && player.getStatus() == MediaPlayer.Status.PLAYING) {
+                    player.pause();
+                }
+            }
+        }
+
+        private void create() {
+            MediaPlayer created;
+            try {
+                created = new MediaPlayer(new Media(source));
+            } catch (MediaException | IllegalArgumentException e) {
+                System.err.println("Failed to open media: " + e);
+                isFailed = true;
+                return;
+            }
+            player = created;
+            isReady = false;
+            idleSince = System.nanoTime();
+            playersCreated++;
+            created.setMute(isMuted);
+            created.setCycleCount(isLooping ? MediaPlayer.INDEFINITE : 1);
+            created.volumeProperty().bind(volume);
+            created.setOnReady(() -> {
+                if (player != created) {
+                    return;
+                }
+                isReady = true;
+                if (resumeAt.greaterThan(Duration.ZERO)) {
+                    created.seek(resumeAt);
+                }
+                if (isRunning) {
+                    created.play();
+                }
+            });
+            created.setOnEndOfMedia(() -> {
+                if (player == created && !isLooping) {
+                    isPlaying = false;
+                    resumeAt = Duration.ZERO;
+                    created.stop();
+                    schedule();
+                }
+            });
+            created.setOnError(() -> {
+                System.err.println("Failed to play media: " + created.getError());
+                isFailed = true;
+                dispose();
+                schedule();
+            });
+            if (onPlayer != null) {
+                onPlayer.accept(created);
+            }
+        }
+
+        private void dispose() {
+            if (player == null) {
+                return;
+            }
+            MediaPlayer disposed = player;
+            if (isReady) {
+                resumeAt = disposed.getCurrentTime();
+            }
+            if (onPlayer != null) {
+                onPlayer.accept(null);
+            }
+            player = null;
+            isReady = false;
+            isRunning = false;
+            disposed.volumeProperty().unbind();
+            disposed.dispose();
+            playersDisposed++;
+        }
+    }
+}
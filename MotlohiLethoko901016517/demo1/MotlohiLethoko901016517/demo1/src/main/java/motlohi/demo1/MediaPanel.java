@@ -1,10 +1,11 @@
 package motlohi.demo1;
 
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
-import javafx.scene.media.Media;
-import javafx.scene.media.MediaPlayer;
 import javafx.scene.media.MediaView;
 import javafx.stage.FileChooser;
 import javafx.scene.image.Image;
@@ -18,16 +19,41 @@ import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MediaPanel {
+    private static final int THUMBNAIL_WIDTH = 200;
+    // Longest side of a picture put on the board; larger ones are scaled down as they are
+    // decoded, which keeps a 40 megapixel photo to 64 MB instead of several hundred
+    private static final int MAX_BOARD_SIZE = 4096;
+    private static final double BOARD_VIDEO_WIDTH = 320;
+
     private final VBox mediaBox;
     private final DrawingCanvas drawingCanvas;
+    private final ExecutorService imageExecutor;
 
     public MediaPanel(DrawingCanvas drawingCanvas) {
         this.drawingCanvas = drawingCanvas;
         this.mediaBox = new VBox(10);
+        this.imageExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "whiteboard-images");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         initializeMediaBox();
+        setupCanvasDropHandlers();
     }
 
     private void initializeMediaBox() {
@@ -47,15 +73,115 @@ public class MediaPanel {
         File file = fileChooser.showOpenDialog(null);
 
         if (file != null) {
-            Image img = new Image(file.toURI().toString());
-            ImageView imgView = new ImageView(img);
-            imgView.setFitWidth(200);
-            imgView.setPreserveRatio(true);
+            // Only a panel-sized thumbnail is decoded here, in the background, with a placeholder
+            // showing its progress. The board's copy is decoded when the picture is dropped.
+            String url = file.toURI().toString();
+            Task<Image> load = new Task<>() {
+                @Override
+                protected Image call() throws IOException {
+                    byte[] data = new byte[(int) Math.min(file.length(), Integer.MAX_VALUE - 8)];
+                    int read = 0;
+                    try (InputStream in = Files.newInputStream(file.toPath())) {
+                        int n;
+                        while (read < data.length && (n = in.read(data, read, Math.min(1 << 20, data.length - read))) > 0) {
+                            read += n;
+                            updateProgress(read, data.length);
+                        }
+                    }
+                    // Decoding gives no progress of its own
+                    updateProgress(-1, 1);
+                    Image image = ImageCache.getShared().get(read < data.length ? Arrays.copyOf(data, read) : data,
+                            THUMBNAIL_WIDTH, 0);
+                    if (image.isError()) {
+                        throw new IOException("Not a supported image", image.getException());
+                    }
+                    return image;
+                }
+            };
+
+            ProgressIndicator progress = new ProgressIndicator();
+            progress.progressProperty().bind(load.progressProperty());
+            Label nameLabel = new Label(file.getName());
+            VBox placeholder = new VBox(5, progress, nameLabel);
+            placeholder.setAlignment(Pos.CENTER);
+            placeholder.setPrefSize(THUMBNAIL_WIDTH, 120);
+            placeholder.setStyle("-fx-background-color: #f0f0f0; -fx-padding: 5px; -fx-border-radius: 5px;");
+            mediaBox.getChildren().add(placeholder);
+
+            load.setOnSucceeded(e -> {
+                Image img = load.getValue();
+                ImageView imgView = new ImageView(img);
+                imgView.setFitWidth(THUMBNAIL_WIDTH);
+                imgView.setPreserveRatio(true);
+
+                setupImageHoverEffect(imgView);
+                setupImageDragHandlers(imgView, img, url);
+
+                int index = mediaBox.getChildren().indexOf(placeholder);
+                if (index >= 0) {
+                    mediaBox.getChildren().set(index, imgView);
+                }
+            });
+            load.setOnFailed(e -> {
+                progress.progressProperty().unbind();
+                placeholder.getChildren().remove(progress);
+                nameLabel.setText("Could not load " + file.getName());
+            });
+            imageExecutor.execute(load);
+        }
+    }
 
-            setupImageHoverEffect(imgView);
-            setupImageDragHandlers(imgView, img);
+    // Decodes the picture at board resolution in the background and adds it, centred on the
+    // drop point, once it is ready
+    private void addBoardImage(String url, double x, double y) {
+        addImageWhenReady(CompletableFuture.supplyAsync(() -> {
+            try (InputStream in = new URL(url).openStream()) {
+                return ImageCache.getShared().get(in.readAllBytes(), MAX_BOARD_SIZE, MAX_BOARD_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, imageExecutor), url, x, y);
+    }
+
+    private void addImageWhenReady(CompletableFuture<Image> loading, String name, double x, double y) {
+        loading.whenComplete((image, error) -> Platform.runLater(() -> {
+            if (image == null || image.isError()) {
+                System.err.println("Failed to load image " + name + ": "
+                        + (error != null ? error : image.getException()));
+                return;
+            }
+            drawingCanvas.addItem(new ImageItem(image, x - image.getWidth() / 2, y - image.getHeight() / 2));
+        }));
+    }
 
-            mediaBox.getChildren().add(imgView);
+    // Puts a clip on the board centred on the drop point; it starts playing once it is drawn
+    private void addBoardVideo(String data, Image snapshot, double x, double y) {
+        int first = data.indexOf(':');
+        int last = data.lastIndexOf(':');
+        if (last <= first) {
+            return;
+        }
+        double aspect = snapshot != null && snapshot.getWidth() > 0 ? snapshot.getHeight() / snapshot.getWidth() : 9.0 / 16;
+        double height = BOARD_VIDEO_WIDTH * aspect;
+        drawingCanvas.addItem(new VideoItem(data.substring(first + 1, last), payloadName(data, last),
+                x - BOARD_VIDEO_WIDTH / 2, y - height / 2, BOARD_VIDEO_WIDTH, height));
+    }
+
+    // Media is dragged as "TYPE:source:name". The source is a URI with colons of its own and a
+    // file name may have some too, so the name is URL-encoded, which leaves it none: the first
+    // colon ends the type and the last one ends the source.
+    private static String mediaPayload(String type, String source, String name) {
+        return type + ":" + source + ":" + URLEncoder.encode(name, StandardCharsets.UTF_8);
+    }
+
+    // The name after the last colon of a media payload
+    private static String payloadName(String data, int last) {
+        String name = data.substring(last + 1);
+        try {
+            return URLDecoder.decode(name, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            // Text dropped from another application, not encoded by the panel
+            return name;
         }
     }
 
@@ -68,11 +194,23 @@ public class MediaPanel {
         File file = fileChooser.showOpenDialog(null);
 
         if (file != null) {
-            Media media = new Media(file.toURI().toString());
-            MediaPlayer mediaPlayer = new MediaPlayer(media);
-            MediaView mediaView = new MediaView(mediaPlayer);
+            // The player comes from the media manager: nothing plays until asked to, only a few
+            // clips play at once, and an idle player is disposed, leaving its last frame on show
+            MediaView mediaView = new MediaView();
             mediaView.setFitWidth(250);
             mediaView.setPreserveRatio(true);
+            ImageView poster = new ImageView();
+            poster.setFitWidth(250);
+            poster.setPreserveRatio(true);
+            StackPane screen = new StackPane(poster, mediaView);
+            String source = file.toURI().toString();
+            MediaManager.Handle handle = MediaManager.getShared().open(source, screen, player -> {
+                if (player == null) {
+                    poster.setImage(mediaView.snapshot(null, null));
+                }
+                mediaView.setMediaPlayer(player);
+            });
+            handle.prepare();
 
             // Create a snapshot of the video for dragging
             ImageView dragImageView = new ImageView();
@@ -87,36 +225,32 @@ public class MediaPanel {
             Button stopButton = createStyledButton("Stop", "#e74c3c");
             HBox videoControls = new HBox(5, playButton, stopButton);
 
-            playButton.setOnAction(e -> mediaPlayer.play());
-            stopButton.setOnAction(e -> mediaPlayer.pause());
+            playButton.setOnAction(e -> handle.play());
+            stopButton.setOnAction(e -> handle.pause());
 
-            VBox videoContainer = new VBox(5, mediaView, videoControls);
+            VBox videoContainer = new VBox(5, screen, videoControls);
             styleMediaContainer(videoContainer);
 
             // Setup drag and drop for the video container
-            setupVideoDragHandlers(videoContainer, mediaView, file.getName());
+            setupVideoDragHandlers(videoContainer, screen, source, file.getName());
 
             mediaBox.getChildren().add(videoContainer);
-            mediaPlayer.play();
         }
     }
 
-    private void setupVideoDragHandlers(VBox videoContainer, MediaView mediaView, String fileName) {
+    private void setupVideoDragHandlers(VBox videoContainer, StackPane screen, String source, String fileName) {
         videoContainer.setOnDragDetected(event -> {
-            // Create snapshot for dragging
-            Image snapshot = mediaView.snapshot(null, null);
+            // Create snapshot for dragging; the clip's frame or, once its player is idle, its poster
+            Image snapshot = screen.snapshot(null, null);
 
             Dragboard db = videoContainer.startDragAndDrop(TransferMode.COPY);
             ClipboardContent content = new ClipboardContent();
             content.putImage(snapshot);
-            content.putString("VIDEO:" + mediaView.getMediaPlayer().getMedia().getSource() + ":" + fileName);
+            content.putString(mediaPayload("VIDEO", source, fileName));
             db.setContent(content);
 
             // Create a drag view
-            ImageView dragView = new ImageView(snapshot);
-            dragView.setFitWidth(mediaView.getFitWidth());
-            dragView.setPreserveRatio(true);
-            db.setDragView(dragView.snapshot(null, null), event.getX(), event.getY());
+            db.setDragView(snapshot, event.getX(), event.getY());
 
             event.consume();
         });
@@ -131,14 +265,16 @@ public class MediaPanel {
         File file = fileChooser.showOpenDialog(null);
 
         if (file != null) {
-            Media media = new Media(file.toURI().toString());
-            MediaPlayer mediaPlayer = new MediaPlayer(media);
+            // Music has no picture to go offscreen, so it keeps playing with the panel hidden,
+            // but still counts against the manager's cap and is disposed when idle
+            String source = file.toURI().toString();
+            MediaManager.Handle handle = MediaManager.getShared().open(source, null, null);
 
             Button playButton = createStyledButton("Play", "#2ecc71");
             Button pauseButton = createStyledButton("Pause", "#f39c12");
             Button stopButton = createStyledButton("Stop", "#e74c3c");
             Slider volumeSlider = new Slider(0, 1, 0.5);
-            volumeSlider.valueProperty().bindBidirectional(mediaPlayer.volumeProperty());
+            volumeSlider.valueProperty().bindBidirectional(handle.volumeProperty());
 
             HBox musicControls = new HBox(5, playButton, pauseButton, stopButton, new Label("Vol:"), volumeSlider);
 
@@ -149,14 +285,11 @@ public class MediaPanel {
             styleMediaContainer(musicContainer);
 
             // Setup drag for music
-            setupMusicDragHandlers(musicContainer, file.getName(), media.getSource());
+            setupMusicDragHandlers(musicContainer, file.getName(), source);
 
-            playButton.setOnAction(e -> mediaPlayer.play());
-            pauseButton.setOnAction(e -> mediaPlayer.pause());
-            stopButton.setOnAction(e -> {
-                mediaPlayer.stop();
-                mediaPlayer.seek(Duration.ZERO);
-            });
+            playButton.setOnAction(e -> handle.play());
+            pauseButton.setOnAction(e -> handle.pause());
+            stopButton.setOnAction(e -> handle.stop());
 
             mediaBox.getChildren().add(musicContainer);
         }
@@ -176,7 +309,7 @@ public class MediaPanel {
             Image snapshot = dragNode.snapshot(null, null);
 
             content.putImage(snapshot);
-            content.putString("MUSIC:" + mediaSource + ":" + fileName);
+            content.putString(mediaPayload("MUSIC", mediaSource, fileName));
             db.setContent(content);
 
             db.setDragView(snapshot, event.getX(), event.getY());
@@ -222,16 +355,20 @@ public class MediaPanel {
         });
     }
 
-    private void setupImageDragHandlers(ImageView imgView, Image img) {
+    private void setupImageDragHandlers(ImageView imgView, Image img, String url) {
         imgView.setOnDragDetected(event -> {
+            // Only the source goes on the dragboard; the thumbnail is just the drag view
             Dragboard db = imgView.startDragAndDrop(TransferMode.COPY);
             ClipboardContent content = new ClipboardContent();
-            content.putImage(img);
-            content.putString("IMAGE:" + img.getUrl());
+            content.putString("IMAGE:" + url);
             db.setContent(content);
+            db.setDragView(img, event.getX(), event.getY());
             event.consume();
         });
+    }
 
+    // Drops of any media from the panel, and of pictures from other applications, onto the board
+    private void setupCanvasDropHandlers() {
         drawingCanvas.getCanvas().setOnDragOver(event -> {
             if (event.getGestureSource() != drawingCanvas.getCanvas() &&
                     (event.getDragboard().hasImage() || event.getDragboard().hasString())) {
@@ -244,39 +381,43 @@ public class MediaPanel {
             Dragboard db = event.getDragboard();
             boolean success = false;
 
-            if (db.hasImage()) {
-                double x = event.getX() - db.getImage().getWidth() / 2;
-                double y = event.getY() - db.getImage().getHeight() / 2;
-                drawingCanvas.getGraphicsContext().drawImage(db.getImage(), x, y);
+            BoardView view = drawingCanvas.getView();
+            if (db.hasString() && db.getString().startsWith("IMAGE:")) {
+                addBoardImage(db.getString().substring("IMAGE:".length()),
+                        view.toBoardX(event.getX()), view.toBoardY(event.getY()));
+                success = true;
+            }
+            else if (db.hasString() && db.getString().startsWith("VIDEO:")) {
+                // Checked before the picture, as the panel puts a snapshot of the clip on the
+                // dragboard too; the snapshot only gives the clip's shape
+                addBoardVideo(db.getString(), db.hasImage() ? db.getImage() : null,
+                        view.toBoardX(event.getX()), view.toBoardY(event.getY()));
+                success = true;
+            }
+            else if (db.hasImage()) {
+                // Pictures from other applications arrive decoded; the same one dropped again
+                // is shared with the earlier copy
+                Image image = db.getImage();
+                addImageWhenReady(CompletableFuture.supplyAsync(() -> ImageCache.getShared().intern(image), imageExecutor),
+                        "from the dragboard", view.toBoardX(event.getX()), view.toBoardY(event.getY()));
                 success = true;
-                drawingCanvas.saveCanvasState();
             }
             else if (db.hasString()) {
                 String data = db.getString();
-                String[] parts = data.split(":");
-                String type = parts[0];
-                String source = parts[1];
-                String name = parts.length > 2 ? parts[2] : "Media";
-
-                double x = event.getX();
-                double y = event.getY();
-
-                if (type.equals("IMAGE")) {
-                    // Load and draw the image
-                    Image image = new Image(source);
-                    drawingCanvas.getGraphicsContext().drawImage(image, x, y);
-                }
-                else if (type.equals("VIDEO") || type.equals("MUSIC")) {
-                    // Draw a representation of the media
-                    drawingCanvas.getGraphicsContext().setFill(Color.LIGHTGRAY);
-                    drawingCanvas.getGraphicsContext().fillRect(x, y, 150, 40);
-                    drawingCanvas.getGraphicsContext().setFill(Color.BLACK);
-                    drawingCanvas.getGraphicsContext().fillText(name, x + 5, y + 20);
+                // The source is a URL with colons of its own, so only the first and last count
+                int first = data.indexOf(':');
+                int last = data.lastIndexOf(':');
+                String type = first >= 0 ? data.substring(0, first) : data;
+                String name = last > first ? payloadName(data, last) : "Media";
+
+                double x = view.toBoardX(event.getX());
+                double y = view.toBoardY(event.getY());
 
-                    // You could also store the media reference for later interaction
+                if (type.equals("MUSIC")) {
+                    // Draw a representation of the media
+                    drawingCanvas.addItem(new MediaPlaceholder(name, x, y));
                 }
                 success = true;
-                drawingCanvas.saveCanvasState();
             }
 
             event.setDropCompleted(success);
@@ -0,0 +1,54 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Text;
+
+// Labelled box drawn where a video or music clip was dropped
+public class MediaPlaceholder implements BoardItem {
+    private final String name;
+    private final double x;
+    private final double y;
+    private final VectorPath label;
+
+    public MediaPlaceholder(String name, double x, double y) {
+        this.name = name;
+        this.x = x;
+        this.y = y;
+        this.label = new VectorPath();
+        label.append(new Text(x + 5, y + 20, name));
+    }
+
+    @Override
+    public void render(GraphicsContext gc) {
+        gc.setFill(Color.LIGHTGRAY);
+        gc.fillRect(x, y, 150, 40);
+        gc.setFill(Color.BLACK);
+        gc.fillText(name, x + 5, y + 20);
+    }
+
+    @Override
+    public void rasterize(Raster raster) {
+        raster.fillRect(x, y, 150, 40, Color.LIGHTGRAY);
+        raster.fillPath(label, Color.BLACK);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        // The label is not clipped to the box, so allow for long file names
+        return new Rectangle2D(x, y, Math.max(150, name.length() * 10 + 10), 40);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+}
@@ -0,0 +1,211 @@
+package motlohi.demo1;
+
+import javafx.scene.image.Image;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Undo/redo built on recorded operations. Undo reverts the operation in the layers and has the
+// view re-render just the layers and areas it changed from the model.
+// Operations keep alive whatever they took off the board, such as everything a clear removed,
+// so the history in memory is bounded by an entry count and by an estimate of those bytes.
+// Past either, the oldest operations are handed to the store as item changes, compressed
+// off-heap and, past a quarter of the budget, spilled to disk. They are read back when undo or
+// redo reaches them, so deep undo keeps working.
+public class OperationHistory {
+    public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final long ENTRY_BYTES = 64; // An operation and its bookkeeping
+    private static final long ITEM_BYTES = 64; // An item besides its points or pixels
+
+    private final LayerStack layers;
+    private final BoardView view;
+    private final Deque<CanvasOperation> done;
+    private final Deque<CanvasOperation> undone;
+    private final Deque<HistoryStore.Entry> doneSpilled;   // Older than everything in done
+    private final Deque<HistoryStore.Entry> undoneSpilled; // Further away than everything in undone
+    private final HistoryStore store;
+    private long byteBudget;
+    private int maxEntries;
+    private long bytesInMemory;
+
+    // Limits can be set with -Dwhiteboard.historyBytes and -Dwhiteboard.historyEntries
+    public OperationHistory(LayerStack layers, BoardView view) {
+        this(layers, view, Long.getLong("whiteboard.historyBytes", DEFAULT_BYTE_BUDGET),
+                Integer.getInteger("whiteboard.historyEntries", DEFAULT_MAX_ENTRIES));
+    }
+
+    public OperationHistory(LayerStack layers, BoardView view, long byteBudget, int maxEntries) {
+        this.layers = layers;
+        this.view = view;
+        this.done = new ArrayDeque<>();
+        this.undone = new ArrayDeque<>();
+        this.doneSpilled = new ArrayDeque<>();
+        this.undoneSpilled = new ArrayDeque<>();
+        this.store = new HistoryStore(offHeapBudget(byteBudget));
+        this.byteBudget = byteBudget;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    // Records an operation that has already been applied to the document
+    public void record(CanvasOperation operation) {
+        for (CanvasOperation discarded : undone) {
+            bytesInMemory -= sizeOf(discarded, false);
+        }
+        undone.clear();
+        discard(undoneSpilled);
+        done.push(operation);
+        bytesInMemory += sizeOf(operation, true);
+        trim();
+    }
+
+    // Forgets every operation, as when another board is opened
+    public void clear() {
+        done.clear();
+        undone.clear();
+        discard(doneSpilled);
+        discard(undoneSpilled);
+        bytesInMemory = 0;
+    }
+
+    public boolean canUndo() {
+        return !done.isEmpty() || !doneSpilled.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !undone.isEmpty() || !undoneSpilled.isEmpty();
+    }
+
+    public void undo() {
+        CanvasOperation operation;
+        if (!done.isEmpty()) {
+            operation = done.pop();
+            bytesInMemory -= sizeOf(operation, true);
+        } else if (!doneSpilled.isEmpty()) {
+            operation = store.take(doneSpilled.pop(), layers);
+        } else {
+            return;
+        }
+        operation.revert(layers);
+        view.refresh();
+        undone.push(operation);
+        bytesInMemory += sizeOf(operation, false);
+        trim();
+    }
+
+    public void redo() {
+        CanvasOperation operation;
+        if (!undone.isEmpty()) {
+            operation = undone.pop();
+            bytesInMemory -= sizeOf(operation, false);
+        } else if (!undoneSpilled.isEmpty()) {
+            operation = store.take(undoneSpilled.pop(), layers);
+        } else {
+            return;
+        }
+        operation.apply(layers);
+        view.refresh();
+        done.push(operation);
+        bytesInMemory += sizeOf(operation, true);
+        trim();
+    }
+
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        store.setOffHeapBudget(offHeapBudget(byteBudget));
+        trim();
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        trim();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    // Operations that can be undone or redone, in memory or on disk
+    public int getEntryCount() {
+        return done.size() + undone.size() + doneSpilled.size() + undoneSpilled.size();
+    }
+
+    // Estimated bytes that only the history keeps alive in memory, on the heap and off it
+    public long getBytesInMemory() {
+        return bytesInMemory + store.getBytesOffHeap();
+    }
+
+    // Operations handed to the store, compressed or on disk
+    public int getSpilledCount() {
+        return doneSpilled.size() + undoneSpilled.size();
+    }
+
+    public int getCompressedCount() {
+        return store.getCompressedCount();
+    }
+
+    public long getBytesOffHeap() {
+        return store.getBytesOffHeap();
+    }
+
+    public long getBytesOnDisk() {
+        return store.getBytesOnDisk();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("history: %d operations, about %d KB in memory, %d compressed in %d KB off-heap,"
+                        + " %d on disk in %d KB", getEntryCount(), getBytesInMemory() >> 10, getCompressedCount(),
+                getBytesOffHeap() >> 10, getSpilledCount() - getCompressedCount(), getBytesOnDisk() >> 10);
+    }
+
+    // A rough size of what an item keeps in memory
+    public static long estimateBytes(BoardItem item) {
+        if (item instanceof Stroke) {
+            // Points and about as many again for the levels of detail
+            return ITEM_BYTES + ((Stroke) item).getPointCount() * 16L;
+        }
+        if (item instanceof ImageItem) {
+            Image image = ((ImageItem) item).getImage();
+            return ITEM_BYTES + (long) image.getWidth() * (long) image.getHeight() * 4;
+        }
+        return ITEM_BYTES;
+    }
+
+    // Spills the oldest undo steps first, then the redo steps furthest away, keeping at least
+    // one operation in memory. What moves down stays in order, as it is newer, or nearer, than
+    // everything spilled before it.
+    private void trim() {
+        while (done.size() + undone.size() > 1
+                && (done.size() + undone.size() > maxEntries || bytesInMemory > byteBudget)) {
+            if (!done.isEmpty()) {
+                CanvasOperation operation = done.removeLast();
+                bytesInMemory -= sizeOf(operation, true);
+                doneSpilled.push(store.put(operation.getChanges()));
+            } else {
+                CanvasOperation operation = undone.removeLast();
+                bytesInMemory -= sizeOf(operation, false);
+                undoneSpilled.push(store.put(operation.getChanges()));
+            }
+        }
+    }
+
+    private static long offHeapBudget(long byteBudget) {
+        return byteBudget / 4;
+    }
+
+    private void discard(Deque<HistoryStore.Entry> entries) {
+        for (HistoryStore.Entry entry : entries) {
+            store.remove(entry);
+        }
+        entries.clear();
+    }
+
+    private static long sizeOf(CanvasOperation operation, boolean applied) {
+        return ENTRY_BYTES + operation.getRetainedBytes(applied);
+    }
+}
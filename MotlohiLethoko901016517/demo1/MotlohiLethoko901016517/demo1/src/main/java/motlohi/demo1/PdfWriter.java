@@ -0,0 +1,434 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Streams the board as a one-page PDF, one board unit to a point. The page's drawing goes
+// into compressed content streams; an image interrupts the current one, is written as an
+// image object of its own and drawing carries on in a new content stream, so nothing is
+// held back. Objects whose contents are only known at the end, such as stream lengths, the
+// page's resources and its list of content streams, are written last under numbers reserved
+// up front. Text uses the standard Helvetica fonts, which every reader has.
+public class PdfWriter extends VectorWriter {
+    // Largest page side most readers accept; bigger boards are scaled with UserUnit
+    private static final double MAX_PAGE_SIZE = 14400;
+    private static final double MEDIA_FONT_SIZE = 13;
+    private static final String[] FONTS = {"Helvetica", "Helvetica-Bold", "Helvetica-Oblique", "Helvetica-BoldOblique"};
+
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final int PAGE = 3;
+    private static final int RESOURCES = 4;
+    private static final int CONTENTS = 5;
+
+    private long[] offsets;
+    private int nextObject;
+    private final List<Integer> contentStreams;
+    private final List<Integer> images;
+    private final Map<Integer, Integer> alphaStates; // Opacity out of 255 -> graphics state number
+    private Rectangle2D area;
+    private double userUnit;
+
+    // The open content stream, and the drawing state it has set
+    private DeflaterOutputStream content;
+    private Deflater compressor;
+    private int contentLength;
+    private long contentStart;
+    private Color strokeColor;
+    private Color fillColor;
+    private double lineWidth;
+    private int alpha;
+
+    public PdfWriter(OutputStream out) {
+        super(out);
+        this.offsets = new long[64];
+        this.nextObject = CONTENTS + 1;
+        this.contentStreams = new ArrayList<>();
+        this.images = new ArrayList<>();
+        this.alphaStates = new LinkedHashMap<>();
+    }
+
+    @Override
+    public void begin(Rectangle2D area) throws IOException {
+        this.area = area;
+        this.userUnit = Math.max(1, Math.ceil(Math.max(area.getWidth(), area.getHeight()) / MAX_PAGE_SIZE));
+        // The binary comment marks the file as binary for transfer tools
+        write("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+
+        beginObject(CATALOG);
+        write("<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        beginObject(PAGES);
+        write("<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+        beginObject(PAGE);
+        write("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 ");
+        writeNumber(area.getWidth() / userUnit);
+        write(' ');
+        writeNumber(area.getHeight() / userUnit);
+        write("] /Resources 4 0 R /Contents 5 0 R");
+        if (userUnit > 1) {
+            write(" /UserUnit ");
+            writeNumber(userUnit);
+        }
+        write(" >>\nendobj\n");
+        beginContent();
+
+        // White background, like the canvas
+        write("1 g ");
+        writeNumber(area.getMinX());
+        write(' ');
+        writeNumber(area.getMinY());
+        write(' ');
+        writeNumber(area.getWidth());
+        write(' ');
+        writeNumber(area.getHeight());
+        write(" re f\n");
+    }
+
+    @Override
+    public void stroke(Stroke stroke) throws IOException {
+        float[] points = stroke.getPoints();
+        if (points.length < 4) {
+            return;
+        }
+        setStrokeColor(stroke.getColor());
+        if (stroke.getWidth() != lineWidth) {
+            lineWidth = stroke.getWidth();
+            writeNumber(lineWidth);
+            write(" w\n");
+        }
+        writeNumber(points[0]);
+        write(' ');
+        writeNumber(points[1]);
+        write(" m\n");
+        if (stroke.isCubic()) {
+            for (int i = 2; i + 5 < points.length; i += 6) {
+                for (int k = 0; k < 6; k++) {
+                    writeNumber(points[i + k]);
+                    write(' ');
+                }
+                write("c\n");
+            }
+        } else {
+            for (int i = 2; i < points.length; i += 2) {
+                writeNumber(points[i]);
+                write(' ');
+                writeNumber(points[i + 1]);
+                write(" l\n");
+            }
+        }
+        write("S\n");
+    }
+
+    @Override
+    public void text(TextBlock text) throws IOException {
+        Font font = text.getFont();
+        for (int i = 0; i < text.getLineCount(); i++) {
+            writeText(text.getLine(i), text.getLineX(i), text.getLineY(i), fontIndex(font.getStyle()), font.getSize(),
+                    text.getColor());
+        }
+    }
+
+    @Override
+    public void image(ImageItem item) throws IOException {
+        Image image = item.getImage();
+        PixelReader reader = image.getPixelReader();
+        if (reader == null || image.getProgress() < 1 || image.isError()) {
+            return;
+        }
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int[] row = new int[width];
+
+        // Images are objects of their own, so the content stream is ended around them
+        endContent();
+        boolean translucent = false;
+        for (int y = 0; y < height && !translucent; y++) {
+            reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width);
+            for (int x = 0; x < width && !translucent; x++) {
+                translucent = row[x] >>> 24 != 0xFF;
+            }
+        }
+        int mask = translucent ? writeImage(reader, width, height, row, true, 0) : 0;
+        int number = writeImage(reader, width, height, row, false, mask);
+        images.add(number);
+        beginContent();
+
+        // The unit square, flipped back upright since the page is drawn with y pointing down
+        write("q ");
+        writeNumber(item.getWidth());
+        write(" 0 0 ");
+        writeNumber(-item.getHeight());
+        write(' ');
+        writeNumber(item.getX());
+        write(' ');
+        writeNumber(item.getY() + item.getHeight());
+        write(" cm /Im");
+        writeInteger(number);
+        write(" Do Q\n");
+    }
+
+    @Override
+    public void media(MediaPlaceholder media) throws IOException {
+        setFillColor(Color.LIGHTGRAY);
+        writeNumber(media.getX());
+        write(' ');
+        writeNumber(media.getY());
+        write(" 150 40 re f\n");
+        writeText(media.getName(), media.getX() + 5, media.getY() + 20, 0, MEDIA_FONT_SIZE, Color.BLACK);
+    }
+
+    @Override
+    protected void end() throws IOException {
+        endContent();
+
+        beginObject(CONTENTS);
+        write('[');
+        for (int stream : contentStreams) {
+            writeInteger(stream);
+            write(" 0 R ");
+        }
+        write("]\nendobj\n");
+
+        beginObject(RESOURCES);
+        write("<< /ProcSet [/PDF /Text /ImageC] /Font <<");
+        for (int i = 0; i < FONTS.length; i++) {
+            write(" /F");
+            writeInteger(i + 1);
+            write(" << /Type /Font /Subtype /Type1 /BaseFont /");
+            write(FONTS[i]);
+            write(" /Encoding /WinAnsiEncoding >>");
+        }
+        write(" >>");
+        if (!alphaStates.isEmpty()) {
+            write(" /ExtGState <<");
+            for (Map.Entry<Integer, Integer> state : alphaStates.entrySet()) {
+                write(" /GS");
+                writeInteger(state.getValue());
+                write(" << /CA ");
+                writeNumber(state.getKey() / 255.0);
+                write(" /ca ");
+                writeNumber(state.getKey() / 255.0);
+                write(" >>");
+            }
+            write(" >>");
+        }
+        if (!images.isEmpty()) {
+            write(" /XObject <<");
+            for (int image : images) {
+                write(" /Im");
+                writeInteger(image);
+                write(' ');
+                writeInteger(image);
+                write(" 0 R");
+            }
+            write(" >>");
+        }
+        write(" >>\nendobj\n");
+
+        long xref = position();
+        write("xref\n0 ");
+        writeInteger(nextObject);
+        write("\n0000000000 65535 f \n");
+        for (int i = 1; i < nextObject; i++) {
+            String offset = Long.toString(offsets[i]);
+            for (int pad = offset.length(); pad < 10; pad++) {
+                write('0');
+            }
+            write(offset);
+            write(" 00000 n \n");
+        }
+        write("trailer\n<< /Size ");
+        writeInteger(nextObject);
+        write(" /Root 1 0 R >>\nstartxref\n");
+        writeInteger(xref);
+        write("\n%%EOF\n");
+    }
+
+    private void writeText(String line, double x, double y, int font, double size, Color color) throws IOException {
+        setFillColor(color);
+        write("BT /F");
+        writeInteger(font + 1);
+        write(' ');
+        writeNumber(size);
+        write(" Tf 1 0 0 -1 ");
+        writeNumber(x);
+        write(' ');
+        writeNumber(y);
+        write(" Tm (");
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '(' || c == ')' || c == '\\') {
+                write('\\');
+                write(c);
+            } else if (c >= 0x20 && c < 0x7F) {
+                write(c);
+            } else if (c >= 0xA0 && c <= 0xFF) {
+                // WinAnsi matches Latin-1 here
+                write((byte) c);
+            } else if (c >= 0x7F) {
+                write('?');
+            }
+        }
+        write(") Tj ET\n");
+    }
+
+    private static int fontIndex(String style) {
+        String lower = style.toLowerCase();
+        boolean bold = lower.contains("bold");
+        boolean italic = lower.contains("italic") || lower.contains("oblique");
+        return (bold ? 1 : 0) + (italic ? 2 : 0);
+    }
+
+    private void setStrokeColor(Color color) throws IOException {
+        if (!color.equals(strokeColor)) {
+            strokeColor = color;
+            writeColor(color);
+            write(" RG\n");
+        }
+    }
+
+    private void setFillColor(Color color) throws IOException {
+        if (!color.equals(fillColor)) {
+            fillColor = color;
+            writeColor(color);
+            write(" rg\n");
+        }
+    }
+
+    // Writes the color's components and switches to its opacity, which PDF keeps in a graphics state
+    private void writeColor(Color color) throws IOException {
+        int opacity = (int) Math.round(color.getOpacity() * 255);
+        if (opacity != alpha) {
+            alpha = opacity;
+            Integer state = alphaStates.get(opacity);
+            if (state == null) {
+                state = alphaStates.size() + 1;
+                alphaStates.put(opacity, state);
+            }
+            write("/GS");
+            writeInteger(state);
+            write(" gs\n");
+        }
+        writeNumber(color.getRed());
+        write(' ');
+        writeNumber(color.getGreen());
+        write(' ');
+        writeNumber(color.getBlue());
+    }
+
+    // Starts a content stream with the board's coordinates: y down, origin at the area's corner
+    private void beginContent() throws IOException {
+        int number = reserveObject();
+        contentLength = reserveObject();
+        contentStreams.add(number);
+        beginObject(number);
+        write("<< /Length ");
+        writeInteger(contentLength);
+        write(" 0 R /Filter /FlateDecode >>\nstream\n");
+        contentStart = position();
+        // Drawing commands compress well even at the fastest level, which keeps up with the writer
+        compressor = new Deflater(Deflater.BEST_SPEED);
+        content = new DeflaterOutputStream(fileStream(), compressor, 64 * 1024);
+        redirect(content);
+
+        strokeColor = null;
+        fillColor = null;
+        lineWidth = -1;
+        alpha = 255;
+        // Two decimals are too coarse for a scale, so the matrix is written in full
+        write(String.format(Locale.ROOT, "q %.6f 0 0 %.6f %.4f %.4f cm 1 J 1 j\n", 1 / userUnit, -1 / userUnit,
+                -area.getMinX() / userUnit, area.getMaxY() / userUnit));
+    }
+
+    private void endContent() throws IOException {
+        if (content == null) {
+            return;
+        }
+        write("Q\n");
+        redirect(null);
+        content.close();
+        compressor.end();
+        content = null;
+        writeStreamEnd(contentLength, position() - contentStart);
+    }
+
+    // Writes an image, or its alpha channel as a soft mask, as a compressed image object
+    private int writeImage(PixelReader reader, int width, int height, int[] row, boolean alphaOnly, int mask)
+            throws IOException {
+        int number = reserveObject();
+        int length = reserveObject();
+        beginObject(number);
+        write("<< /Type /XObject /Subtype /Image /Width ");
+        writeInteger(width);
+        write(" /Height ");
+        writeInteger(height);
+        write(alphaOnly ? " /ColorSpace /DeviceGray" : " /ColorSpace /DeviceRGB");
+        write(" /BitsPerComponent 8 /Filter /FlateDecode");
+        if (mask != 0) {
+            write(" /SMask ");
+            writeInteger(mask);
+            write(" 0 R");
+        }
+        write(" /Length ");
+        writeInteger(length);
+        write(" 0 R >>\nstream\n");
+        long start = position();
+
+        Deflater deflater = new Deflater();
+        DeflaterOutputStream data = new DeflaterOutputStream(fileStream(), deflater, 64 * 1024);
+        byte[] samples = new byte[width * (alphaOnly ? 1 : 3)];
+        for (int y = 0; y < height; y++) {
+            reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width);
+            for (int x = 0, i = 0; x < width; x++) {
+                int argb = row[x];
+                if (alphaOnly) {
+                    samples[i++] = (byte) (argb >>> 24);
+                } else {
+                    samples[i++] = (byte) (argb >> 16);
+                    samples[i++] = (byte) (argb >> 8);
+                    samples[i++] = (byte) argb;
+                }
+            }
+            data.write(samples);
+        }
+        data.close();
+        deflater.end();
+        writeStreamEnd(length, position() - start);
+        return number;
+    }
+
+    private void writeStreamEnd(int lengthObject, long length) throws IOException {
+        write("\nendstream\nendobj\n");
+        beginObject(lengthObject);
+        writeInteger(length);
+        write("\nendobj\n");
+    }
+
+    private int reserveObject() {
+        return nextObject++;
+    }
+
+    private void beginObject(int number) throws IOException {
+        if (number >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(number + 1, offsets.length * 2));
+        }
+        offsets[number] = position();
+        writeInteger(number);
+        write(" 0 obj\n");
+    }
+}
@@ -0,0 +1,187 @@
+package motlohi.demo1;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Streaming 8-bit PNG writer. Rows are filtered and deflated as they are handed in, and the
+// compressed data goes out in fixed-size IDAT chunks, so only two rows of the image are ever
+// held here no matter how large it is. Writes RGB, or RGBA when alpha is asked for.
+public class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] chunk;
+    private byte[] previousRow;
+    private byte[] currentRow;
+    private final byte[][] filtered;
+    private int chunkLength;
+    private int rowsWritten;
+
+    public PngEncoder(OutputStream out, int width, int height, boolean alpha) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image must not be empty: " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.channels = alpha ? 4 : 3;
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        this.crc = new CRC32();
+        this.chunk = new byte[CHUNK_SIZE];
+        this.previousRow = new byte[width * channels];
+        this.currentRow = new byte[width * channels];
+        this.filtered = new byte[5][1 + width * channels];
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // Bits per channel
+        header[9] = (byte) (alpha ? 6 : 2); // Truecolor, with or without alpha
+        writeChunk("IHDR", header, header.length);
+    }
+
+    // Adds the next row from non-premultiplied ARGB pixels starting at an offset
+    public void writeRow(int[] argb, int offset) throws IOException {
+        if (rowsWritten == height) {
+            throw new IllegalStateException("All " + height + " rows have already been written");
+        }
+        int n = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = argb[offset + x];
+            currentRow[n++] = (byte) (pixel >> 16);
+            currentRow[n++] = (byte) (pixel >> 8);
+            currentRow[n++] = (byte) pixel;
+            if (channels == 4) {
+                currentRow[n++] = (byte) (pixel >>> 24);
+            }
+        }
+
+        deflate(filterRow(), false);
+        byte[] swap = previousRow;
+        previousRow = currentRow;
+        currentRow = swap;
+        rowsWritten++;
+    }
+
+    // Flushes the compressed data and ends the image; every row must have been written
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+        }
+        deflate(null, true);
+        if (chunkLength > 0) {
+            writeChunk("IDAT", chunk, chunkLength);
+        }
+        writeChunk("IEND", chunk, 0);
+        deflater.end();
+        out.flush();
+    }
+
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    // Picks the filter with the smallest sum of absolute differences, the usual heuristic
+    // for what will deflate best
+    private byte[] filterRow() {
+        int length = currentRow.length;
+        long bestSum = Long.MAX_VALUE;
+        byte[] best = null;
+        for (int type = 0; type < 5; type++) {
+            byte[] row = filtered[type];
+            row[0] = (byte) type;
+            long sum = 0;
+            for (int i = 0; i < length; i++) {
+                int raw = currentRow[i] & 0xFF;
+                int left = i >= channels ? currentRow[i - channels] & 0xFF : 0;
+                int up = rowsWritten > 0 ? previousRow[i] & 0xFF : 0;
+                int upLeft = rowsWritten > 0 && i >= channels ? previousRow[i - channels] & 0xFF : 0;
+                int predicted;
+                switch (type) {
+                    case 1:
+                        predicted = left;
+                        break;
+                    case 2:
+                        predicted = up;
+                        break;
+                    case 3:
+                        predicted = (left + up) >> 1;
+                        break;
+                    case 4:
+                        predicted = paeth(left, up, upLeft);
+                        break;
+                    default:
+                        predicted = 0;
+                        break;
+                }
+                byte value = (byte) (raw - predicted);
+                row[i + 1] = value;
+                sum += Math.abs(value);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    private void deflate(byte[] data, boolean last) throws IOException {
+        if (data != null) {
+            deflater.setInput(data);
+        }
+        if (last) {
+            deflater.finish();
+        }
+        while (last ? !deflater.finished() : !deflater.needsInput()) {
+            chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+            if (chunkLength == CHUNK_SIZE) {
+                writeChunk("IDAT", chunk, chunkLength);
+                chunkLength = 0;
+            }
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] field = new byte[4];
+        putInt(field, 0, length);
+        out.write(field);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        putInt(field, 0, (int) crc.getValue());
+        out.write(field);
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,60 @@
+package motlohi.demo1;
+
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Writes an image to a PNG file off the FX thread. Pixels are read out one row at a time and
+// streamed through the encoder into a temporary file next to the target, which replaces the
+// target only once it is complete, so a cancelled or failed save leaves no partial file.
+public class PngExportTask extends Task<File> {
+    private final Image image;
+    private final File file;
+
+    public PngExportTask(Image image, File file) {
+        this.image = image;
+        this.file = file;
+        updateTitle("Saving " + file.getName());
+    }
+
+    @Override
+    protected File call() throws IOException {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        PixelReader reader = image.getPixelReader();
+        int[] row = new int[width];
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".part");
+        boolean done = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                PngEncoder encoder = new PngEncoder(out, width, height, false);
+                for (int y = 0; y < height; y++) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width);
+                    encoder.writeRow(row, 0);
+                    updateProgress(y + 1, height);
+                }
+                encoder.finish();
+            }
+            AtomicFiles.moveIntoPlace(temp, target);
+            done = true;
+            return file;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
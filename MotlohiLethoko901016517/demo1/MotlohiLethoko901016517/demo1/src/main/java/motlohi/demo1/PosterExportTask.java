@@ -0,0 +1,156 @@
+package motlohi.demo1;
+
+import javafx.concurrent.Task;
+import javafx.geometry.Rectangle2D;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// Exports the whole board as a PNG at any resolution, without the image ever being held in
+// memory. The board is rendered by the software rasterizer in horizontal bands of BAND_ROWS
+// pixel rows, each band as a row of tiles in parallel, and the bands are streamed through
+// the PNG encoder top to bottom. A few bands are rendered ahead of the encoder to keep every
+// core busy, as many as fit in MAX_BAND_BYTES, so peak memory follows the band size and not
+// the size of the output.
+public class PosterExportTask extends Task<File> {
+    // Board units are screen pixels at 100% zoom, which are taken to be 96 to the inch
+    public static final double BOARD_DPI = 96;
+
+    private static final int BAND_ROWS = BoardView.TILE_SIZE;
+    private static final long MAX_BAND_BYTES = 64L * 1024 * 1024;
+    private static final double MARGIN = 10;
+
+    private final List<BoardItem> items;
+    private final Rectangle2D area;
+    private final double scale;
+    private final File file;
+
+    // The items of the visible layers are listed here, on the FX thread, bottom layer first
+    public PosterExportTask(LayerStack stack, File file, double dpi) {
+        this.items = new ArrayList<>();
+        this.file = file;
+        this.scale = dpi / BOARD_DPI;
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Layer layer : stack.getVisibleLayers()) {
+            items.addAll(layer.getDocument().getItems());
+            Rectangle2D bounds = layer.getDocument().getBounds();
+            if (bounds.getWidth() > 0 || bounds.getHeight() > 0) {
+                minX = Math.min(minX, bounds.getMinX());
+                minY = Math.min(minY, bounds.getMinY());
+                maxX = Math.max(maxX, bounds.getMaxX());
+                maxY = Math.max(maxY, bounds.getMaxY());
+            }
+        }
+        if (maxX < minX) {
+            minX = minY = 0;
+            maxX = maxY = 1;
+        }
+        this.area = new Rectangle2D(minX - MARGIN, minY - MARGIN, maxX - minX + 2 * MARGIN, maxY - minY + 2 * MARGIN);
+        updateTitle("Exporting " + file.getName());
+    }
+
+    public int getWidth() {
+        return (int) Math.ceil(area.getWidth() * scale);
+    }
+
+    public int getHeight() {
+        return (int) Math.ceil(area.getHeight() * scale);
+    }
+
+    @Override
+    protected File call() throws IOException, InterruptedException {
+        int width = getWidth();
+        int height = getHeight();
+        if ((long) width * BAND_ROWS > Integer.MAX_VALUE) {
+            throw new IOException("The export would be " + width + " pixels wide; choose a lower resolution");
+        }
+        int bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+        List<List<BoardItem>> bandItems = sortIntoBands(bands);
+
+        TileRasterizer rasterizer = new TileRasterizer(BoardView.TILE_SIZE);
+        long bandBytes = (long) width * BAND_ROWS * 4;
+        int ahead = (int) Math.max(1, Math.min(rasterizer.getParallelism() + 1, MAX_BAND_BYTES / bandBytes));
+        Deque<int[]> freeBands = new ArrayDeque<>();
+        Deque<CompletableFuture<int[]>> rendering = new ArrayDeque<>();
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".part");
+        boolean done = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+                PngEncoder encoder = new PngEncoder(out, width, height, false);
+                int next = 0;
+                for (int band = 0; band < bands; band++) {
+                    while (next < bands && rendering.size() < ahead) {
+                        int[] pixels = freeBands.isEmpty() ? new int[width * BAND_ROWS] : freeBands.poll();
+                        rendering.add(rasterizer.renderRegionAsync(bandItems.get(next), bandArea(next), scale,
+                                pixels, this::isCancelled));
+                        bandItems.set(next, null);
+                        next++;
+                    }
+                    int[] pixels = rendering.poll().get();
+                    if (pixels == null || isCancelled()) {
+                        return null;
+                    }
+                    // Every pixel is opaque over the white background, so premultiplied is plain ARGB
+                    int rows = Math.min(BAND_ROWS, height - band * BAND_ROWS);
+                    for (int row = 0; row < rows; row++) {
+                        encoder.writeRow(pixels, row * width);
+                    }
+                    freeBands.add(pixels);
+                    updateProgress(band + 1, bands);
+                }
+                encoder.finish();
+            }
+            AtomicFiles.moveIntoPlace(temp, target);
+            done = true;
+            return file;
+        } catch (ExecutionException e) {
+            throw new IOException("Rendering the export failed", e.getCause());
+        } finally {
+            for (CompletableFuture<int[]> band : rendering) {
+                band.cancel(false);
+            }
+            rasterizer.shutdown();
+            if (!done) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    // The board area of a band of rows
+    private Rectangle2D bandArea(int band) {
+        return new Rectangle2D(area.getMinX(), area.getMinY() + band * BAND_ROWS / scale,
+                area.getWidth(), BAND_ROWS / scale);
+    }
+
+    // Lists each item under every band it reaches, keeping the paint order
+    private List<List<BoardItem>> sortIntoBands(int bands) {
+        List<List<BoardItem>> bandItems = new ArrayList<>(bands);
+        for (int i = 0; i < bands; i++) {
+            bandItems.add(new ArrayList<>());
+        }
+        double bandHeight = BAND_ROWS / scale;
+        for (BoardItem item : items) {
+            Rectangle2D bounds = item.getBounds();
+            int first = (int) Math.max(0, Math.floor((bounds.getMinY() - area.getMinY()) / bandHeight));
+            int last = (int) Math.min(bands - 1, Math.floor((bounds.getMaxY() - area.getMinY()) / bandHeight));
+            for (int band = first; band <= last; band++) {
+                bandItems.get(band).add(item);
+            }
+        }
+        return bandItems;
+    }
+}
@@ -0,0 +1,84 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+
+// Transparent canvas stacked over the board for transient previews. Only the area touched
+// by the previous preview is cleared, so a preview costs the same on any board.
+public class PreviewOverlay {
+    private final Canvas canvas;
+    private final GraphicsContext gc;
+    private double dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+    private boolean dirty;
+
+    public PreviewOverlay(double width, double height) {
+        this.canvas = new Canvas(width, height);
+        this.gc = canvas.getGraphicsContext2D();
+        canvas.setMouseTransparent(true);
+        gc.setLineCap(StrokeLineCap.ROUND);
+    }
+
+    public void clear() {
+        if (dirty) {
+            gc.clearRect(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY);
+            dirty = false;
+        }
+    }
+
+    public void drawLine(double x0, double y0, double x1, double y1, Color color, double width) {
+        clear();
+        gc.setStroke(color);
+        gc.setLineWidth(width);
+        gc.strokeLine(x0, y0, x1, y1);
+
+        double pad = width / 2 + 1;
+        markDirty(new Rectangle2D(Math.min(x0, x1) - pad, Math.min(y0, y1) - pad,
+                Math.abs(x1 - x0) + 2 * pad, Math.abs(y1 - y0) + 2 * pad));
+    }
+
+    public void drawCircle(double x, double y, double radius, Color color) {
+        clear();
+        gc.setStroke(color);
+        gc.setLineWidth(1);
+        gc.strokeOval(x - radius, y - radius, radius * 2, radius * 2);
+        markDirty(new Rectangle2D(x - radius - 2, y - radius - 2, radius * 2 + 4, radius * 2 + 4));
+    }
+
+    // Outline of a box with a square handle on its bottom-right corner
+    public void drawFrame(double x, double y, double width, double height, double handle, Color color) {
+        clear();
+        gc.setStroke(color);
+        gc.setLineWidth(1);
+        gc.strokeRect(x, y, width, height);
+        gc.setFill(color);
+        gc.fillRect(x + width - handle / 2, y + height - handle / 2, handle, handle);
+        markDirty(new Rectangle2D(x - 2, y - 2, width + handle / 2 + 4, height + handle / 2 + 4));
+    }
+
+    // For previews drawn directly on the overlay's GraphicsContext
+    public void markDirty(Rectangle2D bounds) {
+        if (!dirty) {
+            dirtyMinX = bounds.getMinX();
+            dirtyMinY = bounds.getMinY();
+            dirtyMaxX = bounds.getMaxX();
+            dirtyMaxY = bounds.getMaxY();
+            dirty = true;
+        } else {
+            dirtyMinX = Math.min(dirtyMinX, bounds.getMinX());
+            dirtyMinY = Math.min(dirtyMinY, bounds.getMinY());
+            dirtyMaxX = Math.max(dirtyMaxX, bounds.getMaxX());
+            dirtyMaxY = Math.max(dirtyMaxY, bounds.getMaxY());
+        }
+    }
+
+    public Canvas getCanvas() {
+        return canvas;
+    }
+
+    public GraphicsContext getGraphicsContext() {
+        return gc;
+    }
+}
@@ -0,0 +1,564 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+// Software render target: premultiplied ARGB pixels showing a board area at some scale.
+// Pure Java, so it runs on any thread and without a screen. Shapes are antialiased by
+// accumulating per-pixel coverage in a scratch buffer and blending once per shape, so the
+// overlapping segments of one stroke are not blended twice.
+public class Raster {
+    private static final int SUBSAMPLES = 4; // Scanlines per pixel row when filling paths
+    private static final double CURVE_STEP = 2.0; // Chord length in pixels when flattening curves
+
+    private final int width;
+    private final int height;
+    private final float[] coverage;
+    private int[] pixels;
+    private double originX, originY, scale;
+
+    // Part of the coverage buffer touched by the shape being drawn
+    private int dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+    private double spanStart, spanEnd; // Result of the last capsuleSpan
+
+    // Path edges in pixel space (x0, y0, x1, y1) and the crossings of one scanline
+    private float[] edges;
+    private int edgeCount;
+    private float[] crossings;
+    private int[] windings;
+    private int[] texels; // The part of an image read through its PixelReader
+
+    public Raster(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.coverage = new float[width * height];
+        this.edges = new float[256];
+        this.crossings = new float[64];
+        this.windings = new int[64];
+    }
+
+    // Targets a pixel buffer that shows the board from (boardX, boardY) at the given scale
+    public void begin(int[] pixels, double boardX, double boardY, double scale) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixel buffer is smaller than the raster");
+        }
+        this.pixels = pixels;
+        this.originX = boardX;
+        this.originY = boardY;
+        this.scale = scale;
+    }
+
+    public void clear(Color color) {
+        Arrays.fill(pixels, 0, width * height, premultiply(color, 1));
+    }
+
+    // Source-over of a whole premultiplied buffer of the raster's size, such as a layer
+    public void composite(int[] layer) {
+        for (int i = 0; i < width * height; i++) {
+            blendPremultiplied(i, layer[i]);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    // Board area the raster shows
+    public Rectangle2D getBounds() {
+        return new Rectangle2D(originX, originY, width / scale, height / scale);
+    }
+
+    // Strokes a polyline in board coordinates with round caps and joins
+    public void strokePolyline(float[] points, double lineWidth, Color color) {
+        if (points.length < 2) {
+            return;
+        }
+        double halfWidth = lineWidth * scale / 2;
+        float alpha = 1;
+        if (halfWidth < 0.5) {
+            // Hairlines fade out instead of breaking up
+            alpha = (float) (halfWidth * 2);
+            halfWidth = 0.5;
+        }
+
+        resetDirty();
+        if (points.length == 2) {
+            double x = toPixelX(points[0]);
+            double y = toPixelY(points[1]);
+            capsule(x, y, x, y, halfWidth);
+        }
+        for (int i = 2; i + 1 < points.length; i += 2) {
+            capsule(toPixelX(points[i - 2]), toPixelY(points[i - 1]), toPixelX(points[i]), toPixelY(points[i + 1]),
+                    halfWidth);
+        }
+        composite(color, alpha);
+    }
+
+    // Fills a rectangle in board coordinates, with partial coverage along its edges
+    public void fillRect(double x, double y, double w, double h, Color color) {
+        double left = toPixelX(x), top = toPixelY(y);
+        double right = toPixelX(x + w), bottom = toPixelY(y + h);
+        int x0 = Math.max(0, (int) Math.floor(left));
+        int y0 = Math.max(0, (int) Math.floor(top));
+        int x1 = Math.min(width - 1, (int) Math.ceil(right) - 1);
+        int y1 = Math.min(height - 1, (int) Math.ceil(bottom) - 1);
+
+        float r = (float) color.getRed(), g = (float) color.getGreen(), b = (float) color.getBlue();
+        float a = (float) color.getOpacity();
+        for (int py = y0; py <= y1; py++) {
+            double rowCoverage = Math.min(py + 1, bottom) - Math.max(py, top);
+            for (int px = x0; px <= x1; px++) {
+                double cellCoverage = rowCoverage * (Math.min(px + 1, right) - Math.max(px, left));
+                if (cellCoverage > 0) {
+                    blend(py * width + px, r, g, b, a * (float) Math.min(1, cellCoverage));
+                }
+            }
+        }
+    }
+
+    // Fills a path in board coordinates with the non-zero winding rule
+    public void fillPath(VectorPath path, Color color) {
+        edgeCount = 0;
+        float[] c = path.getCoords();
+        int ci = 0;
+        double startX = 0, startY = 0, lastX = 0, lastY = 0;
+        for (int i = 0; i < path.getOpCount(); i++) {
+            byte op = path.getOp(i);
+            if (op == VectorPath.MOVE_TO) {
+                addEdge(lastX, lastY, startX, startY);
+                startX = lastX = toPixelX(c[ci++]);
+                startY = lastY = toPixelY(c[ci++]);
+            } else if (op == VectorPath.LINE_TO) {
+                double x = toPixelX(c[ci++]), y = toPixelY(c[ci++]);
+                addEdge(lastX, lastY, x, y);
+                lastX = x;
+                lastY = y;
+            } else if (op == VectorPath.QUAD_TO) {
+                double cx = toPixelX(c[ci++]), cy = toPixelY(c[ci++]);
+                double x = toPixelX(c[ci++]), y = toPixelY(c[ci++]);
+                int steps = curveSteps(Math.hypot(cx - lastX, cy - lastY) + Math.hypot(x - cx, y - cy));
+                double px = lastX, py = lastY;
+                for (int k = 1; k <= steps; k++) {
+                    double t = (double) k / steps, u = 1 - t;
+                    double qx = u * u * lastX + 2 * u * t * cx + t * t * x;
+                    double qy = u * u * lastY + 2 * u * t * cy + t * t * y;
+                    addEdge(px, py, qx, qy);
+                    px = qx;
+                    py = qy;
+                }
+                lastX = x;
+                lastY = y;
+            } else if (op == VectorPath.CUBIC_TO) {
+                double c1x = toPixelX(c[ci++]), c1y = toPixelY(c[ci++]);
+                double c2x = toPixelX(c[ci++]), c2y = toPixelY(c[ci++]);
+                double x = toPixelX(c[ci++]), y = toPixelY(c[ci++]);
+                int steps = curveSteps(Math.hypot(c1x - lastX, c1y - lastY) + Math.hypot(c2x - c1x, c2y - c1y)
+                        + Math.hypot(x - c2x, y - c2y));
+                double px = lastX, py = lastY;
+                for (int k = 1; k <= steps; k++) {
+                    double t = (double) k / steps, u = 1 - t;
+                    double a = u * u * u, b = 3 * u * u * t, d = 3 * u * t * t, e = t * t * t;
+                    double qx = a * lastX + b * c1x + d * c2x + e * x;
+                    double qy = a * lastY + b * c1y + d * c2y + e * y;
+                    addEdge(px, py, qx, qy);
+                    px = qx;
+                    py = qy;
+                }
+                lastX = x;
+                lastY = y;
+            } else if (op == VectorPath.CLOSE) {
+                addEdge(lastX, lastY, startX, startY);
+                lastX = startX;
+                lastY = startY;
+            }
+        }
+        // Every contour is filled as if it were closed
+        addEdge(lastX, lastY, startX, startY);
+        scanEdges();
+        composite(color, 1);
+    }
+
+    // Draws premultiplied ARGB pixels stretched over a board rectangle, bilinearly filtered
+    public void drawImage(int[] source, int sourceWidth, int sourceHeight, double x, double y, double w, double h) {
+        drawImage(source, null, sourceWidth, sourceHeight, x, y, w, h);
+    }
+
+    // Draws an image straight from its reader. Only the texels under the raster are read, so a
+    // large picture is drawn without a copy of all its pixels.
+    public void drawImage(PixelReader reader, int sourceWidth, int sourceHeight, double x, double y, double w, double h) {
+        drawImage(null, reader, sourceWidth, sourceHeight, x, y, w, h);
+    }
+
+    private void drawImage(int[] source, PixelReader reader, int sourceWidth, int sourceHeight,
+                           double x, double y, double w, double h) {
+        double left = toPixelX(x), top = toPixelY(y);
+        double right = toPixelX(x + w), bottom = toPixelY(y + h);
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        int x0 = Math.max(0, (int) Math.floor(left));
+        int y0 = Math.max(0, (int) Math.floor(top));
+        int x1 = Math.min(width - 1, (int) Math.ceil(right));
+        int y1 = Math.min(height - 1, (int) Math.ceil(bottom));
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+        double stepX = sourceWidth / (right - left);
+        double stepY = sourceHeight / (bottom - top);
+
+        // Texels are addressed within a window of the image: all of it for an array, and just
+        // the part the pixels sample for a reader
+        int windowX = 0, windowY = 0, stride = sourceWidth;
+        if (reader != null) {
+            windowX = Math.min((int) Math.max(0, (x0 + 0.5 - left) * stepX - 0.5), sourceWidth - 1);
+            windowY = Math.min((int) Math.max(0, (y0 + 0.5 - top) * stepY - 0.5), sourceHeight - 1);
+            int windowRight = Math.min((int) Math.max(0, (x1 + 0.5 - left) * stepX - 0.5) + 1, sourceWidth - 1);
+            int windowBottom = Math.min((int) Math.max(0, (y1 + 0.5 - top) * stepY - 0.5) + 1, sourceHeight - 1);
+            stride = windowRight - windowX + 1;
+            int rows = windowBottom - windowY + 1;
+            if (texels == null || texels.length < stride * rows) {
+                texels = new int[stride * rows];
+            }
+            reader.getPixels(windowX, windowY, stride, rows, PixelFormat.getIntArgbPreInstance(), texels, 0, stride);
+            source = texels;
+        }
+
+        for (int py = y0; py <= y1; py++) {
+            double centerY = py + 0.5;
+            if (centerY < top || centerY >= bottom) {
+                continue;
+            }
+            double v = Math.max(0, (centerY - top) * stepY - 0.5);
+            int v0 = Math.min((int) v, sourceHeight - 1);
+            int v1 = Math.min(v0 + 1, sourceHeight - 1);
+            float fv = (float) (v - v0);
+            int row0 = (v0 - windowY) * stride - windowX;
+            int row1 = (v1 - windowY) * stride - windowX;
+            for (int px = x0; px <= x1; px++) {
+                double centerX = px + 0.5;
+                if (centerX < left || centerX >= right) {
+                    continue;
+                }
+                double u = Math.max(0, (centerX - left) * stepX - 0.5);
+                int u0 = Math.min((int) u, sourceWidth - 1);
+                int u1 = Math.min(u0 + 1, sourceWidth - 1);
+                float fu = (float) (u - u0);
+                int texel = bilinear(source[row0 + u0], source[row0 + u1], source[row1 + u0], source[row1 + u1], fu, fv);
+                blendPremultiplied(py * width + px, texel);
+            }
+        }
+    }
+
+    public static int premultiply(Color color, double alpha) {
+        double a = color.getOpacity() * alpha;
+        return ((int) Math.round(a * 255) << 24)
+                | ((int) Math.round(color.getRed() * a * 255) << 16)
+                | ((int) Math.round(color.getGreen() * a * 255) << 8)
+                | (int) Math.round(color.getBlue() * a * 255);
+    }
+
+    private double toPixelX(double boardX) {
+        return (boardX - originX) * scale;
+    }
+
+    private double toPixelY(double boardY) {
+        return (boardY - originY) * scale;
+    }
+
+    private static int curveSteps(double length) {
+        return (int) Math.max(1, Math.min(64, Math.ceil(length / CURVE_STEP)));
+    }
+
+    // Coverage of a round-capped segment: full within the half width, fading over one pixel.
+    // A capsule is convex, so each row only visits the span of pixels it actually reaches, and
+    // pixels in the solid core are filled without measuring their distance.
+    private void capsule(double ax, double ay, double bx, double by, double halfWidth) {
+        double edge = halfWidth + 0.5;
+        int y0 = Math.max(0, (int) Math.floor(Math.min(ay, by) - edge));
+        int y1 = Math.min(height - 1, (int) Math.ceil(Math.max(ay, by) + edge));
+        if (y0 > y1 || Math.max(ax, bx) + edge < 0 || Math.min(ax, bx) - edge > width) {
+            return;
+        }
+
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double length = Math.sqrt(lengthSq);
+        double core = halfWidth - 0.5;
+        double edgeSq = edge * edge;
+        for (int py = y0; py <= y1; py++) {
+            double cy = py + 0.5;
+            if (!capsuleSpan(ax, ay, dx, dy, length, cy, edge)) {
+                continue;
+            }
+            int first = Math.max(0, (int) Math.floor(spanStart - 0.5));
+            int last = Math.min(width - 1, (int) Math.ceil(spanEnd - 0.5));
+            if (first > last) {
+                continue;
+            }
+            markDirty(first, py, last, py);
+
+            int coreFirst = Integer.MAX_VALUE, coreLast = Integer.MIN_VALUE;
+            if (core > 0 && capsuleSpan(ax, ay, dx, dy, length, cy, core)) {
+                coreFirst = (int) Math.ceil(spanStart - 0.5);
+                coreLast = (int) Math.floor(spanEnd - 0.5);
+            }
+
+            int row = py * width;
+            for (int px = first; px <= last; px++) {
+                if (px >= coreFirst && px <= coreLast) {
+                    coverage[row + px] = 1;
+                    continue;
+                }
+                double cx = px + 0.5;
+                double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((cx - ax) * dx + (cy - ay) * dy) / lengthSq));
+                double ex = cx - (ax + t * dx);
+                double ey = cy - (ay + t * dy);
+                double distanceSq = ex * ex + ey * ey;
+                if (distanceSq >= edgeSq) {
+                    continue;
+                }
+                float cellCoverage = (float) Math.min(1, edge - Math.sqrt(distanceSq));
+                if (cellCoverage > coverage[row + px]) {
+                    coverage[row + px] = cellCoverage;
+                }
+            }
+        }
+    }
+
+    // Where the row y crosses the capsule of the given radius around a segment, as
+    // [spanStart, spanEnd]: the union of the two end discs and the band between them
+    private boolean capsuleSpan(double ax, double ay, double dx, double dy, double length, double y, double radius) {
+        double lo = Double.MAX_VALUE, hi = -Double.MAX_VALUE;
+
+        double offsetA = y - ay;
+        if (Math.abs(offsetA) < radius) {
+            double half = Math.sqrt(radius * radius - offsetA * offsetA);
+            lo = ax - half;
+            hi = ax + half;
+        }
+        double offsetB = y - (ay + dy);
+        if (Math.abs(offsetB) < radius) {
+            double half = Math.sqrt(radius * radius - offsetB * offsetB);
+            lo = Math.min(lo, ax + dx - half);
+            hi = Math.max(hi, ax + dx + half);
+        }
+
+        if (length > 0) {
+            // Within the radius of the line: |(x - ax) * dy - offsetA * dx| < radius * length
+            double bandLo = -Double.MAX_VALUE, bandHi = Double.MAX_VALUE;
+            if (dy != 0) {
+                double p = ax + (offsetA * dx - radius * length) / dy;
+                double q = ax + (offsetA * dx + radius * length) / dy;
+                bandLo = Math.min(p, q);
+                bandHi = Math.max(p, q);
+            } else if (Math.abs(offsetA) >= radius) {
+                bandLo = Double.MAX_VALUE;
+            }
+            // Projecting inside the segment: 0 <= (x - ax) * dx + offsetA * dy <= length^2
+            if (dx != 0) {
+                double p = ax - offsetA * dy / dx;
+                double q = ax + (length * length - offsetA * dy) / dx;
+                bandLo = Math.max(bandLo, Math.min(p, q));
+                bandHi = Math.min(bandHi, Math.max(p, q));
+            } else if (offsetA * dy < 0 || offsetA * dy > length * length) {
+                bandLo = Double.MAX_VALUE;
+            }
+            if (bandLo <= bandHi) {
+                lo = Math.min(lo, bandLo);
+                hi = Math.max(hi, bandHi);
+            }
+        }
+
+        spanStart = lo;
+        spanEnd = hi;
+        return lo <= hi;
+    }
+
+    private void addEdge(double x0, double y0, double x1, double y1) {
+        if (y0 == y1) {
+            return; // Horizontal edges never cross a scanline
+        }
+        if (edgeCount + 4 > edges.length) {
+            edges = Arrays.copyOf(edges, edges.length * 2);
+        }
+        edges[edgeCount++] = (float) x0;
+        edges[edgeCount++] = (float) y0;
+        edges[edgeCount++] = (float) x1;
+        edges[edgeCount++] = (float) y1;
+    }
+
+    // Scan converts the collected edges into the coverage buffer, SUBSAMPLES scanlines per row
+    private void scanEdges() {
+        resetDirty();
+        if (edgeCount == 0) {
+            return;
+        }
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < edgeCount; i += 2) {
+            minX = Math.min(minX, edges[i]);
+            maxX = Math.max(maxX, edges[i]);
+            minY = Math.min(minY, edges[i + 1]);
+            maxY = Math.max(maxY, edges[i + 1]);
+        }
+        int firstRow = Math.max(0, (int) Math.floor(minY));
+        int lastRow = Math.min(height - 1, (int) Math.ceil(maxY));
+        int firstColumn = Math.max(0, (int) Math.floor(minX));
+        int lastColumn = Math.min(width - 1, (int) Math.ceil(maxX));
+        if (firstRow > lastRow || firstColumn > lastColumn) {
+            return;
+        }
+        markDirty(firstColumn, firstRow, lastColumn, lastRow);
+
+        if (crossings.length < edgeCount / 4) {
+            crossings = new float[edgeCount / 4];
+            windings = new int[edgeCount / 4];
+        }
+        float weight = 1f / SUBSAMPLES;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int s = 0; s < SUBSAMPLES; s++) {
+                float scanY = row + (s + 0.5f) / SUBSAMPLES;
+                int count = 0;
+                for (int i = 0; i < edgeCount; i += 4) {
+                    float x0 = edges[i], y0 = edges[i + 1], x1 = edges[i + 2], y1 = edges[i + 3];
+                    if ((y0 <= scanY && scanY < y1) || (y1 <= scanY && scanY < y0)) {
+                        float x = x0 + (scanY - y0) * (x1 - x0) / (y1 - y0);
+                        int winding = y1 > y0 ? 1 : -1;
+
+                        // Insertion sort by x; a scanline crosses only a handful of edges
+                        int j = count++;
+                        while (j > 0 && crossings[j - 1] > x) {
+                            crossings[j] = crossings[j - 1];
+                            windings[j] = windings[j - 1];
+                            j--;
+                        }
+                        crossings[j] = x;
+                        windings[j] = winding;
+                    }
+                }
+
+                int winding = 0;
+                float spanStart = 0;
+                for (int k = 0; k < count; k++) {
+                    int next = winding + windings[k];
+                    if (winding == 0 && next != 0) {
+                        spanStart = crossings[k];
+                    } else if (winding != 0 && next == 0) {
+                        addSpan(row * width, spanStart, crossings[k], weight);
+                    }
+                    winding = next;
+                }
+            }
+        }
+    }
+
+    // Adds coverage for the part of a pixel row between two x positions
+    private void addSpan(int row, float from, float to, float weight) {
+        from = Math.max(0, from);
+        to = Math.min(width, to);
+        if (to <= from) {
+            return;
+        }
+        int first = (int) from;
+        int last = (int) to;
+        if (first == last) {
+            coverage[row + first] += (to - from) * weight;
+            return;
+        }
+        coverage[row + first] += (first + 1 - from) * weight;
+        for (int x = first + 1; x < last; x++) {
+            coverage[row + x] += weight;
+        }
+        if (last < width) {
+            coverage[row + last] += (to - last) * weight;
+        }
+    }
+
+    private void resetDirty() {
+        dirtyMinX = Integer.MAX_VALUE;
+        dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = -1;
+        dirtyMaxY = -1;
+    }
+
+    private void markDirty(int x0, int y0, int x1, int y1) {
+        dirtyMinX = Math.min(dirtyMinX, x0);
+        dirtyMinY = Math.min(dirtyMinY, y0);
+        dirtyMaxX = Math.max(dirtyMaxX, x1);
+        dirtyMaxY = Math.max(dirtyMaxY, y1);
+    }
+
+    // Blends the accumulated coverage in the dirty area with a color and clears it again
+    private void composite(Color color, float alpha) {
+        float r = (float) color.getRed(), g = (float) color.getGreen(), b = (float) color.getBlue();
+        float a = (float) color.getOpacity() * alpha;
+        for (int py = dirtyMinY; py <= dirtyMaxY; py++) {
+            int row = py * width;
+            for (int px = dirtyMinX; px <= dirtyMaxX; px++) {
+                float cellCoverage = coverage[row + px];
+                if (cellCoverage > 0) {
+                    coverage[row + px] = 0;
+                    blend(row + px, r, g, b, a * Math.min(1, cellCoverage));
+                }
+            }
+        }
+    }
+
+    // Source-over of a straight color with the given alpha
+    private void blend(int index, float r, float g, float b, float a) {
+        int dst = pixels[index];
+        float keep = 1 - a;
+        int outA = (int) (a * 255 + ((dst >>> 24) & 0xFF) * keep + 0.5f);
+        int outR = (int) (r * a * 255 + ((dst >> 16) & 0xFF) * keep + 0.5f);
+        int outG = (int) (g * a * 255 + ((dst >> 8) & 0xFF) * keep + 0.5f);
+        int outB = (int) (b * a * 255 + (dst & 0xFF) * keep + 0.5f);
+        pixels[index] = (outA << 24) | (outR << 16) | (outG << 8) | outB;
+    }
+
+    // Source-over of a premultiplied pixel
+    private void blendPremultiplied(int index, int src) {
+        int srcA = src >>> 24;
+        if (srcA == 0) {
+            return;
+        }
+        if (srcA == 0xFF) {
+            pixels[index] = src;
+            return;
+        }
+        int dst = pixels[index];
+        float keep = (255 - srcA) / 255f;
+        int outA = srcA + (int) (((dst >>> 24) & 0xFF) * keep + 0.5f);
+        int outR = ((src >> 16) & 0xFF) + (int) (((dst >> 16) & 0xFF) * keep + 0.5f);
+        int outG = ((src >> 8) & 0xFF) + (int) (((dst >> 8) & 0xFF) * keep + 0.5f);
+        int outB = (src & 0xFF) + (int) ((dst & 0xFF) * keep + 0.5f);
+        pixels[index] = (Math.min(255, outA) << 24) | (Math.min(255, outR) << 16) | (Math.min(255, outG) << 8)
+                | Math.min(255, outB);
+    }
+
+    private static int bilinear(int p00, int p10, int p01, int p11, float fu, float fv) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            float top = ((p00 >>> shift) & 0xFF) * (1 - fu) + ((p10 >>> shift) & 0xFF) * fu;
+            float bottom = ((p01 >>> shift) & 0xFF) * (1 - fu) + ((p11 >>> shift) & 0xFF) * fu;
+            result |= ((int) (top * (1 - fv) + bottom * fv + 0.5f)) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,670 @@
+package motlohi.demo1;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Write-ahead journal of every change to the board, so a crash loses at most the last few
+// milliseconds of work. The layers' documents report each added or removed item and each
+// clear; the FX thread only queues them, and a background thread encodes the queue and
+// appends it to the journal with one fsync per GROUP_COMMIT_MILLIS, however much was drawn.
+//
+// Every CHECKPOINT_RECORDS changes or CHECKPOINT_MILLIS a checkpoint saves the board to the
+// session's board file, a new journal generation is started, and older journals are deleted.
+// The board file is a BoardStore, so a checkpoint only writes the cells changed since the
+// last one, and it records the generation it covers. On startup the board file is loaded and
+// only the journals from that generation on are replayed, so recovery costs one board load
+// plus at most one checkpoint interval of records. A normal exit leaves a marker file behind,
+// and a start that finds it begins a new session instead of recovering the old one.
+//
+// While the journal is suspended, e.g. while a file is opened, changes are not journaled one
+// by one, but the periodic checkpoint still saves the board, so they are never lost for longer
+// than CHECKPOINT_MILLIS. Failures are reported through problemProperty for the UI to show.
+//
+// A picture is written to each journal file once. Later records of the same picture, such as
+// every step of dragging it across the board, refer back to it and only store where it is.
+public class SessionJournal implements BoardDocument.Listener {
+    private static final long GROUP_COMMIT_MILLIS = 50;
+    private static final long CHECKPOINT_MILLIS = 60_000;
+    private static final int CHECKPOINT_RECORDS = 20_000;
+    private static final int BATCH_ITEMS = 4096;
+    private static final int FLUSH_BYTES = 1 << 20;
+
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+    private static final int CLEAR = 3;
+    private static final int IMAGE_ADD = 4;   // An image item whose picture later records refer to
+    private static final int IMAGE_PLACE = 5; // An image item showing a picture written earlier
+
+    private final Path directory;
+    private final DrawingCanvas drawingCanvas;
+    private final Map<BoardDocument, String> layerNames;
+    private final BoardStore store;
+    private final ConcurrentLinkedQueue<Object> queue; // Records and generation changes, in order
+    private final ScheduledExecutorService writer;
+    private final ReadOnlyStringWrapper problem;
+
+    // Used on the FX thread only
+    private boolean suspended;
+    private boolean recovered; // Until then, and for good if recovery fails, nothing is written
+    private boolean replaying;
+    private boolean missed; // Changes were made while suspended, so only a checkpoint has them
+    private long generation;
+    private int recordsSinceCheckpoint;
+    private boolean checkpointRunning;
+
+    // Used on the writer thread only
+    private FileChannel journal;
+    private final BinaryWriter pendingBytes;
+    private final BinaryWriter payload;
+    private final CRC32 crc;
+    private final Map<Image, Long> journaledImages; // Pictures in the current journal file, by id
+    private long nextImageId;
+    private String failure; // The last write's error, until a write succeeds
+
+    public SessionJournal(Path directory, DrawingCanvas drawingCanvas) {
+        this.directory = directory;
+        this.drawingCanvas = drawingCanvas;
+        this.layerNames = new IdentityHashMap<>();
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.pendingBytes = new BinaryWriter(64 * 1024);
+        this.payload = new BinaryWriter(1024);
+        this.crc = new CRC32();
+        this.journaledImages = new WeakHashMap<>();
+        this.problem = new ReadOnlyStringWrapper(this, "problem");
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "whiteboard-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Nothing is journaled until recovery has put the last session back
+        this.suspended = true;
+
+        for (Layer layer : drawingCanvas.getLayers().getLayers()) {
+            layerNames.put(layer.getDocument(), layer.getName());
+            layer.getDocument().addListener(this);
+        }
+        this.store = new BoardStore(boardFile(), drawingCanvas.getLayers());
+    }
+
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".whiteboard", "session");
+    }
+
+    // Restores the last session in the background, unless it ended normally, and then starts
+    // journaling. New items are held back until the recovered order keys are reserved, which
+    // happens as soon as the files are read; after that the board can be drawn on while the
+    // recovered items come in, and anything drawn before recovery ends goes into a checkpoint.
+    public void start() {
+        drawingCanvas.holdNewItems();
+        writer.execute(new Recovery());
+        writer.scheduleWithFixedDelay(this::drain, GROUP_COMMIT_MILLIS, GROUP_COMMIT_MILLIS, TimeUnit.MILLISECONDS);
+        writer.scheduleWithFixedDelay(() -> Platform.runLater(() -> {
+            if (recordsSinceCheckpoint > 0 || missed) {
+                checkpoint();
+            }
+        }), CHECKPOINT_MILLIS, CHECKPOINT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // What keeps the session from being backed up, or null while it is
+    public ReadOnlyStringProperty problemProperty() {
+        return problem.getReadOnlyProperty();
+    }
+
+    // Stops journaling while the whole board is replaced, e.g. by opening a file
+    public void suspend() {
+        suspended = true;
+    }
+
+    // Journals again, checkpointing first if anything changed while suspended
+    public void resume() {
+        suspended = false;
+        if (missed) {
+            checkpoint();
+        }
+    }
+
+    // Writes whatever is queued and syncs it, then marks the session as ended normally so the
+    // next start does not recover it. Called when the application exits. A session that could
+    // not be recovered is left unmarked, so its files are tried again next time.
+    public void close() {
+        boolean clean = recovered;
+        try {
+            writer.submit(() -> {
+                drain();
+                if (clean && failure == null) {
+                    if (journal != null) {
+                        journal.close();
+                        journal = null;
+                    }
+                    Files.write(cleanExitFile(), new byte[0]);
+                    syncDirectory();
+                }
+                return null;
+            }).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            System.err.println("Failed to flush the journal: " + e);
+        }
+        writer.shutdownNow();
+    }
+
+    @Override
+    public void itemAdded(BoardDocument document, long orderKey, BoardItem item) {
+        record(new Record(ADD, layerNames.get(document), orderKey, item));
+    }
+
+    @Override
+    public void itemRemoved(BoardDocument document, long orderKey, BoardItem item) {
+        record(new Record(REMOVE, layerNames.get(document), orderKey, null));
+    }
+
+    @Override
+    public void cleared(BoardDocument document) {
+        record(new Record(CLEAR, layerNames.get(document), 0, null));
+    }
+
+    private void record(Record record) {
+        if (replaying) {
+            return;
+        }
+        if (suspended || !recovered) {
+            missed = true;
+            return;
+        }
+        queue.add(record);
+        if (++recordsSinceCheckpoint >= CHECKPOINT_RECORDS) {
+            checkpoint();
+        }
+    }
+
+    // Copies the changed cells here, on the FX thread, and saves them in the background. Changes
+    // after this point go to the next journal generation, which replays on top of it.
+    private void checkpoint() {
+        if (checkpointRunning || !recovered) {
+            return;
+        }
+        checkpointRunning = true;
+        recordsSinceCheckpoint = 0;
+        missed = false;
+        long next = ++generation;
+        queue.add(next);
+        Task<File> save = store.save(next);
+        writer.execute(() -> {
+            try {
+                drain();
+                save.run();
+                save.get();
+                syncDirectory();
+                deleteBefore(next);
+                reportSuccess();
+            } catch (Exception e) {
+                reportFailure("Failed to write a checkpoint", e);
+                // Whatever only this checkpoint had is tried again by the next one
+                Platform.runLater(() -> missed = true);
+            } finally {
+                Platform.runLater(() -> checkpointRunning = false);
+            }
+        });
+    }
+
+    // Appends every queued record and syncs once for all of them. Runs on a fixed delay, where
+    // an escaping exception would cancel it, so nothing is let out.
+    private void drain() {
+        try {
+            boolean wrote = false;
+            Object next;
+            while ((next = queue.poll()) != null) {
+                if (next instanceof Long) {
+                    flushPending();
+                    if (journal != null) {
+                        journal.force(false);
+                        journal.close();
+                    }
+                    journal = openJournal((Long) next);
+                    journaledImages.clear();
+                    nextImageId = 0;
+                    continue;
+                }
+                encode((Record) next);
+                wrote = true;
+                if (pendingBytes.size() >= FLUSH_BYTES) {
+                    flushPending();
+                }
+            }
+            flushPending();
+            if (wrote && journal != null) {
+                journal.force(false);
+                reportSuccess();
+            }
+        } catch (IOException | RuntimeException e) {
+            reportFailure("Failed to write the journal", e);
+        }
+    }
+
+    // Called on the writer thread; the UI only hears about changes
+    private void reportFailure(String what, Exception e) {
+        System.err.println(what + ": " + e);
+        String message = what + ": " + e.getMessage();
+        if (!message.equals(failure)) {
+            failure = message;
+            Platform.runLater(() -> problem.set(message));
+        }
+    }
+
+    private void reportSuccess() {
+        if (failure != null) {
+            failure = null;
+            Platform.runLater(() -> problem.set(null));
+        }
+    }
+
+    // Each record is framed by its length and CRC, so a torn write at the end is detected
+    private void encode(Record record) {
+        payload.reset();
+        Long imageId = null;
+        boolean placed = false;
+        if (record.type == ADD && record.item instanceof ImageItem) {
+            Image image = ((ImageItem) record.item).getImage();
+            imageId = journaledImages.get(image);
+            placed = imageId != null;
+            if (!placed) {
+                imageId = nextImageId++;
+                journaledImages.put(image, imageId);
+            }
+        }
+        payload.writeByte(imageId == null ? record.type : placed ? IMAGE_PLACE : IMAGE_ADD);
+        payload.writeString(record.layer);
+        payload.writeSignedVarLong(record.orderKey);
+        if (imageId != null) {
+            payload.writeVarLong(imageId);
+        }
+        if (placed) {
+            BoardCodec.writePlacement(payload, (ImageItem) record.item);
+        } else if (record.item != null) {
+            BoardCodec.writeItem(payload, record.item);
+        }
+        byte[] bytes = payload.toByteArray();
+        crc.reset();
+        crc.update(bytes);
+        pendingBytes.writeInt(bytes.length);
+        pendingBytes.writeInt((int) crc.getValue());
+        pendingBytes.writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void flushPending() throws IOException {
+        if (pendingBytes.size() == 0 || journal == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(pendingBytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        pendingBytes.reset();
+    }
+
+    private FileChannel openJournal(long generation) throws IOException {
+        FileChannel channel = FileChannel.open(journalFile(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private Path boardFile() {
+        return directory.resolve("board.wbd");
+    }
+
+    private Path cleanExitFile() {
+        return directory.resolve("clean-exit");
+    }
+
+    private Path journalFile(long generation) {
+        return directory.resolve("journal-" + generation + ".log");
+    }
+
+    // Generation numbers of the files with a prefix, ascending
+    private List<Long> listGenerations(String prefix, String suffix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours, such as a checkpoint's temporary file
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private void deleteBefore(long generation) throws IOException {
+        for (long old : listGenerations("journal-", ".log")) {
+            if (old < generation) {
+                Files.deleteIfExists(journalFile(old));
+            }
+        }
+    }
+
+    // Makes a rewritten board file's rename durable before the journals it replaces are deleted
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not possible on every platform; the rename is still atomic there
+        }
+    }
+
+    // Reads a journal into the recovered layers and cuts off a torn record at its end.
+    // Returns the number of records replayed. The file is read rather than mapped, as a mapped
+    // file cannot be truncated on every platform and must not be read once it has been.
+    private int replay(Path file, Map<String, TreeMap<Long, BoardItem>> layers, Changes changes) throws IOException {
+        int records = 0;
+        Map<Long, Image> images = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Journal " + file.getFileName() + " is too large to replay");
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining()) {
+                if (channel.read(data, data.position()) < 0) {
+                    break;
+                }
+            }
+            data.flip();
+            long valid = 0;
+            CRC32 check = new CRC32();
+            while (data.remaining() >= 8) {
+                int length = data.getInt();
+                int expected = data.getInt();
+                if (length < 0 || length > data.remaining()) {
+                    break;
+                }
+                ByteBuffer record = data.slice();
+                record.limit(length);
+                check.reset();
+                check.update(record.duplicate());
+                if ((int) check.getValue() != expected) {
+                    break;
+                }
+                apply(record, layers, changes, images);
+                data.position(data.position() + length);
+                valid = data.position();
+                records++;
+            }
+            if (valid < size) {
+                System.err.println("Dropping a torn record at the end of " + file.getFileName());
+                channel.truncate(valid);
+            }
+        }
+        // Records appended to this file after recovery number their pictures after these
+        nextImageId = images.isEmpty() ? 0 : Collections.max(images.keySet()) + 1;
+        return records;
+    }
+
+    private static void apply(ByteBuffer record, Map<String, TreeMap<Long, BoardItem>> layers, Changes changes,
+                              Map<Long, Image> images) {
+        int type = record.get();
+        String layer = BoardCodec.readString(record);
+        TreeMap<Long, BoardItem> items = layers.computeIfAbsent(layer, name -> new TreeMap<>());
+        long orderKey = BoardCodec.readSignedVarLong(record);
+        switch (type) {
+            case ADD:
+                BoardItem item = BoardCodec.readItem(record);
+                items.put(orderKey, item);
+                changes.touched(layer, item);
+                break;
+            case IMAGE_ADD: {
+                long imageId = BoardCodec.readVarLong(record);
+                ImageItem image = (ImageItem) BoardCodec.readItem(record);
+                images.put(imageId, image.getImage());
+                items.put(orderKey, image);
+                changes.touched(layer, image);
+                break;
+            }
+            case IMAGE_PLACE: {
+                long imageId = BoardCodec.readVarLong(record);
+                if (!images.containsKey(imageId)) {
+                    throw new IllegalArgumentException("Journal record refers to unknown image " + imageId);
+                }
+                ImageItem image = BoardCodec.readPlacement(record, images.get(imageId));
+                items.put(orderKey, image);
+                changes.touched(layer, image);
+                break;
+            }
+            case REMOVE:
+                BoardItem removed = items.remove(orderKey);
+                if (removed != null) {
+                    changes.touched(layer, removed);
+                }
+                break;
+            case CLEAR:
+                items.clear();
+                changes.cleared(layer);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown journal record type " + type);
+        }
+    }
+
+    // Items the replayed journals changed, which the board file does not have yet
+    private static class Changes {
+        private final Map<String, List<BoardItem>> touched = new LinkedHashMap<>();
+        private final Set<String> cleared = new HashSet<>();
+
+        private void touched(String layer, BoardItem item) {
+            touched.computeIfAbsent(layer, name -> new ArrayList<>()).add(item);
+        }
+
+        private void cleared(String layer) {
+            cleared.add(layer);
+            touched.remove(layer);
+        }
+    }
+
+    // Loads the board file and replays the journals after it on the writer thread, then hands
+    // the items to the FX thread a batch at a time
+    private class Recovery extends Task<Void> {
+        @Override
+        protected Void call() throws IOException {
+            Files.createDirectories(directory);
+            if (Files.deleteIfExists(cleanExitFile())) {
+                // The last session ended normally, so there is nothing to recover
+                Files.deleteIfExists(boardFile());
+                deleteBefore(Long.MAX_VALUE);
+                syncDirectory();
+                journal = openJournal(0);
+                Platform.runLater(() -> {
+                    drawingCanvas.releaseNewItems();
+                    recovered = true;
+                    resume();
+                });
+                return null;
+            }
+            long base = 0;
+
+            Map<String, TreeMap<Long, BoardItem>> layers = new LinkedHashMap<>();
+            List<BoardFileReader.LayerInfo> layerInfos = List.of();
+            BoardFileReader board = null;
+            if (Files.exists(boardFile())) {
+                try (BoardFileReader reader = new BoardFileReader(boardFile())) {
+                    board = reader;
+                    base = reader.getSequence();
+                    layerInfos = reader.getLayers();
+                    for (BoardFileReader.LayerInfo info : layerInfos) {
+                        layers.put(info.getName(), new TreeMap<>());
+                    }
+                    List<BoardFileReader.LayerInfo> infos = layerInfos;
+                    for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+                        reader.readChunk(chunk, (layerIndex, orderKey, item) ->
+                                layers.get(infos.get(layerIndex).getName()).put(orderKey, item));
+                    }
+                }
+            }
+
+            int records = 0;
+            long last = base;
+            Changes changes = new Changes();
+            for (long journalGeneration : listGenerations("journal-", ".log")) {
+                if (journalGeneration >= base) {
+                    records += replay(journalFile(journalGeneration), layers, changes);
+                    last = journalGeneration;
+                }
+            }
+            journal = openJournal(last);
+            long current = last;
+            publish(board, layerInfos, layers, changes, current, records > 0);
+            return null;
+        }
+
+        private void publish(BoardFileReader board, List<BoardFileReader.LayerInfo> layerInfos,
+                             Map<String, TreeMap<Long, BoardItem>> layers, Changes changes, long current, boolean compact) {
+            LayerStack stack = drawingCanvas.getLayers();
+            Platform.runLater(() -> {
+                if (board != null) {
+                    store.load(board);
+                }
+                int position = 0;
+                for (BoardFileReader.LayerInfo info : layerInfos) {
+                    for (Layer layer : stack.getLayers()) {
+                        if (layer.getName().equals(info.getName())) {
+                            stack.moveTo(layer, position++);
+                            layer.setVisible(info.isVisible());
+                            layer.setLocked(info.isLocked());
+                        }
+                    }
+                }
+                for (Map.Entry<String, TreeMap<Long, BoardItem>> entry : layers.entrySet()) {
+                    if (!entry.getValue().isEmpty()) {
+                        for (Layer layer : stack.getLayers()) {
+                            if (layer.getName().equals(entry.getKey())) {
+                                layer.getDocument().reserveOrderKeys(entry.getValue().lastKey());
+                            }
+                        }
+                    }
+                }
+                drawingCanvas.layersChanged();
+                drawingCanvas.getView().recomposite();
+                // Every recovered key is reserved, so what was drawn meanwhile goes above it all
+                drawingCanvas.releaseNewItems();
+            });
+
+            for (Map.Entry<String, TreeMap<Long, BoardItem>> entry : layers.entrySet()) {
+                List<Map.Entry<Long, BoardItem>> batch = new ArrayList<>(BATCH_ITEMS);
+                for (Map.Entry<Long, BoardItem> item : entry.getValue().entrySet()) {
+                    batch.add(item);
+                    if (batch.size() == BATCH_ITEMS) {
+                        publishBatch(entry.getKey(), batch);
+                        batch = new ArrayList<>(BATCH_ITEMS);
+                    }
+                }
+                publishBatch(entry.getKey(), batch);
+            }
+
+            Platform.runLater(() -> {
+                for (String layer : changes.cleared) {
+                    store.markLayerDirty(layer);
+                }
+                for (Map.Entry<String, List<BoardItem>> entry : changes.touched.entrySet()) {
+                    for (BoardItem item : entry.getValue()) {
+                        store.markDirty(entry.getKey(), item);
+                    }
+                }
+                generation = current;
+                recovered = true;
+                // A replayed journal is folded into a fresh checkpoint so the next start is quick
+                missed |= compact;
+                resume();
+            });
+        }
+
+        private void publishBatch(String layerName, List<Map.Entry<Long, BoardItem>> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            Platform.runLater(() -> {
+                LayerStack stack = drawingCanvas.getLayers();
+                Layer layer = null;
+                for (Layer candidate : stack.getLayers()) {
+                    if (candidate.getName().equals(layerName)) {
+                        layer = candidate;
+                    }
+                }
+                replaying = true;
+                for (Map.Entry<Long, BoardItem> entry : batch) {
+                    if (layer == null) {
+                        // A layer this version does not have; the item is kept on the layer for its kind
+                        stack.getLayerFor(entry.getValue()).getDocument().add(entry.getValue());
+                        missed = true;
+                    } else if (!layer.getDocument().hasOrderKey(entry.getKey())) {
+                        // Already in the board file, or marked for it once the journals' changes are known
+                        store.setIgnoring(true);
+                        layer.getDocument().add(entry.getValue(), entry.getKey());
+                        store.setIgnoring(false);
+                    } else {
+                        // The key was taken meanwhile, such as by a board opened during recovery.
+                        // The item keeps its layer and goes just above that key, and the next
+                        // checkpoint saves it there since the journal does not record the move.
+                        BoardDocument document = layer.getDocument();
+                        document.add(entry.getValue(), document.orderKeyAfter(entry.getKey()));
+                        missed = true;
+                    }
+                }
+                replaying = false;
+                drawingCanvas.getView().refresh();
+            });
+        }
+
+        // Journaling stays off, so the files that failed to load are not overwritten by checkpoints
+        @Override
+        protected void failed() {
+            System.err.println("Failed to recover the last session: " + getException());
+            drawingCanvas.releaseNewItems();
+            problem.set("Session backup is off, the last session could not be recovered: "
+                    + getException().getMessage());
+        }
+    }
+
+    private static class Record {
+        private final int type;
+        private final String layer;
+        private final long orderKey;
+        private final BoardItem item;
+
+        private Record(int type, String layer, long orderKey, BoardItem item) {
+            this.type = type;
+            this.layer = layer;
+            this.orderKey = orderKey;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+// Freehand or straight ink. Points are kept in a flat float array to keep large boards small.
+// A stroke is either a polyline of samples or, once fitted, a chain of cubic Bézier segments.
+public class Stroke implements BoardItem {
+    // How far, in board units, flattened chords may stray from the cubic segments
+    private static final double FLATTEN_TOLERANCE = 0.1;
+    private static final double RASTER_TOLERANCE_PIXELS = 0.2;
+    private static final int MAX_FLATTEN_STEPS = 64;
+    // Tolerances of the precomputed levels of detail, each four times coarser than the last
+    private static final double[] LOD_TOLERANCES = {0.4, 1.6, 6.4, 25.6, 102.4};
+
+    private final Color color;
+    private final float width;
+    private final boolean cubic;
+    private final float[] points; // x0, y0, x1, y1, ... or x0, y0 then c1, c2, end per segment
+    private final float minX, minY, maxX, maxY;
+    private volatile float[][] levels; // Simplified polylines for LOD_TOLERANCES, built on first use
+
+    public Stroke(Color color, double width, float[] points) {
+        this(color, width, points, false);
+    }
+
+    public Stroke(Color color, double width, float[] points, boolean cubic) {
+        this.color = color;
+        this.width = (float) width;
+        this.points = points;
+        this.cubic = cubic;
+
+        // For cubics this is the control polygon's box, which always contains the curve
+
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE;
+        float x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+        for (int i = 0; i < points.length; i += 2) {
+            x0 = Math.min(x0, points[i]);
+            x1 = Math.max(x1, points[i]);
+            y0 = Math.min(y0, points[i + 1]);
+            y1 = Math.max(y1, points[i + 1]);
+        }
+        this.minX = x0;
+        this.minY = y0;
+        this.maxX = x1;
+        this.maxY = y1;
+    }
+
+    @Override
+    public void render(GraphicsContext gc) {
+        if (points.length < 4) {
+            return;
+        }
+
+        gc.setStroke(color);
+        gc.setLineWidth(width);
+        gc.beginPath();
+        gc.moveTo(points[0], points[1]);
+
+        if (cubic) {
+            for (int i = 2; i + 5 < points.length; i += 6) {
+                gc.bezierCurveTo(points[i], points[i + 1], points[i + 2], points[i + 3],
+                        points[i + 4], points[i + 5]);
+            }
+            gc.stroke();
+            return;
+        }
+
+        // Same midpoint quadratic scheme used while drawing
+        double prevX = points[0];
+        double prevY = points[1];
+        for (int i = 2; i < points.length; i += 2) {
+            double x = points[i];
+            double y = points[i + 1];
+            gc.quadraticCurveTo((x + prevX) / 2, (y + prevY) / 2, x, y);
+            prevX = x;
+            prevY = y;
+        }
+        gc.stroke();
+    }
+
+    @Override
+    public void rasterize(Raster raster) {
+        raster.strokePolyline(getPolyline(RASTER_TOLERANCE_PIXELS / raster.getScale()), width, color);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        if (points.length == 0) {
+            return Rectangle2D.EMPTY;
+        }
+
+        // Round caps reach half the line width past the points, plus a pixel of antialiasing
+        double pad = width / 2 + 1;
+        return new Rectangle2D(minX - pad, minY - pad, maxX - minX + 2 * pad, maxY - minY + 2 * pad);
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public boolean isCubic() {
+        return cubic;
+    }
+
+    public int getPointCount() {
+        return points.length / 2;
+    }
+
+    public float[] getPoints() {
+        return points;
+    }
+
+    // The coarsest polyline that stays within a tolerance, in board units. Zoomed out this is
+    // one of the precomputed levels of detail; zoomed in the curve is flattened finely enough.
+    public float[] getPolyline(double tolerance) {
+        if (tolerance < LOD_TOLERANCES[0]) {
+            return toPolyline(Math.max(tolerance, 0.01));
+        }
+        float[][] lods = getLevels();
+        int level = 0;
+        while (level + 1 < lods.length && LOD_TOLERANCES[level + 1] <= tolerance) {
+            level++;
+        }
+        return lods[level];
+    }
+
+    private float[][] getLevels() {
+        float[][] lods = levels;
+        if (lods == null) {
+            lods = new float[LOD_TOLERANCES.length][];
+            float[] previous = toPolyline(FLATTEN_TOLERANCE);
+            for (int i = 0; i < lods.length; i++) {
+                // Each level simplifies the one before, so a level costs less than the last
+                float[] simplified = StrokeSimplifier.douglasPeucker(previous, LOD_TOLERANCES[i]);
+                previous = simplified.length == previous.length ? previous : simplified;
+                lods[i] = previous;
+            }
+            levels = lods;
+        }
+        return lods;
+    }
+
+    // The stroke as a plain polyline; cubic segments are flattened into chords
+    public float[] toPolyline() {
+        return toPolyline(FLATTEN_TOLERANCE);
+    }
+
+    public float[] toPolyline(double tolerance) {
+        if (!cubic) {
+            return points;
+        }
+
+        StrokeBuffer polyline = new StrokeBuffer(points.length);
+        polyline.append(points[0], points[1]);
+        for (int i = 2; i + 5 < points.length; i += 6) {
+            double x0 = points[i - 2], y0 = points[i - 1];
+            double c1x = points[i], c1y = points[i + 1];
+            double c2x = points[i + 2], c2y = points[i + 3];
+            double x1 = points[i + 4], y1 = points[i + 5];
+
+            // Wang's bound: enough chords that none strays further than the tolerance
+            double bend = Math.max(Math.hypot(x0 - 2 * c1x + c2x, y0 - 2 * c1y + c2y),
+                    Math.hypot(c1x - 2 * c2x + x1, c1y - 2 * c2y + y1));
+            int steps = (int) Math.max(1, Math.min(MAX_FLATTEN_STEPS, Math.ceil(Math.sqrt(0.75 * bend / tolerance))));
+            for (int k = 1; k <= steps; k++) {
+                double t = (double) k / steps;
+                double u = 1 - t;
+                double a = u * u * u, b = 3 * u * u * t, c = 3 * u * t * t, d = t * t * t;
+                polyline.append(a * x0 + b * c1x + c * c2x + d * x1, a * y0 + b * c1y + c * c2y + d * y1);
+            }
+        }
+        return polyline.toArray();
+    }
+}
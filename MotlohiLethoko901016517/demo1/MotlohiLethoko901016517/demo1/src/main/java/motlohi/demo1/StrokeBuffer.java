@@ -0,0 +1,44 @@
+package motlohi.demo1;
+
+import java.util.Arrays;
+
+// Reusable, growable store for the samples of the stroke being drawn. Appending only
+// allocates when the backing array has to grow, which stops happening after the first
+// few strokes of a session.
+public class StrokeBuffer {
+    private float[] data;
+    private int size; // Number of floats in use, two per point
+
+    public StrokeBuffer(int initialPoints) {
+        this.data = new float[Math.max(2, initialPoints * 2)];
+    }
+
+    public void append(double x, double y) {
+        if (size + 2 > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size++] = (float) x;
+        data[size++] = (float) y;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int getPointCount() {
+        return size / 2;
+    }
+
+    public float getX(int point) {
+        return data[point * 2];
+    }
+
+    public float getY(int point) {
+        return data[point * 2 + 1];
+    }
+
+    // Copies the samples out for storing in a Stroke
+    public float[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
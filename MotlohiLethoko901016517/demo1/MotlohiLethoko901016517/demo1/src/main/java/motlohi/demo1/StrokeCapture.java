@@ -0,0 +1,80 @@
+package motlohi.demo1;
+
+import java.util.function.DoubleUnaryOperator;
+
+// The freehand part of a drag gesture. Drag events arrive in screen coordinates and go into
+// the stroke buffer in board coordinates; each pulse walks the samples that arrived since the
+// last one as a path of quadratic curves. DrawingCanvas's drag handler and pulse go through
+// here, and neither allocates once the buffer has grown to the longest stroke.
+public class StrokeCapture {
+    // Receives the samples walked in one go
+    public interface PathSink {
+        void moveTo(double x, double y);
+
+        void quadraticCurveTo(double controlX, double controlY, double x, double y);
+    }
+
+    private final StrokeBuffer buffer;
+    private final DoubleUnaryOperator toBoardX;
+    private final DoubleUnaryOperator toBoardY;
+    private int renderedPoint; // Last sample already walked
+
+    public StrokeCapture(StrokeBuffer buffer, DoubleUnaryOperator toBoardX, DoubleUnaryOperator toBoardY) {
+        this.buffer = buffer;
+        this.toBoardX = toBoardX;
+        this.toBoardY = toBoardY;
+    }
+
+    // Starts a stroke at a board point
+    public void begin(double boardX, double boardY) {
+        buffer.clear();
+        buffer.append(boardX, boardY);
+        renderedPoint = 0;
+    }
+
+    // One drag event
+    public void dragTo(double screenX, double screenY) {
+        buffer.append(toBoardX.applyAsDouble(screenX), toBoardY.applyAsDouble(screenY));
+    }
+
+    public boolean hasPending() {
+        return buffer.getPointCount() - 1 > renderedPoint;
+    }
+
+    // Walks the samples since the last call, starting from the last one walked then
+    public void walkPending(PathSink path) {
+        int last = buffer.getPointCount() - 1;
+        if (last <= renderedPoint) {
+            return;
+        }
+        walk(renderedPoint, last, path);
+        renderedPoint = last;
+    }
+
+    // Walks every sample walked so far again, e.g. after the view painted tiles over them
+    public boolean walkRendered(PathSink path) {
+        if (renderedPoint == 0) {
+            return false;
+        }
+        walk(0, renderedPoint, path);
+        return true;
+    }
+
+    public StrokeBuffer getBuffer() {
+        return buffer;
+    }
+
+    // Control point is the midpoint between the previous and the current sample
+    private void walk(int first, int last, PathSink path) {
+        double prevX = buffer.getX(first);
+        double prevY = buffer.getY(first);
+        path.moveTo(prevX, prevY);
+        for (int i = first + 1; i <= last; i++) {
+            double x = buffer.getX(i);
+            double y = buffer.getY(i);
+            path.quadraticCurveTo((x + prevX) / 2, (y + prevY) / 2, x, y);
+            prevX = x;
+            prevY = y;
+        }
+    }
+}
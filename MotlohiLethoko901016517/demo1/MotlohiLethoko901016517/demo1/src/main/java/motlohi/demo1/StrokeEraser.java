@@ -0,0 +1,163 @@
+package motlohi.demo1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Geometry for the object eraser. The eraser sweeps a capsule (a segment with a radius)
+// between two pointer samples; strokes are cut where their centerline enters the capsule,
+// widened by half the stroke width so the remaining round caps end at the eraser's edge.
+public final class StrokeEraser {
+    private static final int BISECT_ITERATIONS = 8;
+
+    private StrokeEraser() {
+    }
+
+    // Whether any part of the stroke is under the eraser
+    public static boolean hits(Stroke stroke, double x0, double y0, double x1, double y1, double radius) {
+        float[] line = stroke.toPolyline();
+        double reach = radius + stroke.getWidth() / 2;
+        double reachSq = reach * reach;
+        if (line.length == 2) {
+            return distanceSq(line[0], line[1], x0, y0, x1, y1) < reachSq;
+        }
+        for (int i = 0; i + 3 < line.length; i += 2) {
+            if (segmentsDistanceSq(line[i], line[i + 1], line[i + 2], line[i + 3], x0, y0, x1, y1) < reachSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Cuts the erased parts out of a stroke. Returns null when the eraser misses the stroke,
+    // otherwise the pieces that are left (an empty list when nothing is). pixelSize is the
+    // board distance one screen pixel covers, for simplifying the pieces.
+    public static List<Stroke> split(Stroke stroke, double x0, double y0, double x1, double y1, double radius,
+                                     double pixelSize) {
+        if (!hits(stroke, x0, y0, x1, y1, radius)) {
+            return null;
+        }
+
+        float[] line = stroke.toPolyline();
+        double reach = radius + stroke.getWidth() / 2;
+        double reachSq = reach * reach;
+        double step = Math.max(reach / 2, 0.25);
+
+        List<float[]> pieces = new ArrayList<>();
+        StrokeBuffer current = new StrokeBuffer(line.length / 2);
+        double prevX = line[0], prevY = line[1];
+        boolean prevInside = distanceSq(prevX, prevY, x0, y0, x1, y1) < reachSq;
+        boolean cut = prevInside;
+        if (!prevInside) {
+            current.append(prevX, prevY);
+        }
+
+        for (int i = 2; i + 1 < line.length; i += 2) {
+            double ax = line[i - 2], ay = line[i - 1];
+            double bx = line[i], by = line[i + 1];
+            int steps = (int) Math.max(1, Math.ceil(Math.hypot(bx - ax, by - ay) / step));
+
+            // Sample the chord densely enough that no crossing of the capsule is skipped,
+            // but only keep the original vertices and the exact cut points
+            for (int k = 1; k <= steps; k++) {
+                double t = (double) k / steps;
+                double x = ax + (bx - ax) * t;
+                double y = ay + (by - ay) * t;
+                boolean inside = distanceSq(x, y, x0, y0, x1, y1) < reachSq;
+
+                if (inside != prevInside) {
+                    cut = true;
+                    double[] edge = findEdge(prevX, prevY, x, y, prevInside, x0, y0, x1, y1, reachSq);
+                    if (inside) {
+                        current.append(edge[0], edge[1]);
+                        addPiece(pieces, current, pixelSize);
+                        current.clear();
+                    } else {
+                        current.append(edge[0], edge[1]);
+                    }
+                }
+                if (!inside && k == steps) {
+                    current.append(x, y);
+                }
+                prevX = x;
+                prevY = y;
+                prevInside = inside;
+            }
+        }
+        if (!cut) {
+            return null;
+        }
+        addPiece(pieces, current, pixelSize);
+
+        List<Stroke> result = new ArrayList<>(pieces.size());
+        for (float[] piece : pieces) {
+            result.add(StrokeSimplifier.buildStroke(stroke.getColor(), stroke.getWidth(), piece, pixelSize));
+        }
+        return result;
+    }
+
+    private static void addPiece(List<float[]> pieces, StrokeBuffer piece, double pixelSize) {
+        if (piece.getPointCount() < 2) {
+            return;
+        }
+        float[] points = piece.toArray();
+        double length = 0;
+        for (int i = 2; i + 1 < points.length; i += 2) {
+            length += Math.hypot(points[i] - points[i - 2], points[i + 1] - points[i - 1]);
+        }
+        // Slivers shorter than a pixel would only show as a dot
+        if (length >= pixelSize) {
+            pieces.add(points);
+        }
+    }
+
+    // Bisects between a point inside and one outside the capsule to find its edge
+    private static double[] findEdge(double ax, double ay, double bx, double by, boolean aInside,
+                                     double x0, double y0, double x1, double y1, double reachSq) {
+        double lo = 0, hi = 1;
+        for (int i = 0; i < BISECT_ITERATIONS; i++) {
+            double mid = (lo + hi) / 2;
+            boolean inside = distanceSq(ax + (bx - ax) * mid, ay + (by - ay) * mid, x0, y0, x1, y1) < reachSq;
+            if (inside == aInside) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        // Take the sample on the outside so the cut never reaches under the eraser
+        double t = aInside ? hi : lo;
+        return new double[]{ax + (bx - ax) * t, ay + (by - ay) * t};
+    }
+
+    // Squared distance from a point to the segment (x0, y0)-(x1, y1)
+    private static double distanceSq(double px, double py, double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((px - x0) * dx + (py - y0) * dy) / lengthSq));
+        double ex = px - (x0 + t * dx);
+        double ey = py - (y0 + t * dy);
+        return ex * ex + ey * ey;
+    }
+
+    private static double segmentsDistanceSq(double ax, double ay, double bx, double by,
+                                             double x0, double y0, double x1, double y1) {
+        if (segmentsCross(ax, ay, bx, by, x0, y0, x1, y1)) {
+            return 0;
+        }
+        return Math.min(Math.min(distanceSq(ax, ay, x0, y0, x1, y1), distanceSq(bx, by, x0, y0, x1, y1)),
+                Math.min(distanceSq(x0, y0, ax, ay, bx, by), distanceSq(x1, y1, ax, ay, bx, by)));
+    }
+
+    private static boolean segmentsCross(double ax, double ay, double bx, double by,
+                                         double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+        return ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0));
+    }
+
+    private static double cross(double ax, double ay, double bx, double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+}
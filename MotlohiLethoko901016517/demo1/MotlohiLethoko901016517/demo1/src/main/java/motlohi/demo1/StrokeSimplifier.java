@@ -0,0 +1,401 @@
+package motlohi.demo1;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+// Post-processing for finished freehand strokes: Ramer-Douglas-Peucker thinning of the raw
+// samples followed by least-squares fitting of cubic Bézier segments (Schneider's algorithm).
+public final class StrokeSimplifier {
+    public static final double SIMPLIFY_TOLERANCE = 0.5; // Screen pixels
+    public static final double FIT_TOLERANCE = 1.0; // Screen pixels
+    private static final int MAX_NEWTON_ITERATIONS = 4;
+    private static final double PATH_CHECK_STEP = 0.25; // Spacing of checked curve points, in tolerances
+
+    private StrokeSimplifier() {
+    }
+
+    // Builds the stroke to store for a set of raw samples: fitted cubics when the stroke
+    // has enough shape to fit, otherwise the thinned polyline. pixelSize is the board distance
+    // one screen pixel covers at the zoom the stroke was drawn at, so the tolerances hold on screen.
+    public static Stroke buildStroke(Color color, double width, float[] samples, double pixelSize) {
+        float[] thinned = douglasPeucker(samples, SIMPLIFY_TOLERANCE * pixelSize);
+        if (thinned.length < 6) {
+            return new Stroke(color, width, thinned);
+        }
+        return new Stroke(color, width, fitCubics(thinned, FIT_TOLERANCE * pixelSize), true);
+    }
+
+    public static float[] douglasPeucker(float[] points, double tolerance) {
+        int count = points.length / 2;
+        if (count < 3) {
+            return points.clone();
+        }
+
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        double toleranceSq = tolerance * tolerance;
+
+        // Explicit stack instead of recursion so long strokes cannot overflow
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[]{0, count - 1});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int first = range[0];
+            int last = range[1];
+
+            double maxDistSq = 0;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distSq = segmentDistanceSq(points, i, first, last);
+                if (distSq > maxDistSq) {
+                    maxDistSq = distSq;
+                    index = i;
+                }
+            }
+
+            if (index >= 0 && maxDistSq > toleranceSq) {
+                keep[index] = true;
+                ranges.push(new int[]{first, index});
+                ranges.push(new int[]{index, last});
+            }
+        }
+
+        float[] result = new float[points.length];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                result[size++] = points[i * 2];
+                result[size++] = points[i * 2 + 1];
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    // Output layout: x0, y0, then c1x, c1y, c2x, c2y, x, y for each cubic segment
+    public static float[] fitCubics(float[] points, double tolerance) {
+        int count = points.length / 2;
+        double[] d = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            d[i] = points[i];
+        }
+
+        CurveWriter out = new CurveWriter(points.length);
+        out.add(d[0], d[1]);
+
+        double[] leftTangent = normalize(d[2] - d[0], d[3] - d[1]);
+        double[] rightTangent = normalize(d[(count - 2) * 2] - d[(count - 1) * 2],
+                d[(count - 2) * 2 + 1] - d[(count - 1) * 2 + 1]);
+        fitCubic(d, 0, count - 1, leftTangent, rightTangent, tolerance, out);
+        return out.toArray();
+    }
+
+    private static void fitCubic(double[] d, int first, int last, double[] tHat1, double[] tHat2,
+                                 double tolerance, CurveWriter out) {
+        double errorSq = tolerance * tolerance;
+        int nPts = last - first + 1;
+        if (nPts == 2) {
+            double dist = distance(d, first, last) / 3;
+            double[] bezier = {
+                    d[first * 2], d[first * 2 + 1],
+                    d[first * 2] + tHat1[0] * dist, d[first * 2 + 1] + tHat1[1] * dist,
+                    d[last * 2] + tHat2[0] * dist, d[last * 2 + 1] + tHat2[1] * dist,
+                    d[last * 2], d[last * 2 + 1]
+            };
+            // Handles along tangents that turn away from a long chord bulge off it; the chord
+            // itself, as a straight cubic, cannot
+            if (!followsPath(d, first, last, bezier, tolerance)) {
+                bezier[2] = d[first * 2] + (d[last * 2] - d[first * 2]) / 3;
+                bezier[3] = d[first * 2 + 1] + (d[last * 2 + 1] - d[first * 2 + 1]) / 3;
+                bezier[4] = d[last * 2] - (d[last * 2] - d[first * 2]) / 3;
+                bezier[5] = d[last * 2 + 1] - (d[last * 2 + 1] - d[first * 2 + 1]) / 3;
+            }
+            out.addSegment(bezier);
+            return;
+        }
+
+        double[] u = chordLengthParameterize(d, first, last);
+        double[] bezier = generateBezier(d, first, last, u, tHat1, tHat2);
+        int[] split = new int[1];
+        double maxError = computeMaxError(d, first, last, bezier, u, split);
+        if (maxError < errorSq && followsPath(d, first, last, bezier, tolerance)) {
+            out.addSegment(bezier);
+            return;
+        }
+
+        // Close enough that reparameterizing may bring it within tolerance
+        if (maxError < errorSq * 4) {
+            for (int i = 0; i < MAX_NEWTON_ITERATIONS; i++) {
+                u = reparameterize(d, first, last, u, bezier);
+                bezier = generateBezier(d, first, last, u, tHat1, tHat2);
+                maxError = computeMaxError(d, first, last, bezier, u, split);
+                if (maxError < errorSq && followsPath(d, first, last, bezier, tolerance)) {
+                    out.addSegment(bezier);
+                    return;
+                }
+            }
+        }
+
+        int splitPoint = split[0];
+        double[] tHatCenter = normalize(d[(splitPoint - 1) * 2] - d[(splitPoint + 1) * 2],
+                d[(splitPoint - 1) * 2 + 1] - d[(splitPoint + 1) * 2 + 1]);
+        fitCubic(d, first, splitPoint, tHat1, tHatCenter, tolerance, out);
+        fitCubic(d, splitPoint, last, new double[]{-tHatCenter[0], -tHatCenter[1]}, tHat2, tolerance, out);
+    }
+
+    // Whether the whole curve, not just its points at the sample parameters, stays within the
+    // tolerance of the samples' path. The curve moves at most three times its longest control
+    // edge per unit of t, so the points checked are at most a quarter of the tolerance apart
+    // along it, and checking them against 7/8 of it bounds everything between.
+    private static boolean followsPath(double[] d, int first, int last, double[] bezier, double tolerance) {
+        double edge = Math.max(Math.hypot(bezier[2] - bezier[0], bezier[3] - bezier[1]),
+                Math.max(Math.hypot(bezier[4] - bezier[2], bezier[5] - bezier[3]),
+                        Math.hypot(bezier[6] - bezier[4], bezier[7] - bezier[5])));
+        int steps = Math.max(1, (int) Math.ceil(3 * edge / (tolerance * PATH_CHECK_STEP)));
+        double limit = tolerance * (1 - PATH_CHECK_STEP / 2);
+        double limitSq = limit * limit;
+        for (int k = 1; k < steps; k++) {
+            double t = (double) k / steps;
+            double b0 = b0(t), b1 = b1(t), b2 = b2(t), b3 = b3(t);
+            double x = b0 * bezier[0] + b1 * bezier[2] + b2 * bezier[4] + b3 * bezier[6];
+            double y = b0 * bezier[1] + b1 * bezier[3] + b2 * bezier[5] + b3 * bezier[7];
+            double nearestSq = Double.MAX_VALUE;
+            for (int i = first; i < last && nearestSq > limitSq; i++) {
+                nearestSq = Math.min(nearestSq, pathDistanceSq(d, x, y, i, i + 1));
+            }
+            if (nearestSq > limitSq) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Least-squares control points for fixed end points and tangent directions
+    private static double[] generateBezier(double[] d, int first, int last, double[] u,
+                                           double[] tHat1, double[] tHat2) {
+        double c00 = 0, c01 = 0, c11 = 0, x0 = 0, x1 = 0;
+        double p0x = d[first * 2], p0y = d[first * 2 + 1];
+        double p3x = d[last * 2], p3y = d[last * 2 + 1];
+
+        for (int i = 0; i < u.length; i++) {
+            double t = u[i];
+            double b0 = b0(t), b1 = b1(t), b2 = b2(t), b3 = b3(t);
+            double a1x = tHat1[0] * b1, a1y = tHat1[1] * b1;
+            double a2x = tHat2[0] * b2, a2y = tHat2[1] * b2;
+
+            c00 += a1x * a1x + a1y * a1y;
+            c01 += a1x * a2x + a1y * a2y;
+            c11 += a2x * a2x + a2y * a2y;
+
+            int p = (first + i) * 2;
+            double tmpX = d[p] - (p0x * (b0 + b1) + p3x * (b2 + b3));
+            double tmpY = d[p + 1] - (p0y * (b0 + b1) + p3y * (b2 + b3));
+            x0 += a1x * tmpX + a1y * tmpY;
+            x1 += a2x * tmpX + a2y * tmpY;
+        }
+
+        double detC0C1 = c00 * c11 - c01 * c01;
+        double detC0X = c00 * x1 - c01 * x0;
+        double detXC1 = x0 * c11 - x1 * c01;
+        double alphaL = detC0C1 == 0 ? 0 : detXC1 / detC0C1;
+        double alphaR = detC0C1 == 0 ? 0 : detC0X / detC0C1;
+
+        // Degenerate fit: fall back to the Wu/Barsky heuristic of a third of the chord. With
+        // few samples the system is nearly singular, and a handle longer than the samples'
+        // whole path is a sign of that rather than of a real shape.
+        double segLength = Math.hypot(p3x - p0x, p3y - p0y);
+        double epsilon = 1.0e-6 * segLength;
+        double arcLength = 0;
+        for (int i = first + 1; i <= last; i++) {
+            arcLength += distance(d, i, i - 1);
+        }
+        if (alphaL < epsilon || alphaR < epsilon || alphaL > arcLength || alphaR > arcLength) {
+            alphaL = segLength / 3;
+            alphaR = segLength / 3;
+        } else {
+            // Handles that cross over each other along the chord make the curve loop out
+            // between the samples, where the error check cannot see it
+            double chordX = p3x - p0x, chordY = p3y - p0y;
+            double reach = (tHat1[0] * chordX + tHat1[1] * chordY) * alphaL
+                    - (tHat2[0] * chordX + tHat2[1] * chordY) * alphaR;
+            if (reach > segLength * segLength) {
+                alphaL = segLength / 3;
+                alphaR = segLength / 3;
+            }
+        }
+
+        return new double[]{
+                p0x, p0y,
+                p0x + tHat1[0] * alphaL, p0y + tHat1[1] * alphaL,
+                p3x + tHat2[0] * alphaR, p3y + tHat2[1] * alphaR,
+                p3x, p3y
+        };
+    }
+
+    private static double[] reparameterize(double[] d, int first, int last, double[] u, double[] bezier) {
+        double[] uPrime = new double[u.length];
+        for (int i = 0; i < u.length; i++) {
+            int p = (first + i) * 2;
+            // Outside [0, 1] a sample would be matched against the curve's extrapolation
+            uPrime[i] = Math.max(0, Math.min(1, newtonRaphsonRootFind(bezier, d[p], d[p + 1], u[i])));
+        }
+        return uPrime;
+    }
+
+    private static double newtonRaphsonRootFind(double[] q, double px, double py, double u) {
+        double[] q0 = evaluate(q, 3, u);
+
+        double[] q1 = new double[6];
+        for (int i = 0; i < 3; i++) {
+            q1[i * 2] = (q[(i + 1) * 2] - q[i * 2]) * 3;
+            q1[i * 2 + 1] = (q[(i + 1) * 2 + 1] - q[i * 2 + 1]) * 3;
+        }
+        double[] q2 = new double[4];
+        for (int i = 0; i < 2; i++) {
+            q2[i * 2] = (q1[(i + 1) * 2] - q1[i * 2]) * 2;
+            q2[i * 2 + 1] = (q1[(i + 1) * 2 + 1] - q1[i * 2 + 1]) * 2;
+        }
+        double[] dq1 = evaluate(q1, 2, u);
+        double[] dq2 = evaluate(q2, 1, u);
+
+        double numerator = (q0[0] - px) * dq1[0] + (q0[1] - py) * dq1[1];
+        double denominator = dq1[0] * dq1[0] + dq1[1] * dq1[1]
+                + (q0[0] - px) * dq2[0] + (q0[1] - py) * dq2[1];
+        if (denominator == 0) {
+            return u;
+        }
+        return u - numerator / denominator;
+    }
+
+    // De Casteljau evaluation of a Bézier curve of the given degree
+    private static double[] evaluate(double[] controls, int degree, double t) {
+        double[] temp = Arrays.copyOf(controls, (degree + 1) * 2);
+        for (int i = 1; i <= degree; i++) {
+            for (int j = 0; j <= degree - i; j++) {
+                temp[j * 2] = (1 - t) * temp[j * 2] + t * temp[(j + 1) * 2];
+                temp[j * 2 + 1] = (1 - t) * temp[j * 2 + 1] + t * temp[(j + 1) * 2 + 1];
+            }
+        }
+        return new double[]{temp[0], temp[1]};
+    }
+
+    private static double computeMaxError(double[] d, int first, int last, double[] bezier,
+                                          double[] u, int[] splitPoint) {
+        double maxDistSq = 0;
+        splitPoint[0] = (first + last) / 2;
+        for (int i = first + 1; i < last; i++) {
+            double[] p = evaluate(bezier, 3, u[i - first]);
+            double dx = p[0] - d[i * 2];
+            double dy = p[1] - d[i * 2 + 1];
+            double distSq = dx * dx + dy * dy;
+            if (distSq >= maxDistSq) {
+                maxDistSq = distSq;
+                splitPoint[0] = i;
+            }
+        }
+        return maxDistSq;
+    }
+
+    private static double[] chordLengthParameterize(double[] d, int first, int last) {
+        double[] u = new double[last - first + 1];
+        for (int i = first + 1; i <= last; i++) {
+            u[i - first] = u[i - first - 1] + distance(d, i, i - 1);
+        }
+        double total = u[u.length - 1];
+        for (int i = 1; i < u.length; i++) {
+            u[i] = total == 0 ? 0 : u[i] / total;
+        }
+        return u;
+    }
+
+    private static double segmentDistanceSq(float[] points, int index, int first, int last) {
+        double px = points[index * 2], py = points[index * 2 + 1];
+        double ax = points[first * 2], ay = points[first * 2 + 1];
+        double bx = points[last * 2], by = points[last * 2 + 1];
+        double dx = bx - ax, dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+
+        double t = lengthSq == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        double ex = ax + t * dx - px;
+        double ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+    // Squared distance from a point to the segment between samples a and b
+    private static double pathDistanceSq(double[] d, double px, double py, int a, int b) {
+        double ax = d[a * 2], ay = d[a * 2 + 1];
+        double dx = d[b * 2] - ax, dy = d[b * 2 + 1] - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSq));
+        double ex = ax + t * dx - px;
+        double ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+    private static double distance(double[] d, int a, int b) {
+        return Math.hypot(d[a * 2] - d[b * 2], d[a * 2 + 1] - d[b * 2 + 1]);
+    }
+
+    private static double[] normalize(double x, double y) {
+        double length = Math.hypot(x, y);
+        if (length == 0) {
+            return new double[]{0, 0};
+        }
+        return new double[]{x / length, y / length};
+    }
+
+    private static double b0(double u) {
+        double t = 1 - u;
+        return t * t * t;
+    }
+
+    private static double b1(double u) {
+        double t = 1 - u;
+        return 3 * u * t * t;
+    }
+
+    private static double b2(double u) {
+        double t = 1 - u;
+        return 3 * u * u * t;
+    }
+
+    private static double b3(double u) {
+        return u * u * u;
+    }
+
+    private static class CurveWriter {
+        private float[] data;
+        private int size;
+
+        private CurveWriter(int capacity) {
+            this.data = new float[Math.max(8, capacity)];
+        }
+
+        private void add(double x, double y) {
+            if (size + 2 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = (float) x;
+            data[size++] = (float) y;
+        }
+
+        private void addSegment(double c1x, double c1y, double c2x, double c2y, double x, double y) {
+            add(c1x, c1y);
+            add(c2x, c2y);
+            add(x, y);
+        }
+
+        // Skips the start point, which the previous segment already wrote
+        private void addSegment(double[] bezier) {
+            addSegment(bezier[2], bezier[3], bezier[4], bezier[5], bezier[6], bezier[7]);
+        }
+
+        private float[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
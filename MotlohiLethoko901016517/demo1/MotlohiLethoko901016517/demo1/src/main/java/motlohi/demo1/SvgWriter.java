@@ -0,0 +1,195 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+
+// Streams the board as SVG in board coordinates. Strokes become paths, text lines become
+// text elements and images are embedded as PNG data, encoded row by row into the output.
+public class SvgWriter extends VectorWriter {
+    private static final double MEDIA_FONT_SIZE = 13;
+
+    public SvgWriter(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void begin(Rectangle2D area) throws IOException {
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"");
+        writeNumber(area.getWidth());
+        write("\" height=\"");
+        writeNumber(area.getHeight());
+        write("\" viewBox=\"");
+        writeNumber(area.getMinX());
+        write(' ');
+        writeNumber(area.getMinY());
+        write(' ');
+        writeNumber(area.getWidth());
+        write(' ');
+        writeNumber(area.getHeight());
+        write("\">\n<rect x=\"");
+        writeNumber(area.getMinX());
+        write("\" y=\"");
+        writeNumber(area.getMinY());
+        write("\" width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+        write("<g stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+    }
+
+    @Override
+    public void stroke(Stroke stroke) throws IOException {
+        float[] points = stroke.getPoints();
+        if (points.length < 4) {
+            return;
+        }
+        write("<path fill=\"none\" stroke=\"");
+        writeHexColor(stroke.getColor());
+        write('"');
+        writeOpacity("stroke-opacity", stroke.getColor());
+        write(" stroke-width=\"");
+        writeNumber(stroke.getWidth());
+        write("\" d=\"M");
+        writeNumber(points[0]);
+        write(' ');
+        writeNumber(points[1]);
+        // Coordinates after the first pair repeat the last command: lines, or cubic segments
+        write(stroke.isCubic() ? 'C' : 'L');
+        for (int i = 2; i < points.length; i += 2) {
+            if (i > 2) {
+                write(' ');
+            }
+            writeNumber(points[i]);
+            write(' ');
+            writeNumber(points[i + 1]);
+        }
+        write("\"/>\n");
+    }
+
+    @Override
+    public void text(TextBlock text) throws IOException {
+        Font font = text.getFont();
+        for (int i = 0; i < text.getLineCount(); i++) {
+            writeText(text.getLine(i), text.getLineX(i), text.getLineY(i), font.getFamily(), font.getSize(),
+                    font.getStyle(), text.getColor());
+        }
+    }
+
+    @Override
+    public void image(ImageItem item) throws IOException {
+        Image image = item.getImage();
+        PixelReader reader = image.getPixelReader();
+        if (reader == null || image.getProgress() < 1 || image.isError()) {
+            return;
+        }
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        write("<image x=\"");
+        writeNumber(item.getX());
+        write("\" y=\"");
+        writeNumber(item.getY());
+        write("\" width=\"");
+        writeNumber(item.getWidth());
+        write("\" height=\"");
+        writeNumber(item.getHeight());
+        write("\" preserveAspectRatio=\"none\" xlink:href=\"data:image/png;base64,");
+        OutputStream base64 = Base64.getEncoder().wrap(bytes());
+        PngEncoder encoder = new PngEncoder(base64, width, height, true);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width);
+            encoder.writeRow(row, 0);
+        }
+        encoder.finish();
+        // Writes the final padding; the writer itself stays open
+        base64.close();
+        write("\"/>\n");
+    }
+
+    @Override
+    public void media(MediaPlaceholder media) throws IOException {
+        write("<rect x=\"");
+        writeNumber(media.getX());
+        write("\" y=\"");
+        writeNumber(media.getY());
+        write("\" width=\"150\" height=\"40\" fill=\"");
+        writeHexColor(Color.LIGHTGRAY);
+        write("\"/>\n");
+        writeText(media.getName(), media.getX() + 5, media.getY() + 20, Font.getDefault().getFamily(),
+                MEDIA_FONT_SIZE, "Regular", Color.BLACK);
+    }
+
+    @Override
+    protected void end() throws IOException {
+        write("</g>\n</svg>\n");
+    }
+
+    private void writeText(String line, double x, double y, String family, double size, String style, Color color)
+            throws IOException {
+        write("<text x=\"");
+        writeNumber(x);
+        write("\" y=\"");
+        writeNumber(y);
+        write("\" font-family=\"");
+        writeEscaped(family);
+        write("\" font-size=\"");
+        writeNumber(size);
+        write('"');
+        String lower = style.toLowerCase();
+        if (lower.contains("bold")) {
+            write(" font-weight=\"bold\"");
+        }
+        if (lower.contains("italic") || lower.contains("oblique")) {
+            write(" font-style=\"italic\"");
+        }
+        write(" fill=\"");
+        writeHexColor(color);
+        write('"');
+        writeOpacity("fill-opacity", color);
+        write(" xml:space=\"preserve\">");
+        writeEscaped(line);
+        write("</text>\n");
+    }
+
+    private void writeOpacity(String attribute, Color color) throws IOException {
+        if (color.getOpacity() < 1) {
+            write(' ');
+            write(attribute);
+            write("=\"");
+            writeNumber(color.getOpacity());
+            write('"');
+        }
+    }
+
+    // XML text with markup characters escaped, everything else outside ASCII as character references
+    private void writeEscaped(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            int c = text.codePointAt(i);
+            if (Character.isSupplementaryCodePoint(c)) {
+                i++;
+            }
+            if (c == '<') {
+                write("&lt;");
+            } else if (c == '>') {
+                write("&gt;");
+            } else if (c == '&') {
+                write("&amp;");
+            } else if (c == '"') {
+                write("&quot;");
+            } else if (c >= 0x20 && c < 0x7F) {
+                write((char) c);
+            } else if (c >= 0xA0 || c == '\t') {
+                write("&#");
+                writeInteger(c);
+                write(';');
+            }
+            // Other control characters are not allowed in XML and are dropped
+        }
+    }
+}
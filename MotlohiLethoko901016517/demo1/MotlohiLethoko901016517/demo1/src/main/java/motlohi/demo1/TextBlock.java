@@ -0,0 +1,158 @@
+package motlohi.demo1;
+
+import javafx.application.Platform;
+import javafx.geometry.Bounds;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+// Lines of text on the board. Their bounds and glyph outlines are measured with Text nodes,
+// which only work on the FX thread, so that is put off until they are first needed: text read
+// from a file on a worker thread is measured once it is added to the board, on the FX thread.
+public class TextBlock implements BoardItem {
+    private final Color color;
+    private final Font font;
+    private final List<String> lines;
+    private final List<double[]> positions;
+    private volatile Layout layout; // Null until measured, and again after a line is added
+
+    public TextBlock(Color color, Font font) {
+        this.color = color;
+        this.font = font;
+        this.lines = new ArrayList<>();
+        this.positions = new ArrayList<>();
+    }
+
+    public void addLine(String line, double x, double y) {
+        lines.add(line);
+        positions.add(new double[]{x, y});
+        layout = null;
+    }
+
+    @Override
+    public void render(GraphicsContext gc) {
+        gc.setFill(color);
+        gc.setFont(font);
+        for (int i = 0; i < lines.size(); i++) {
+            double[] position = positions.get(i);
+            gc.fillText(lines.get(i), position[0], position[1]);
+        }
+    }
+
+    @Override
+    public void rasterize(Raster raster) {
+        raster.fillPath(getLayout().outline, color);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        if (lines.isEmpty()) {
+            return Rectangle2D.EMPTY;
+        }
+        return getLayout().bounds;
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    public String getLine(int index) {
+        return lines.get(index);
+    }
+
+    // Baseline start of a line
+    public double getLineX(int index) {
+        return positions.get(index)[0];
+    }
+
+    public double getLineY(int index) {
+        return positions.get(index)[1];
+    }
+
+    // Measures the lines on the FX thread. Off it, which only happens for text that never went
+    // on the board, such as an export of a board that was never shown, the FX thread is asked
+    // to do it and waited for.
+    private Layout getLayout() {
+        Layout measured = layout;
+        if (measured != null) {
+            return measured;
+        }
+        if (Platform.isFxApplicationThread()) {
+            measured = measure();
+        } else {
+            Layout[] result = new Layout[1];
+            CountDownLatch done = new CountDownLatch(1);
+            Platform.runLater(() -> {
+                try {
+                    result[0] = measure();
+                } finally {
+                    done.countDown();
+                }
+            });
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for text to be measured", e);
+            }
+            if (result[0] == null) {
+                throw new IllegalStateException("Could not measure text");
+            }
+            measured = result[0];
+        }
+        layout = measured;
+        return measured;
+    }
+
+    private Layout measure() {
+        VectorPath outline = new VectorPath();
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < lines.size(); i++) {
+            double x = positions.get(i)[0];
+            double y = positions.get(i)[1];
+
+            // Layout bounds are relative to the baseline the line is drawn on
+            Text text = new Text(lines.get(i));
+            text.setFont(font);
+            Bounds lineBounds = text.getLayoutBounds();
+            minX = Math.min(minX, x + lineBounds.getMinX());
+            minY = Math.min(minY, y + lineBounds.getMinY());
+            maxX = Math.max(maxX, x + lineBounds.getMaxX());
+            maxY = Math.max(maxY, y + lineBounds.getMaxY());
+
+            text.setX(x);
+            text.setY(y);
+            outline.append(text);
+        }
+        return new Layout(outline, new Rectangle2D(minX - 1, minY - 1, maxX - minX + 2, maxY - minY + 2));
+    }
+
+    private static class Layout {
+        private final VectorPath outline; // Glyph outlines of every line, for the software rasterizer
+        private final Rectangle2D bounds;
+
+        private Layout(VectorPath outline, Rectangle2D bounds) {
+            this.outline = outline;
+            this.bounds = bounds;
+        }
+    }
+}
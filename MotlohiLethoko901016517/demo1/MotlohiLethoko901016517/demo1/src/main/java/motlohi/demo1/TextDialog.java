@@ -1,6 +1,5 @@
 package motlohi.demo1;
 
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
@@ -55,14 +54,16 @@ public class TextDialog {
 
     public void show() {
         dialog.showAndWait().ifPresent(text -> {
-            GraphicsContext gc = drawingCanvas.getGraphicsContext();
-            gc.setFill(drawingCanvas.getCurrentColor());
-            gc.setFont(Font.font("Arial", drawingCanvas.getStrokeWidth() * 5));
+            // Text is placed near the top-left of the current view, sized for the current zoom
+            BoardView view = drawingCanvas.getView();
+            double scale = view.getScale();
+            Font font = Font.font("Arial", drawingCanvas.getStrokeWidth() * 5 / scale);
+            TextBlock textBlock = new TextBlock(drawingCanvas.getCurrentColor(), font);
 
-            double startX = 50;
-            double startY = 50;
-            double lineHeight = drawingCanvas.getStrokeWidth() * 8;
-            double maxWidth = drawingCanvas.getCanvas().getWidth() - startX - 20;
+            double startX = view.toBoardX(50);
+            double startY = view.toBoardY(50);
+            double lineHeight = drawingCanvas.getStrokeWidth() * 8 / scale;
+            double maxWidth = (drawingCanvas.getCanvas().getWidth() - 50 - 20) / scale;
 
             String[] paragraphs = text.split("\n");
 
@@ -73,13 +74,13 @@ public class TextDialog {
 
                 for (String word : words) {
                     String testLine = currentLine + (currentLine.length() > 0 ? " " : "") + word;
-                    double testWidth = computeTextWidth(testLine, gc.getFont());
+                    double testWidth = computeTextWidth(testLine, font);
 
                     if (testWidth <= maxWidth) {
                         currentLine.append(currentLine.length() > 0 ? " " : "").append(word);
                     } else {
                         if (currentLine.length() > 0) {
-                            gc.fillText(currentLine.toString(), startX, currentY);
+                            textBlock.addLine(currentLine.toString(), startX, currentY);
                             currentY += lineHeight;
                         }
                         currentLine = new StringBuilder(word);
@@ -87,13 +88,15 @@ public class TextDialog {
                 }
 
                 if (currentLine.length() > 0) {
-                    gc.fillText(currentLine.toString(), startX, currentY);
+                    textBlock.addLine(currentLine.toString(), startX, currentY);
                 }
 
                 startY = currentY + lineHeight * 1.5;
             }
 
-            drawingCanvas.saveCanvasState();
+            if (!textBlock.isEmpty()) {
+                drawingCanvas.addItem(textBlock);
+            }
         });
     }
 
@@ -0,0 +1,118 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.WritableImage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+// LRU cache of rendered board tiles with a memory cap. Tiles are keyed by zoom level and
+// grid position and remember the board area they cover so edits can mark just those tiles
+// stale. A stale tile is still shown until its replacement has been rendered.
+public class TileCache {
+    public static final long DEFAULT_BYTE_BUDGET = 96L * 1024 * 1024;
+
+    private final LinkedHashMap<Key, Tile> tiles;
+    private final long byteBudget;
+    private long bytes;
+
+    public TileCache(long byteBudget) {
+        this.byteBudget = byteBudget;
+        this.tiles = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    public WritableImage get(int zoomLevel, int tileX, int tileY) {
+        Tile tile = tiles.get(new Key(zoomLevel, tileX, tileY));
+        return tile != null ? tile.image : null;
+    }
+
+    // Whether a tile is missing or out of date and should be rendered again
+    public boolean needsRender(int zoomLevel, int tileX, int tileY) {
+        Tile tile = tiles.get(new Key(zoomLevel, tileX, tileY));
+        return tile == null || tile.stale;
+    }
+
+    public void put(int zoomLevel, int tileX, int tileY, WritableImage image, Rectangle2D boardBounds) {
+        Tile previous = tiles.put(new Key(zoomLevel, tileX, tileY), new Tile(image, boardBounds));
+        if (previous != null) {
+            bytes -= sizeOf(previous.image);
+        }
+        bytes += sizeOf(image);
+
+        Iterator<Tile> eldest = tiles.values().iterator();
+        while (bytes > byteBudget && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next().image);
+            eldest.remove();
+        }
+    }
+
+    // Marks every tile, at any zoom level, that overlaps the changed board area as stale
+    public void invalidate(Rectangle2D boardBounds) {
+        for (Tile tile : tiles.values()) {
+            if (tile.boardBounds.intersects(boardBounds)) {
+                tile.stale = true;
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (Tile tile : tiles.values()) {
+            tile.stale = true;
+        }
+    }
+
+    public void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    public int size() {
+        return tiles.size();
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    private static long sizeOf(WritableImage image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    private static class Tile {
+        private final WritableImage image;
+        private final Rectangle2D boardBounds;
+        private boolean stale;
+
+        private Tile(WritableImage image, Rectangle2D boardBounds) {
+            this.image = image;
+            this.boardBounds = boardBounds;
+        }
+    }
+
+    static class Key {
+        private final int zoomLevel;
+        private final int tileX;
+        private final int tileY;
+
+        Key(int zoomLevel, int tileX, int tileY) {
+            this.zoomLevel = zoomLevel;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return zoomLevel == other.zoomLevel && tileX == other.tileX && tileY == other.tileY;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(zoomLevel, tileX, tileY);
+        }
+    }
+}
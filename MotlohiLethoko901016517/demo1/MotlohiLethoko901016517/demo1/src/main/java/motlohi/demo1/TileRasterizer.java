@@ -0,0 +1,236 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+
+// Renders board tiles with the software Raster on a ForkJoin pool, one task per tile, so
+// re-rendering after a zoom or file open uses every core and never blocks the FX thread.
+// Items are queried on the caller's thread and only read by the workers. Tile buffers are
+// recycled once the FX thread has copied them into an image. Each layer is rendered into its
+// own transparent raster, which the caller caches, and the tile is their composite on white.
+public class TileRasterizer {
+    private static final int MAX_FREE_BUFFERS = 64;
+
+    private final int tileSize;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Raster> rasters;
+    private final ThreadLocal<int[]> quadrantBuffers;
+    private final ConcurrentLinkedQueue<int[]> freeBuffers;
+
+    public TileRasterizer(int tileSize) {
+        this(tileSize, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public TileRasterizer(int tileSize, int parallelism) {
+        this.tileSize = tileSize;
+        // FIFO scheduling so tiles come back roughly in the order they were asked for
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.rasters = ThreadLocal.withInitial(() -> new Raster(tileSize, tileSize));
+        this.quadrantBuffers = ThreadLocal.withInitial(() -> new int[tileSize * tileSize]);
+        this.freeBuffers = new ConcurrentLinkedQueue<>();
+    }
+
+    // Composites one tile from its layers, bottom first, in the background. A layer with a
+    // cached raster is reused as is; otherwise its items are rendered into a new raster, or it
+    // is skipped if it has none there. Completes with null if it was cancelled before it
+    // started. The items and cached rasters must not change until the future completes.
+    public CompletableFuture<RenderedTile> renderLayersAsync(int[][] cached, List<List<BoardItem>> items,
+                                                             double boardX, double boardY, double scale,
+                                                             BooleanSupplier cancelled) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            Raster raster = rasters.get();
+            int[][] rendered = new int[cached.length][];
+            for (int i = 0; i < cached.length; i++) {
+                if (cached[i] == null && !items.get(i).isEmpty()) {
+                    rendered[i] = new int[tileSize * tileSize];
+                    raster.begin(rendered[i], boardX, boardY, scale);
+                    raster.clear(Color.TRANSPARENT);
+                    for (BoardItem item : items.get(i)) {
+                        item.rasterize(raster);
+                    }
+                }
+            }
+
+            int[] pixels = acquireBuffer();
+            raster.begin(pixels, boardX, boardY, scale);
+            raster.clear(Color.WHITE);
+            for (int i = 0; i < cached.length; i++) {
+                int[] layer = cached[i] != null ? cached[i] : rendered[i];
+                if (layer != null) {
+                    raster.composite(layer);
+                }
+            }
+            return new RenderedTile(pixels, rendered);
+        }, pool);
+    }
+
+    // Builds a tile from the four tiles of the next finer octave that cover the same area
+    // (top-left, top-right, bottom-left, bottom-right) by averaging each 2x2 block. That is a
+    // correctly filtered mipmap of them, and costs the same however much is on the board.
+    public CompletableFuture<int[]> downsampleAsync(Image[] quadrants, BooleanSupplier cancelled) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            int[] pixels = acquireBuffer();
+            int[] source = quadrantBuffers.get();
+            int half = tileSize / 2;
+            for (int q = 0; q < 4; q++) {
+                quadrants[q].getPixelReader().getPixels(0, 0, tileSize, tileSize,
+                        PixelFormat.getIntArgbPreInstance(), source, 0, tileSize);
+                int offsetX = (q & 1) * half;
+                int offsetY = (q >> 1) * half;
+                for (int y = 0; y < half; y++) {
+                    int top = y * 2 * tileSize;
+                    int bottom = top + tileSize;
+                    int out = (offsetY + y) * tileSize + offsetX;
+                    for (int x = 0; x < half; x++) {
+                        pixels[out + x] = average(source[top + x * 2], source[top + x * 2 + 1],
+                                source[bottom + x * 2], source[bottom + x * 2 + 1]);
+                    }
+                }
+            }
+            return pixels;
+        }, pool);
+    }
+
+    // Renders one tile on the calling thread
+    public int[] render(List<BoardItem> items, double boardX, double boardY, double scale, int[] pixels) {
+        Raster raster = rasters.get();
+        raster.begin(pixels, boardX, boardY, scale);
+        raster.clear(Color.WHITE);
+        for (BoardItem item : items) {
+            item.rasterize(raster);
+        }
+        return pixels;
+    }
+
+    // Renders a board region into one premultiplied ARGB image, ceil(width * scale) pixels
+    // wide, with its tiles rendered in parallel. Needs no screen, so it also serves exports.
+    public int[] renderRegion(LayerStack layers, Rectangle2D region, double scale) {
+        int width = (int) Math.ceil(region.getWidth() * scale);
+        int height = (int) Math.ceil(region.getHeight() * scale);
+        return renderRegionAsync(layers.query(region), region, scale, new int[width * height], () -> false).join();
+    }
+
+    // Renders the items over a region into an image of ceil(width * scale) by ceil(height *
+    // scale) pixels in the background, one task per tile. Each tile only draws the items that
+    // reach it. Completes with the image, or with null if cancelled before every tile was done.
+    public CompletableFuture<int[]> renderRegionAsync(List<BoardItem> items, Rectangle2D region, double scale,
+                                                      int[] image, BooleanSupplier cancelled) {
+        int width = (int) Math.ceil(region.getWidth() * scale);
+        // Rounding may add a row the image has no room for
+        int height = Math.min((int) Math.ceil(region.getHeight() * scale), image.length / width);
+        int columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        List<List<BoardItem>> tileItems = sortIntoTiles(items, region, scale, columns, rows);
+
+        List<CompletableFuture<Void>> tiles = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int x = column * tileSize, y = row * tileSize;
+                double boardX = region.getMinX() + x / scale;
+                double boardY = region.getMinY() + y / scale;
+                List<BoardItem> reaching = tileItems.get(row * columns + column);
+                tiles.add(CompletableFuture.runAsync(() -> {
+                    if (cancelled.getAsBoolean()) {
+                        return;
+                    }
+                    int[] tile = render(reaching, boardX, boardY, scale, acquireBuffer());
+                    int copied = Math.min(tileSize, width - x);
+                    for (int line = 0; line < tileSize && y + line < height; line++) {
+                        System.arraycopy(tile, line * tileSize, image, (y + line) * width + x, copied);
+                    }
+                    recycle(tile);
+                }, pool));
+            }
+        }
+        return CompletableFuture.allOf(tiles.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> cancelled.getAsBoolean() ? null : image);
+    }
+
+    // Lists each item under every tile it reaches, row by row, keeping the paint order
+    private List<List<BoardItem>> sortIntoTiles(List<BoardItem> items, Rectangle2D region, double scale,
+                                                int columns, int rows) {
+        List<List<BoardItem>> tileItems = new ArrayList<>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            tileItems.add(new ArrayList<>());
+        }
+        double tileBoardSize = tileSize / scale;
+        for (BoardItem item : items) {
+            Rectangle2D bounds = item.getBounds();
+            int firstColumn = (int) Math.max(0, Math.floor((bounds.getMinX() - region.getMinX()) / tileBoardSize));
+            int lastColumn = (int) Math.min(columns - 1, Math.floor((bounds.getMaxX() - region.getMinX()) / tileBoardSize));
+            int firstRow = (int) Math.max(0, Math.floor((bounds.getMinY() - region.getMinY()) / tileBoardSize));
+            int lastRow = (int) Math.min(rows - 1, Math.floor((bounds.getMaxY() - region.getMinY()) / tileBoardSize));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    tileItems.get(row * columns + column).add(item);
+                }
+            }
+        }
+        return tileItems;
+    }
+
+    public int[] acquireBuffer() {
+        int[] buffer = freeBuffers.poll();
+        return buffer != null ? buffer : new int[tileSize * tileSize];
+    }
+
+    public void recycle(int[] buffer) {
+        if (buffer.length == tileSize * tileSize && freeBuffers.size() < MAX_FREE_BUFFERS) {
+            freeBuffers.offer(buffer);
+        }
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    // Lets the worker threads end once the work already submitted is done
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // A composited tile and the layer rasters that had to be rendered for it, null where a
+    // cached raster was reused or the layer was empty
+    public static class RenderedTile {
+        private final int[] pixels;
+        private final int[][] layers;
+
+        private RenderedTile(int[] pixels, int[][] layers) {
+            this.pixels = pixels;
+            this.layers = layers;
+        }
+
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        public int[] getLayer(int index) {
+            return layers[index];
+        }
+    }
+
+    // Average of four premultiplied pixels, per channel
+    static int average(int a, int b, int c, int d) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) + ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+            result |= ((sum + 2) >> 2) << shift;
+        }
+        return result;
+    }
+}
@@ -1,25 +1,42 @@
 package motlohi.demo1;
 
 import javafx.scene.control.*;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import javafx.util.Duration;
 import javafx.animation.*;
+import javafx.concurrent.Task;
 import javafx.scene.paint.Color;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ToolBar {
     private final HBox toolbar;
     private final DrawingCanvas drawingCanvas;
     private final MediaPanel mediaPanel;
+    private final BoardLoader boardLoader;
+    // Saves and loads run one at a time on a background thread so file work never stalls the UI
+    private final ExecutorService fileExecutor;
+    private Button saveButton;
+    private Button openButton;
+    private Task<?> fileTask;
 
     public ToolBar(DrawingCanvas drawingCanvas, MediaPanel mediaPanel) {
         this.drawingCanvas = drawingCanvas;
         this.mediaPanel = mediaPanel;
         this.toolbar = new HBox(10);
+        this.boardLoader = new BoardLoader(drawingCanvas);
+        this.fileExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "whiteboard-files");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         initializeToolbar();
     }
@@ -31,7 +48,8 @@ public class ToolBar {
         Slider thicknessSlider = createThicknessSlider();
 
         // Drawing tools
-        Button eraserButton = createToolButton("Eraser", "#e74c3c", e -> drawingCanvas.toggleEraser());
+        Button eraserButton = createToolButton("Eraser", "#e74c3c", e -> cycleEraser((Button) e.getSource()));
+        Button moveButton = createToolButton("Move Images", "#8e44ad", e -> toggleMoveImages((Button) e.getSource()));
         Button textButton = createToolButton("Add Text", "#3498db", e -> new TextDialog(drawingCanvas).show());
         Button clearButton = createToolButton("Clear", "#f39c12", e -> drawingCanvas.clearCanvas());
 
@@ -45,17 +63,34 @@ public class ToolBar {
         Button redoButton = createToolButton("Redo", "#7f8c8d", e -> drawingCanvas.redo());
 
         // File operations
-        Button saveButton = createToolButton("Save", "#27ae60", e -> saveCanvasToFile());
+        saveButton = createToolButton("Save", "#27ae60", e -> saveCanvasToFile());
+        openButton = createToolButton("Open", "#2980b9", e -> openBoard());
 
         toolbar.getChildren().addAll(
                 colorPicker,
                 new Label("Thickness:"), thicknessSlider,
-                eraserButton, textButton, imageButton,
+                eraserButton, moveButton, textButton, imageButton,
                 videoButton, musicButton, clearButton,
-                undoButton, redoButton, saveButton
+                undoButton, redoButton, saveButton, openButton,
+                createBackupStatus()
         );
     }
 
+    // Only shown while the session journal cannot back the board up; the tooltip says why
+    private Label createBackupStatus() {
+        Label status = new Label("Not backed up");
+        status.setStyle("-fx-text-fill: #c0392b; -fx-font-weight: bold;");
+        status.setVisible(false);
+        status.managedProperty().bind(status.visibleProperty());
+        SessionJournal journal = drawingCanvas.getJournal();
+        if (journal != null) {
+            status.visibleProperty().bind(journal.problemProperty().isNotNull());
+            journal.problemProperty().addListener((obs, oldVal, problem) ->
+                    status.setTooltip(problem == null ? null : new Tooltip(problem)));
+        }
+        return status;
+    }
+
     private ColorPicker createColorPicker() {
         ColorPicker colorPicker = new ColorPicker(Color.BLACK);
         colorPicker.setOnAction(e -> drawingCanvas.setCurrentColor(colorPicker.getValue()));
@@ -72,7 +107,6 @@ public class ToolBar {
         slider.setSnapToTicks(true);
         slider.valueProperty().addListener((obs, oldVal, newVal) -> {
             drawingCanvas.setStrokeWidth(newVal.doubleValue());
-            drawingCanvas.getGraphicsContext().setLineWidth(newVal.doubleValue());
         });
         return slider;
     }
@@ -117,21 +151,147 @@ public class ToolBar {
         });
     }
 
+    // Off, then an eraser that cuts strokes, then one that deletes whole strokes
+    private void cycleEraser(Button eraserButton) {
+        drawingCanvas.toggleEraser();
+        switch (drawingCanvas.getEraserMode()) {
+            case SPLIT:
+                eraserButton.setText("Eraser: Split");
+                break;
+            case STROKE:
+                eraserButton.setText("Eraser: Stroke");
+                break;
+            default:
+                eraserButton.setText("Eraser");
+                break;
+        }
+    }
+
+    private void toggleMoveImages(Button moveButton) {
+        drawingCanvas.setMovingImages(!drawingCanvas.isMovingImages());
+        moveButton.setText(drawingCanvas.isMovingImages() ? "Move Images: On" : "Move Images");
+    }
+
     private void saveCanvasToFile() {
+        if (fileTask != null) {
+            return;
+        }
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Whiteboard");
-        fileChooser.getExtensionFilters().addAll(
-                new FileChooser.ExtensionFilter("PNG Image", "*.png"),
-                new FileChooser.ExtensionFilter("JPEG Image", "*.jpg"),
-                new FileChooser.ExtensionFilter("All Files", "*.*"));
+        FileChooser.ExtensionFilter boardFilter = new FileChooser.ExtensionFilter("Whiteboard", "*.wbd");
+        FileChooser.ExtensionFilter pngFilter = new FileChooser.ExtensionFilter("PNG Image", "*.png");
+        FileChooser.ExtensionFilter posterFilter = new FileChooser.ExtensionFilter("PNG Poster (any resolution)", "*.png");
+        FileChooser.ExtensionFilter svgFilter = new FileChooser.ExtensionFilter("SVG Vector Image", "*.svg");
+        FileChooser.ExtensionFilter pdfFilter = new FileChooser.ExtensionFilter("PDF Document", "*.pdf");
+        fileChooser.getExtensionFilters().addAll(boardFilter, pngFilter, posterFilter, svgFilter, pdfFilter);
         File file = fileChooser.showSaveDialog(null);
+        if (file == null) {
+            return;
+        }
 
-        if (file != null) {
-            // In a real application, we would implement actual saving functionality
-            System.out.println("Whiteboard saved to: " + file.getAbsolutePath());
+        // A typed extension wins; otherwise the one of the chosen filter is added
+        String name = file.getName().toLowerCase();
+        String extension = name.contains(".") ? name.substring(name.lastIndexOf('.')) : "";
+        if (!extension.matches("\\.(wbd|png|svg|pdf)")) {
+            FileChooser.ExtensionFilter selected = fileChooser.getSelectedExtensionFilter();
+            extension = selected == null ? ".wbd" : selected.getExtensions().get(0).substring(1);
+            file = new File(file.getParentFile(), file.getName() + extension);
+        }
+        if (extension.equals(".svg") || extension.equals(".pdf")) {
+            runFileTask(new VectorExportTask(drawingCanvas.getLayers(), file), saveButton, "Export failed");
+        } else if (extension.equals(".png") && fileChooser.getSelectedExtensionFilter() == posterFilter) {
+            exportPoster(file);
+        } else if (extension.equals(".png")) {
+            // Capturing the view is the only step on the FX thread; encoding and writing run in the background
+            WritableImage snapshot = drawingCanvas.getCanvas().snapshot(null, null);
+            runFileTask(new PngExportTask(snapshot, file), saveButton, "Save failed");
+        } else {
+            // Saving back to the open file only writes what changed since it was opened or saved
+            BoardStore store = boardLoader.getStore();
+            if (store == null || !store.getFile().equals(file.toPath().toAbsolutePath())) {
+                store = boardLoader.bind(file);
+            }
+            runFileTask(store.save(0), saveButton, "Save failed");
         }
     }
 
+    // Renders the whole board at a chosen resolution rather than capturing the view
+    private void exportPoster(File file) {
+        TextInputDialog dialog = new TextInputDialog("300");
+        dialog.setTitle("Export Poster");
+        dialog.setHeaderText("Resolution of the exported image");
+        dialog.setContentText("Dots per inch:");
+        dialog.showAndWait().ifPresent(value -> {
+            double dpi;
+            try {
+                dpi = Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                dpi = -1;
+            }
+            if (!(dpi > 0 && dpi <= 2400)) {
+                showError("Export failed", new IllegalArgumentException("Enter a resolution between 1 and 2400 dpi"));
+                return;
+            }
+            runFileTask(new PosterExportTask(drawingCanvas.getLayers(), file, dpi), saveButton, "Export failed");
+        });
+    }
+
+    private void openBoard() {
+        if (fileTask != null) {
+            return;
+        }
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Open Whiteboard");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Whiteboard", "*.wbd"));
+        File file = fileChooser.showOpenDialog(null);
+        if (file == null) {
+            return;
+        }
+        try {
+            // The visible part is loaded before this returns; the task brings in the rest
+            runFileTask(boardLoader.open(file), openButton, "Open failed");
+        } catch (IOException | RuntimeException e) {
+            showError("Open failed", e);
+        }
+    }
+
+    // Swaps a button for a progress bar and a cancel button until the task ends
+    private void runFileTask(Task<?> task, Button button, String failureHeader) {
+        fileTask = task;
+        ProgressBar progress = new ProgressBar();
+        progress.progressProperty().bind(task.progressProperty());
+        Button cancelButton = createToolButton("Cancel", "#c0392b", e -> task.cancel());
+        HBox running = new HBox(5, progress, cancelButton);
+        running.setStyle("-fx-alignment: center;");
+
+        int index = toolbar.getChildren().indexOf(button);
+        toolbar.getChildren().set(index, running);
+        Runnable restore = () -> {
+            toolbar.getChildren().set(toolbar.getChildren().indexOf(running), button);
+            fileTask = null;
+        };
+
+        task.setOnSucceeded(e -> {
+            restore.run();
+            // Where the board went, for whoever hovers over the button next
+            if (task.getValue() instanceof File) {
+                button.setTooltip(new Tooltip("Saved to " + ((File) task.getValue()).getAbsolutePath()));
+            }
+        });
+        task.setOnCancelled(e -> restore.run());
+        task.setOnFailed(e -> {
+            restore.run();
+            showError(failureHeader, task.getException());
+        });
+        fileExecutor.execute(task);
+    }
+
+    private void showError(String header, Throwable error) {
+        Alert alert = new Alert(Alert.AlertType.ERROR, header + ": " + error.getMessage());
+        alert.setHeaderText(header);
+        alert.show();
+    }
+
     public HBox getToolbar() {
         return toolbar;
     }
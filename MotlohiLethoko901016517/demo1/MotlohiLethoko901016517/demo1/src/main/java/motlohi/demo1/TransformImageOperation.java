@@ -0,0 +1,84 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+
+// One move or resize gesture on an image. The gesture replaces the image in the document as
+// the pointer moves, keeping its place in the paint order; this remembers the image it
+// started from and the one it left, so undo and redo only swap the two.
+public class TransformImageOperation implements CanvasOperation {
+    private final Layer layer;
+    private final ImageItem original;
+    private final long orderKey;
+    private ImageItem current;
+    private double minX, minY, maxX, maxY;
+
+    public TransformImageOperation(Layer layer, ImageItem original) {
+        this.layer = layer;
+        this.original = original;
+        this.orderKey = layer.getDocument().getOrderKey(original);
+        this.current = original;
+        Rectangle2D bounds = original.getBounds();
+        minX = bounds.getMinX();
+        minY = bounds.getMinY();
+        maxX = bounds.getMaxX();
+        maxY = bounds.getMaxY();
+    }
+
+    // Places the image over a new board area
+    public void setBounds(double x, double y, double width, double height) {
+        ImageItem next = original.withBounds(x, y, width, height);
+        BoardDocument document = layer.getDocument();
+        document.remove(current);
+        document.add(next, orderKey);
+        current = next;
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x + width);
+        maxY = Math.max(maxY, y + height);
+    }
+
+    public ImageItem getOriginal() {
+        return original;
+    }
+
+    public ImageItem getCurrent() {
+        return current;
+    }
+
+    public boolean isEmpty() {
+        return current.getBounds().equals(original.getBounds());
+    }
+
+    @Override
+    public void apply(LayerStack layers) {
+        BoardDocument document = layer.getDocument();
+        document.removeAt(orderKey);
+        document.add(current, orderKey);
+    }
+
+    @Override
+    public void revert(LayerStack layers) {
+        BoardDocument document = layer.getDocument();
+        document.removeAt(orderKey);
+        document.add(original, orderKey);
+    }
+
+    // The image off the board shares its pixels with the one on it
+    @Override
+    public long getRetainedBytes(boolean applied) {
+        return 0;
+    }
+
+    @Override
+    public ItemChanges getChanges() {
+        ItemChanges changes = new ItemChanges();
+        changes.remove(layer, orderKey, original);
+        changes.add(layer, orderKey, current);
+        return changes;
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
+}
@@ -0,0 +1,95 @@
+package motlohi.demo1;
+
+import javafx.concurrent.Task;
+import javafx.geometry.Rectangle2D;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Exports the visible layers as SVG or PDF, chosen by the file's extension. The items are
+// listed when the task is created, on the FX thread; the writer then walks them in paint
+// order in the background and streams each one to a temporary file, which replaces the
+// target when done.
+public class VectorExportTask extends Task<File> {
+    private static final double MARGIN = 10;
+
+    private final List<BoardItem[]> layers;
+    private final Rectangle2D area;
+    private final File file;
+    private final long total;
+
+    public VectorExportTask(LayerStack stack, File file) {
+        this.layers = new ArrayList<>();
+        this.file = file;
+
+        long count = 0;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Layer layer : stack.getVisibleLayers()) {
+            BoardDocument document = layer.getDocument();
+            layers.add(document.getItems().toArray(new BoardItem[0]));
+            count += document.size();
+            Rectangle2D bounds = document.getBounds();
+            if (bounds.getWidth() > 0 || bounds.getHeight() > 0) {
+                minX = Math.min(minX, bounds.getMinX());
+                minY = Math.min(minY, bounds.getMinY());
+                maxX = Math.max(maxX, bounds.getMaxX());
+                maxY = Math.max(maxY, bounds.getMaxY());
+            }
+        }
+        if (maxX < minX) {
+            minX = minY = 0;
+            maxX = maxY = 1;
+        }
+        this.area = new Rectangle2D(Math.floor(minX - MARGIN), Math.floor(minY - MARGIN),
+                Math.ceil(maxX - minX + 2 * MARGIN), Math.ceil(maxY - minY + 2 * MARGIN));
+        this.total = count;
+        updateTitle("Exporting " + file.getName());
+    }
+
+    @Override
+    protected File call() throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".part");
+        boolean done = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16);
+                 VectorWriter writer = createWriter(out)) {
+                writer.begin(area);
+                long written = 0;
+                for (BoardItem[] items : layers) {
+                    for (BoardItem item : items) {
+                        if (isCancelled()) {
+                            return null;
+                        }
+                        writer.item(item);
+                        if (++written % 4096 == 0) {
+                            updateProgress(written, total);
+                        }
+                    }
+                }
+                writer.finish();
+            }
+            AtomicFiles.moveIntoPlace(temp, target);
+            done = true;
+            return file;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private VectorWriter createWriter(OutputStream out) {
+        if (file.getName().toLowerCase().endsWith(".pdf")) {
+            return new PdfWriter(out);
+        }
+        return new SvgWriter(out);
+    }
+}
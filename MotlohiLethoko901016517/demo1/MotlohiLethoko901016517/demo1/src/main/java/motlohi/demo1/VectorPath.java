@@ -0,0 +1,118 @@
+package motlohi.demo1;
+
+import javafx.scene.shape.ArcTo;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.CubicCurveTo;
+import javafx.scene.shape.HLineTo;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+import javafx.scene.shape.QuadCurveTo;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.Shape;
+import javafx.scene.shape.VLineTo;
+
+import java.util.Arrays;
+
+// Compact outline of filled shapes such as text glyphs, in board coordinates. Curves are kept
+// as curves so the software rasterizer can flatten them for whatever zoom it renders at.
+public class VectorPath {
+    public static final byte MOVE_TO = 0;
+    public static final byte LINE_TO = 1;
+    public static final byte QUAD_TO = 2;
+    public static final byte CUBIC_TO = 3;
+    public static final byte CLOSE = 4;
+
+    private byte[] ops;
+    private float[] coords;
+    private int opCount;
+    private int coordCount;
+
+    public VectorPath() {
+        this.ops = new byte[16];
+        this.coords = new float[32];
+    }
+
+    public void moveTo(double x, double y) {
+        addOp(MOVE_TO, x, y);
+    }
+
+    public void lineTo(double x, double y) {
+        addOp(LINE_TO, x, y);
+    }
+
+    public void quadTo(double cx, double cy, double x, double y) {
+        addOp(QUAD_TO, cx, cy, x, y);
+    }
+
+    public void cubicTo(double c1x, double c1y, double c2x, double c2y, double x, double y) {
+        addOp(CUBIC_TO, c1x, c1y, c2x, c2y, x, y);
+    }
+
+    public void close() {
+        addOp(CLOSE);
+    }
+
+    // Appends the filled outline of a shape, e.g. a Text node positioned on the board
+    public void append(Shape shape) {
+        Path path = (Path) Shape.union(shape, new Rectangle());
+        double x = 0, y = 0;
+        for (PathElement element : path.getElements()) {
+            if (element instanceof MoveTo) {
+                MoveTo moveTo = (MoveTo) element;
+                moveTo(x = moveTo.getX(), y = moveTo.getY());
+            } else if (element instanceof LineTo) {
+                LineTo lineTo = (LineTo) element;
+                lineTo(x = lineTo.getX(), y = lineTo.getY());
+            } else if (element instanceof QuadCurveTo) {
+                QuadCurveTo quad = (QuadCurveTo) element;
+                quadTo(quad.getControlX(), quad.getControlY(), x = quad.getX(), y = quad.getY());
+            } else if (element instanceof CubicCurveTo) {
+                CubicCurveTo cubic = (CubicCurveTo) element;
+                cubicTo(cubic.getControlX1(), cubic.getControlY1(), cubic.getControlX2(), cubic.getControlY2(),
+                        x = cubic.getX(), y = cubic.getY());
+            } else if (element instanceof HLineTo) {
+                lineTo(x = ((HLineTo) element).getX(), y);
+            } else if (element instanceof VLineTo) {
+                lineTo(x, y = ((VLineTo) element).getY());
+            } else if (element instanceof ArcTo) {
+                // Never produced for glyph outlines; approximated by its chord
+                ArcTo arcTo = (ArcTo) element;
+                lineTo(x = arcTo.getX(), y = arcTo.getY());
+            } else if (element instanceof ClosePath) {
+                close();
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return opCount == 0;
+    }
+
+    public int getOpCount() {
+        return opCount;
+    }
+
+    public byte getOp(int index) {
+        return ops[index];
+    }
+
+    // Coordinates of all ops in order: two for a move or line, four for a quad, six for a cubic
+    public float[] getCoords() {
+        return coords;
+    }
+
+    private void addOp(byte op, double... values) {
+        if (opCount == ops.length) {
+            ops = Arrays.copyOf(ops, ops.length * 2);
+        }
+        if (coordCount + values.length > coords.length) {
+            coords = Arrays.copyOf(coords, Math.max(coords.length * 2, coordCount + values.length));
+        }
+        ops[opCount++] = op;
+        for (double value : values) {
+            coords[coordCount++] = (float) value;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Base of the vector exporters. Items are written one at a time as the board's model is
+// walked, through a small buffer straight to the output, so memory use does not grow with
+// the board. Numbers are formatted by hand to two decimals, which is finer than any screen
+// or printer needs and much cheaper than String.format on boards with millions of points.
+public abstract class VectorWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream file;
+    private final byte[] buffer;
+    private final OutputStream bytes;
+    private OutputStream sink;
+    private int count;
+    private boolean finished;
+
+    protected VectorWriter(OutputStream out) {
+        this.file = new CountingOutputStream(out);
+        this.buffer = new byte[BUFFER_SIZE];
+        this.sink = file;
+        this.bytes = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                VectorWriter.this.write((byte) b);
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                VectorWriter.this.write(data, offset, length);
+            }
+        };
+    }
+
+    // Starts the document; the area is the part of the board it shows, in board units
+    public abstract void begin(Rectangle2D area) throws IOException;
+
+    public abstract void stroke(Stroke stroke) throws IOException;
+
+    public abstract void text(TextBlock text) throws IOException;
+
+    public abstract void image(ImageItem image) throws IOException;
+
+    public abstract void media(MediaPlaceholder media) throws IOException;
+
+    // Writes the end of the document
+    protected abstract void end() throws IOException;
+
+    public void item(BoardItem item) throws IOException {
+        if (item instanceof Stroke) {
+            stroke((Stroke) item);
+        } else if (item instanceof TextBlock) {
+            text((TextBlock) item);
+        } else if (item instanceof ImageItem) {
+            image((ImageItem) item);
+        } else if (item instanceof MediaPlaceholder) {
+            media((MediaPlaceholder) item);
+        } else if (item instanceof VideoItem) {
+            // A clip is exported as the frame it was showing
+            for (ImageItem image : ((VideoItem) item).toImageItems()) {
+                image(image);
+            }
+        }
+    }
+
+    // Ends the document. The underlying stream is flushed but left open.
+    public void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            end();
+            flush();
+        }
+    }
+
+    public long getBytesWritten() {
+        return file.count + (sink == file ? count : 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            file.close();
+        }
+    }
+
+    // Bytes of the output file so far, with the buffer written out first
+    protected long position() throws IOException {
+        flushBuffer();
+        return file.count;
+    }
+
+    // Sends what follows through another stream, such as a compressor writing to the file,
+    // until reset with null. The stream is given the file to write to.
+    protected void redirect(OutputStream to) throws IOException {
+        flushBuffer();
+        sink = to == null ? file : to;
+    }
+
+    // The file itself, kept open when closed, for streams that redirect() sends through
+    protected OutputStream fileStream() {
+        return new FilterOutputStream(file) {
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                out.write(data, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    // This writer as a stream that is never closed, for encoders that write into the output
+    protected OutputStream bytes() {
+        return new FilterOutputStream(bytes) {
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                out.write(data, offset, length);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    protected void flush() throws IOException {
+        flushBuffer();
+        sink.flush();
+    }
+
+    // ASCII only; other characters must be escaped by the caller
+    protected void write(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) text.charAt(i);
+        }
+    }
+
+    protected void write(char c) throws IOException {
+        write((byte) c);
+    }
+
+    protected void write(byte b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = b;
+    }
+
+    protected void write(byte[] data, int offset, int length) throws IOException {
+        if (length > buffer.length - count) {
+            flushBuffer();
+            if (length > buffer.length) {
+                sink.write(data, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(data, offset, buffer, count, length);
+        count += length;
+    }
+
+    // Up to two decimals, without trailing zeros
+    protected void writeNumber(double value) throws IOException {
+        if (count + 24 > buffer.length) {
+            flushBuffer();
+        }
+        long scaled = Math.round(value * 100);
+        if (scaled < 0) {
+            buffer[count++] = '-';
+            scaled = -scaled;
+        }
+        long whole = scaled / 100;
+        int fraction = (int) (scaled % 100);
+        writeDigits(whole);
+        if (fraction != 0) {
+            buffer[count++] = '.';
+            buffer[count++] = (byte) ('0' + fraction / 10);
+            if (fraction % 10 != 0) {
+                buffer[count++] = (byte) ('0' + fraction % 10);
+            }
+        }
+    }
+
+    protected void writeInteger(long value) throws IOException {
+        if (count + 20 > buffer.length) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        writeDigits(value);
+    }
+
+    // A color as #rrggbb, ignoring its opacity
+    protected void writeHexColor(Color color) throws IOException {
+        int rgb = ((int) Math.round(color.getRed() * 255) << 16)
+                | ((int) Math.round(color.getGreen() * 255) << 8)
+                | (int) Math.round(color.getBlue() * 255);
+        write('#');
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            write((byte) Character.forDigit((rgb >> shift) & 0xF, 16));
+        }
+    }
+
+    private void writeDigits(long value) {
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            sink.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            out.write(data, offset, length);
+            count += length;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package motlohi.demo1;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Node;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.media.MediaView;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Plays the video clips on the board and composites their frames into it. Clips in view
+// play through the MediaManager, which pauses the rest and caps how many run. Each new frame
+// is captured at the size the clip covers on screen and handed to its item, and just the
+// background layer is rendered again under it, so ink over a playing clip stays on top
+// without being redrawn. Frames are capped to a rate, and are skipped rather than queued
+// when the FX thread is behind, when the grabs in a pulse have used their share of it,
+// while the clip's last frame is still being rendered, or while ink is being drawn, so any
+// number of clips cannot slow the pen down.
+public class VideoCompositor {
+    public static final double DEFAULT_MAX_FPS = 24;
+    private static final long PULSE_BUDGET_NANOS = 4_000_000; // FX time for frame grabs per pulse
+    private static final long LATE_PULSE_NANOS = 25_000_000; // A pulse gap this long means the FX thread is behind
+
+    private final BoardView view;
+    private final LayerStack layers;
+    private final Node display; // Where the board is shown, for the manager to tell when it is hidden
+    private final Map<VideoItem, Playback> playbacks; // Clips that have been on screen, by item
+    private final AnimationTimer compositor;
+    private long frameIntervalNanos;
+    private int clipCount; // Clips on the background layer
+    private long lastPulse;
+    private int firstGrab; // Rotates which clip grabs first, so a tight budget is shared fairly
+    private boolean isHeld;
+    private boolean isRunning;
+    private long framesComposited;
+    private long framesSkipped;
+
+    public VideoCompositor(BoardView view, LayerStack layers, Node display) {
+        this.view = view;
+        this.layers = layers;
+        this.display = display;
+        this.playbacks = new IdentityHashMap<>();
+        this.compositor = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                composite(now);
+            }
+        };
+        setMaxFps(Double.parseDouble(System.getProperty("whiteboard.videoFps", String.valueOf(DEFAULT_MAX_FPS))));
+
+        // Clips may arrive by a drop, undo, opening a board or replaying the journal. Clips taken
+        // off the board are let go at once, whether or not the timer is running.
+        layers.getLayer(LayerStack.BACKGROUND).getDocument().addListener(new BoardDocument.Listener() {
+            @Override
+            public void itemAdded(BoardDocument document, long orderKey, BoardItem item) {
+                if (item instanceof VideoItem) {
+                    clipCount++;
+                    start();
+                }
+            }
+
+            @Override
+            public void itemRemoved(BoardDocument document, long orderKey, BoardItem item) {
+                if (item instanceof VideoItem) {
+                    clipCount--;
+                    Playback playback = playbacks.remove(item);
+                    if (playback != null) {
+                        playback.handle.release();
+                    }
+                }
+            }
+
+            @Override
+            public void cleared(BoardDocument document) {
+                clipCount = 0;
+                releaseAll();
+            }
+        });
+        // A pan, zoom or layer toggle may bring a clip into view
+        view.addViewListener(() -> {
+            if (clipCount > 0) {
+                start();
+            }
+        });
+    }
+
+    // Caps how often each clip's frame is composited; -Dwhiteboard.videoFps sets the default
+    public void setMaxFps(double fps) {
+        this.frameIntervalNanos = (long) (1_000_000_000 / Math.max(1, fps));
+    }
+
+    // Starts compositing the clips in view; the timer stops itself once none are
+    public void start() {
+        if (!isRunning) {
+            isRunning = true;
+            lastPulse = 0;
+            compositor.start();
+        }
+    }
+
+    // Stops compositing and releases every player
+    public void stop() {
+        compositor.stop();
+        isRunning = false;
+        releaseAll();
+    }
+
+    // While held, clips keep playing but no frames reach the board, e.g. while live ink is
+    // drawn straight onto the screen canvas, where a finished tile would paint over it
+    public void setHeld(boolean held) {
+        this.isHeld = held;
+    }
+
+    public long getFramesComposited() {
+        return framesComposited;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    public int getPlayingCount() {
+        int playing = 0;
+        for (Playback playback : playbacks.values()) {
+            if (playback.isPlaying()) {
+                playing++;
+            }
+        }
+        return playing;
+    }
+
+    private void composite(long now) {
+        long gap = lastPulse == 0 ? 0 : now - lastPulse;
+        lastPulse = now;
+
+        Layer layer = layers.getLayer(LayerStack.BACKGROUND);
+        BoardDocument document = layer.getDocument();
+        Rectangle2D visible = view.getVisibleBounds();
+        List<VideoItem> shown = new ArrayList<>();
+        if (layer.isVisible()) {
+            for (BoardItem item : document.query(visible)) {
+                if (item instanceof VideoItem && item.getBounds().intersects(visible)) {
+                    shown.add((VideoItem) item);
+                }
+            }
+        }
+
+        // Clips scrolled out of view are paused, and their players disposed once idle for a
+        // while. With none in view there is nothing to composite until the view changes.
+        for (Map.Entry<VideoItem, Playback> entry : playbacks.entrySet()) {
+            if (!shown.contains(entry.getKey())) {
+                entry.getValue().handle.setShown(false);
+            }
+        }
+        if (shown.isEmpty()) {
+            compositor.stop();
+            isRunning = false;
+            return;
+        }
+        for (VideoItem item : shown) {
+            playbacks.computeIfAbsent(item, key -> new Playback(key, display)).handle.setShown(true);
+        }
+
+        // A late pulse means the FX thread is already over budget; this pulse's frames are dropped
+        boolean late = gap > LATE_PULSE_NANOS;
+        boolean composited = false;
+        long started = System.nanoTime();
+        int count = shown.size();
+        for (int i = 0; i < count; i++) {
+            VideoItem item = shown.get((firstGrab + i) % count);
+            Playback playback = playbacks.get(item);
+            if (!playback.hasNewFrame(now, frameIntervalNanos)) {
+                continue;
+            }
+            if (isHeld || late || System.nanoTime() - started > PULSE_BUDGET_NANOS
+                    || view.isRendering(item.getBounds())) {
+                // Dropped, not queued: the clip waits a whole interval for its next frame
+                playback.lastGrab = now;
+                framesSkipped++;
+                continue;
+            }
+            if (playback.grab(item, view.getScale(), now)) {
+                document.markDirty(item.getBounds());
+                framesComposited++;
+                composited = true;
+            }
+        }
+        firstGrab++;
+        if (composited) {
+            view.refresh();
+        }
+    }
+
+    private void releaseAll() {
+        for (Playback playback : playbacks.values()) {
+            playback.handle.release();
+        }
+        playbacks.clear();
+    }
+
+    // A clip's player handle and the offscreen view its frames are captured from
+    private static class Playback {
+        private final MediaManager.Handle handle;
+        private final MediaView mediaView;
+        private WritableImage snapshot;
+        private Duration lastTime;
+        private long lastGrab;
+
+        private Playback(VideoItem item, Node display) {
+            this.mediaView = new MediaView();
+            mediaView.setPreserveRatio(false);
+            this.handle = MediaManager.getShared().open(item.getSource(), display, player -> {
+                mediaView.setMediaPlayer(player);
+                if (player == null) {
+                    snapshot = null;
+                }
+            });
+            // Board clips loop silently; their sound is played from the media panel
+            handle.setMuted(true);
+            handle.setLooping(true);
+            handle.play();
+        }
+
+        private boolean isPlaying() {
+            MediaPlayer player = handle.getPlayer();
+            return player != null && player.getStatus() == MediaPlayer.Status.PLAYING;
+        }
+
+        // Whether the player has moved on since the last grab and the frame interval has passed
+        private boolean hasNewFrame(long now, long interval) {
+            return isPlaying() && now - lastGrab >= interval && !handle.getPlayer().getCurrentTime().equals(lastTime);
+        }
+
+        // Captures the current frame at the size the item covers on screen, but never above the
+        // clip's own, and gives it to the item
+        private boolean grab(VideoItem item, double scale, long now) {
+            MediaPlayer player = handle.getPlayer();
+            Media media = player.getMedia();
+            if (media.getWidth() <= 0 || media.getHeight() <= 0) {
+                return false;
+            }
+            double fit = Math.min(1, Math.min(item.getWidth() * scale / media.getWidth(),
+                    item.getHeight() * scale / media.getHeight()));
+            int width = (int) Math.max(1, Math.round(media.getWidth() * fit));
+            int height = (int) Math.max(1, Math.round(media.getHeight() * fit));
+            mediaView.setFitWidth(width);
+            mediaView.setFitHeight(height);
+            if (snapshot == null || snapshot.getWidth() != width || snapshot.getHeight() != height) {
+                snapshot = new WritableImage(width, height);
+            }
+            mediaView.snapshot(null, snapshot);
+
+            // A new array per frame, as tiles may still be rendering from the last one
+            int[] pixels = new int[width * height];
+            snapshot.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+            item.setFrame(pixels, width, height);
+            lastTime = player.getCurrentTime();
+            lastGrab = now;
+            return true;
+        }
+    }
+}
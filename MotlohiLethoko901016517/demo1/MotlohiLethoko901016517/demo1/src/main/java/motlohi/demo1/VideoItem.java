@@ -0,0 +1,128 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A video clip placed on the board. Only the clip's address is stored; while it is on screen
+// a VideoCompositor plays it and hands the item each frame it composites, and the board
+// shows the last frame it got, letterboxed in the item's bounds. Before the first frame,
+// or after the board is reopened, the clip is a black box.
+public class VideoItem implements BoardItem {
+    private final String source; // Media URL
+    private final String name;
+    private final double x;
+    private final double y;
+    private final double width;
+    private final double height;
+    private volatile Frame frame; // Set on the FX thread, read by tile renders
+
+    public VideoItem(String source, String name, double x, double y, double width, double height) {
+        this.source = source;
+        this.name = name;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    // Premultiplied ARGB pixels of the frame to show; the array must not be changed afterwards
+    public void setFrame(int[] pixels, int frameWidth, int frameHeight) {
+        this.frame = new Frame(pixels, frameWidth, frameHeight);
+    }
+
+    @Override
+    public void render(GraphicsContext gc) {
+        gc.setFill(Color.BLACK);
+        gc.fillRect(x, y, width, height);
+        Frame current = frame;
+        if (current != null) {
+            Rectangle2D fitted = current.fit(x, y, width, height);
+            gc.drawImage(current.toImage(), fitted.getMinX(), fitted.getMinY(), fitted.getWidth(), fitted.getHeight());
+        }
+    }
+
+    @Override
+    public void rasterize(Raster raster) {
+        raster.fillRect(x, y, width, height, Color.BLACK);
+        Frame current = frame;
+        if (current != null) {
+            Rectangle2D fitted = current.fit(x, y, width, height);
+            raster.drawImage(current.pixels, current.width, current.height,
+                    fitted.getMinX(), fitted.getMinY(), fitted.getWidth(), fitted.getHeight());
+        }
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        return new Rectangle2D(x, y, width, height);
+    }
+
+    // The clip as pictures, for writers that only know pictures: the black box, as one pixel
+    // stretched over it, and then the frame showing, if any
+    public List<ImageItem> toImageItems() {
+        List<ImageItem> images = new ArrayList<>(2);
+        images.add(new ImageItem(new Frame(new int[]{0xFF000000}, 1, 1).toImage(), x, y, width, height));
+        Frame current = frame;
+        if (current != null) {
+            Rectangle2D fitted = current.fit(x, y, width, height);
+            images.add(new ImageItem(current.toImage(), fitted.getMinX(), fitted.getMinY(),
+                    fitted.getWidth(), fitted.getHeight()));
+        }
+        return images;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    private static class Frame {
+        private final int[] pixels;
+        private final int width;
+        private final int height;
+
+        private Frame(int[] pixels, int width, int height) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+
+        // The largest area of the frame's shape centred in a box
+        private Rectangle2D fit(double x, double y, double boxWidth, double boxHeight) {
+            double scale = Math.min(boxWidth / width, boxHeight / height);
+            double w = width * scale, h = height * scale;
+            return new Rectangle2D(x + (boxWidth - w) / 2, y + (boxHeight - h) / 2, w, h);
+        }
+
+        private WritableImage toImage() {
+            WritableImage image = new WritableImage(width, height);
+            image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+            return image;
+        }
+    }
+}
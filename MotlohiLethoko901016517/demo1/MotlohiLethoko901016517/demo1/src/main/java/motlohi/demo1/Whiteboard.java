@@ -7,23 +7,35 @@ public class Whiteboard {
     private final DrawingCanvas drawingCanvas;
     private final ToolBar toolBar;
     private final MediaPanel mediaPanel;
+    private final LayerPanel layerPanel;
+    private final SessionJournal journal;
 
     public Whiteboard() {
         this.root = new BorderPane();
         this.drawingCanvas = new DrawingCanvas();
         this.mediaPanel = new MediaPanel(drawingCanvas);
+        this.layerPanel = new LayerPanel(drawingCanvas);
+        this.journal = new SessionJournal(SessionJournal.defaultDirectory(), drawingCanvas);
+        drawingCanvas.setJournal(journal);
         this.toolBar = new ToolBar(drawingCanvas, mediaPanel);
 
         initializeLayout();
+        journal.start();
     }
 
     private void initializeLayout() {
         root.setCenter(drawingCanvas.getCanvasContainer());
         root.setBottom(toolBar.getToolbar());
         root.setRight(mediaPanel.getMediaBox());
+        root.setLeft(layerPanel.getLayerBox());
     }
 
     public BorderPane getRoot() {
         return root;
     }
+
+    // Flushes the journal so nothing drawn just before closing is lost
+    public void close() {
+        journal.close();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package motlohi.demo1;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The .wbd encodings read back what was written: varints, strokes at the fixed-point
+// coordinate scale, the chunk index, and the previous index when a save was cut short
+class BoardFormatTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void varintsRoundTrip() {
+        long[] values = {0, 1, -1, 63, -64, 64, -65, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Long.MAX_VALUE, Long.MIN_VALUE};
+        BinaryWriter out = new BinaryWriter(1);
+        for (long value : values) {
+            out.writeSignedVarLong(value);
+            out.writeVarLong(value);
+        }
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        for (long value : values) {
+            assertEquals(value, BoardCodec.readSignedVarLong(in));
+            assertEquals(value, BoardCodec.readVarLong(in));
+        }
+        assertFalse(in.hasRemaining());
+
+        // Zigzag keeps small magnitudes of either sign to one byte
+        out.reset();
+        out.writeSignedVarLong(-64);
+        out.writeSignedVarLong(63);
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    void strokesRoundTripAtTheCoordinateScale() {
+        Random random = new Random(3);
+        for (int s = 0; s < 100; s++) {
+            float[] points = new float[2 * (2 + random.nextInt(200))];
+            for (int i = 0; i < points.length; i++) {
+                // Multiples of the coordinate step are stored exactly, wherever on the board
+                points[i] = (float) (random.nextInt(1 << 22) - (1 << 21)) / BoardCodec.COORDINATE_SCALE;
+            }
+            Stroke stroke = new Stroke(Color.rgb(random.nextInt(256), 12, 200, 0.6), 1 + random.nextInt(20), points,
+                    s % 2 == 0);
+            BinaryWriter out = new BinaryWriter();
+            BoardCodec.writeItem(out, stroke);
+            ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+            Stroke read = (Stroke) BoardCodec.readItem(in);
+
+            assertFalse(in.hasRemaining());
+            assertArrayEquals(points, read.getPoints());
+            assertEquals(stroke.getWidth(), read.getWidth());
+            assertEquals(stroke.isCubic(), read.isCubic());
+            assertEquals(stroke.getColor().toString(), read.getColor().toString());
+        }
+
+        // Anything else is rounded to the nearest step
+        Stroke offGrid = new Stroke(Color.BLACK, 2, new float[]{0.01f, 10.02f, -3.3f, 7.77f});
+        BinaryWriter out = new BinaryWriter();
+        BoardCodec.writeItem(out, offGrid);
+        float[] read = ((Stroke) BoardCodec.readItem(ByteBuffer.wrap(out.toByteArray()))).getPoints();
+        for (int i = 0; i < read.length; i++) {
+            assertEquals(offGrid.getPoints()[i], read[i], 0.5 / BoardCodec.COORDINATE_SCALE);
+        }
+    }
+
+    @Test
+    void chunkIndexListsEveryCellWithItsBounds() throws IOException {
+        LayerStack stack = new LayerStack();
+        BoardDocument ink = stack.getLayer(LayerStack.INK).getDocument();
+        BoardDocument background = stack.getLayer(LayerStack.BACKGROUND).getDocument();
+        int[][] cells = {{0, 0}, {1, 0}, {-1, 2}, {5, -3}};
+        for (int[] cell : cells) {
+            for (int i = 0; i < 10; i++) {
+                ink.add(BoardStoreTest.strokeIn(cell[0], cell[1], i));
+            }
+        }
+        background.add(BoardStoreTest.strokeIn(0, 0, 99));
+        Path file = directory.resolve("board.wbd");
+        new BoardStore(file, stack).saveNow(7);
+
+        try (BoardFileReader reader = new BoardFileReader(file)) {
+            assertEquals(7, reader.getSequence());
+            assertEquals(Files.size(file), reader.getFileEnd());
+            assertEquals(41, reader.getItemCount());
+            List<BoardFileReader.LayerInfo> layers = reader.getLayers();
+            assertEquals(List.of(LayerStack.BACKGROUND, LayerStack.INK, LayerStack.ANNOTATIONS),
+                    List.of(layers.get(0).getName(), layers.get(1).getName(), layers.get(2).getName()));
+            assertEquals(ink.getMaxOrderKey(), layers.get(1).getMaxOrderKey());
+
+            assertEquals(cells.length + 1, reader.getChunks().size());
+            for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+                BoardDocument document = chunk.getLayerIndex() == 0 ? background : ink;
+                assertEquals(BoardFormat.HASH_SIZE, chunk.getHash().length);
+                reader.readChunk(chunk, (layerIndex, orderKey, item) -> {
+                    assertEquals(chunk.getLayerIndex(), layerIndex);
+                    assertTrue(chunk.getBounds().contains(item.getBounds()), "chunk bounds miss an item");
+                    assertEquals(chunk.getCellX(), BoardFormat.cellOf(item.getBounds().getMinX(), item.getBounds().getMaxX()));
+                    assertEquals(chunk.getCellY(), BoardFormat.cellOf(item.getBounds().getMinY(), item.getBounds().getMaxY()));
+                    assertTrue(document.hasOrderKey(orderKey));
+                });
+            }
+        }
+        assertEquals(BoardStoreTest.contents(stack), BoardStoreTest.contents(file));
+    }
+
+    @Test
+    void tornSaveFallsBackToThePreviousIndex() throws IOException {
+        LayerStack stack = new LayerStack();
+        BoardDocument ink = stack.getLayer(LayerStack.INK).getDocument();
+        for (int i = 0; i < 20; i++) {
+            ink.add(BoardStoreTest.strokeIn(i % 3, 0, i));
+        }
+        Path file = directory.resolve("board.wbd");
+        BoardStore store = new BoardStore(file, stack);
+        store.saveNow(1);
+        long firstEnd = Files.size(file);
+        var first = BoardStoreTest.contents(file);
+
+        ink.add(BoardStoreTest.strokeIn(2, 0, 50));
+        store.saveNow(2);
+        long secondEnd = Files.size(file);
+        assertTrue(secondEnd > firstEnd, "the second save did not append");
+
+        // Every cut inside the second save's append leaves the first save readable
+        for (long cut : new long[]{secondEnd - 1, secondEnd - BoardFormat.TRAILER_SIZE, (firstEnd + secondEnd) / 2,
+                firstEnd + 1}) {
+            Path torn = directory.resolve("torn-" + cut + ".wbd");
+            Files.copy(file, torn);
+            try (FileChannel channel = FileChannel.open(torn, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+            try (BoardFileReader reader = new BoardFileReader(torn)) {
+                assertEquals(1, reader.getSequence(), "cut at " + cut);
+                assertEquals(firstEnd, reader.getFileEnd());
+            }
+            assertEquals(first, BoardStoreTest.contents(torn));
+        }
+
+        // Nothing but a header is not a board
+        Path empty = directory.resolve("empty.wbd");
+        Files.write(empty, Files.readAllBytes(file), StandardOpenOption.CREATE_NEW);
+        try (FileChannel channel = FileChannel.open(empty, StandardOpenOption.WRITE)) {
+            channel.truncate(BoardFormat.HEADER_SIZE + BoardFormat.TRAILER_SIZE);
+        }
+        assertThrows(IOException.class, () -> new BoardFileReader(empty).close());
+    }
+}
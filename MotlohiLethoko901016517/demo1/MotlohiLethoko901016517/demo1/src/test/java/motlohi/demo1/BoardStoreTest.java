@@ -0,0 +1,216 @@
+package motlohi.demo1;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A save after an edit appends only the edited cell's chunks and a new index, the file reads
+// back as the board with its order keys, and compaction keeps it that way
+class BoardStoreTest {
+    private static final int CELLS = 4;
+    private static final int ITEMS_PER_CELL = 30;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void saveAfterAnEditAppendsOnlyThatCell() throws IOException {
+        LayerStack stack = new LayerStack();
+        BoardDocument ink = stack.getLayer(LayerStack.INK).getDocument();
+        for (int cell = 0; cell < CELLS; cell++) {
+            for (int i = 0; i < ITEMS_PER_CELL; i++) {
+                ink.add(strokeIn(cell, cell % 2, i));
+            }
+        }
+        stack.getLayer(LayerStack.BACKGROUND).getDocument().add(strokeIn(0, 0, 1));
+        Path file = directory.resolve("board.wbd");
+        BoardStore store = new BoardStore(file, stack);
+        store.saveNow(1);
+        long firstEnd = Files.size(file);
+        Map<String, Long> firstOffsets = chunkOffsets(file);
+        assertEquals(contents(stack), contents(file));
+
+        // Nothing changed, nothing written
+        assertEquals(0, store.saveNow(1));
+
+        // Replace one stroke of cell (2, 0)
+        BoardItem replaced = ink.query(strokeIn(2, 0, 5).getBounds()).get(0);
+        long replacedKey = ink.getOrderKey(replaced);
+        ink.remove(replaced);
+        ink.add(strokeIn(2, 0, 77), replacedKey);
+        long appended = store.saveNow(2);
+
+        assertEquals(Files.size(file) - firstEnd, appended);
+        assertEquals(contents(stack), contents(file));
+        assertOnlyCellAppended(file, firstEnd, firstOffsets, "Ink/2/0");
+
+        // Opened again, as the loader does, and edited in another cell
+        LayerStack reopened = new LayerStack();
+        BoardStore reopenedStore = new BoardStore(file, reopened);
+        long secondEnd = Files.size(file);
+        Map<String, Long> secondOffsets = chunkOffsets(file);
+        try (BoardFileReader reader = new BoardFileReader(file)) {
+            reopenedStore.setIgnoring(true);
+            for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+                String layer = reader.getLayers().get(chunk.getLayerIndex()).getName();
+                reader.readChunk(chunk, (layerIndex, orderKey, item) ->
+                        reopened.getLayer(layer).getDocument().add(item, orderKey));
+            }
+            reopenedStore.setIgnoring(false);
+            reopenedStore.load(reader);
+        }
+        assertEquals(contents(stack), contents(reopened));
+
+        reopened.getLayer(LayerStack.INK).getDocument().add(strokeIn(3, 1, 12));
+        reopenedStore.saveNow(3);
+        assertEquals(contents(reopened), contents(file));
+        assertOnlyCellAppended(file, secondEnd, secondOffsets, "Ink/3/1");
+    }
+
+    @Test
+    void compactionKeepsEveryItemAndOrderKey() throws IOException {
+        LayerStack stack = new LayerStack();
+        BoardDocument ink = stack.getLayer(LayerStack.INK).getDocument();
+        for (int cell = 0; cell < CELLS; cell++) {
+            for (int i = 0; i < ITEMS_PER_CELL; i++) {
+                ink.add(strokeIn(cell, 0, i));
+            }
+        }
+        Path file = directory.resolve("board.wbd");
+        BoardStore store = new BoardStore(file, stack);
+        store.saveNow(1);
+
+        // Redrawing one long stroke over and over leaves its old chunks behind as garbage
+        // until a save compacts the file
+        Stroke scribble = longStroke(0);
+        ink.add(scribble);
+        long scribbleKey = ink.getOrderKey(scribble);
+        long previousSize = 0;
+        boolean compacted = false;
+        for (int save = 2; save < 400 && !compacted; save++) {
+            ink.remove(scribble);
+            scribble = longStroke(save);
+            ink.add(scribble, scribbleKey);
+            store.saveNow(save);
+            long size = Files.size(file);
+            compacted = size < previousSize;
+            previousSize = size;
+        }
+
+        assertTrue(compacted, "the file was never compacted");
+        assertEquals(contents(stack), contents(file));
+        ink.add(strokeIn(1, 0, 90));
+        long end = Files.size(file);
+        Map<String, Long> offsets = chunkOffsets(file);
+        store.saveNow(1000);
+        assertEquals(contents(stack), contents(file));
+        assertOnlyCellAppended(file, end, offsets, "Ink/1/0");
+    }
+
+    // A short stroke inside a grid cell, placed by its index
+    static Stroke strokeIn(int cellX, int cellY, int index) {
+        double x = cellX * BoardFormat.CELL_SIZE + 64 + (index * 97) % 1800;
+        double y = cellY * BoardFormat.CELL_SIZE + 64 + (index * 53) % 1800;
+        float[] points = new float[16];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = (float) x + i * 3;
+            points[i + 1] = (float) y + (i * i) % 11;
+        }
+        return new Stroke(Color.hsb(index * 10 % 360, 1, 1), 2 + index % 5, points);
+    }
+
+    // A stroke too long to share a chunk with anything, different for each seed
+    private static Stroke longStroke(int seed) {
+        float[] points = new float[40_000];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = 100 + (i % 1700) + seed / 32f;
+            points[i + 1] = 100 + ((i * 31 + seed) % 1700);
+        }
+        return new Stroke(Color.BLACK, 3, points);
+    }
+
+    // Every layer's items by order key, as their encoded bytes
+    static Map<String, TreeMap<Long, String>> contents(LayerStack stack) {
+        Map<String, TreeMap<Long, String>> contents = new HashMap<>();
+        for (Layer layer : stack.getLayers()) {
+            BoardDocument document = layer.getDocument();
+            for (BoardItem item : document.getItems()) {
+                contents.computeIfAbsent(layer.getName(), name -> new TreeMap<>())
+                        .put(document.getOrderKey(item), encode(item));
+            }
+        }
+        return contents;
+    }
+
+    static Map<String, TreeMap<Long, String>> contents(Path file) throws IOException {
+        Map<String, TreeMap<Long, String>> contents = new HashMap<>();
+        try (BoardFileReader reader = new BoardFileReader(file)) {
+            List<BoardFileReader.LayerInfo> layers = reader.getLayers();
+            for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+                reader.readChunk(chunk, (layerIndex, orderKey, item) -> {
+                    String previous = contents.computeIfAbsent(layers.get(layerIndex).getName(), name -> new TreeMap<>())
+                            .put(orderKey, encode(item));
+                    assertEquals(null, previous, "order key " + orderKey + " is in the file twice");
+                });
+            }
+        }
+        return contents;
+    }
+
+    private static String encode(BoardItem item) {
+        BinaryWriter out = new BinaryWriter();
+        BoardCodec.writeItem(out, item);
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    // Where each chunk is, by its layer, cell and place in the cell
+    private static Map<String, Long> chunkOffsets(Path file) throws IOException {
+        Map<String, Long> offsets = new HashMap<>();
+        try (BoardFileReader reader = new BoardFileReader(file)) {
+            Map<String, Integer> perCell = new HashMap<>();
+            for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+                String cell = cellName(reader, chunk);
+                int number = perCell.merge(cell, 1, Integer::sum);
+                offsets.put(cell + "#" + number, chunk.getOffset());
+            }
+        }
+        return offsets;
+    }
+
+    private static String cellName(BoardFileReader reader, BoardFileReader.Chunk chunk) {
+        return reader.getLayers().get(chunk.getLayerIndex()).getName() + "/" + chunk.getCellX() + "/" + chunk.getCellY();
+    }
+
+    // Chunks past the old end all belong to the edited cell, and every other cell's chunks
+    // are still the ones written before
+    private static void assertOnlyCellAppended(Path file, long oldEnd, Map<String, Long> oldOffsets, String edited)
+            throws IOException {
+        int appended = 0;
+        try (BoardFileReader reader = new BoardFileReader(file)) {
+            for (BoardFileReader.Chunk chunk : reader.getChunks()) {
+                if (chunk.getOffset() >= oldEnd) {
+                    assertEquals(edited, cellName(reader, chunk), "a chunk of an unchanged cell was written again");
+                    appended++;
+                }
+            }
+        }
+        assertTrue(appended > 0, "the edited cell was not written");
+        for (Map.Entry<String, Long> chunk : chunkOffsets(file).entrySet()) {
+            if (!chunk.getKey().startsWith(edited + "#")) {
+                assertEquals(oldOffsets.get(chunk.getKey()), chunk.getValue(), chunk.getKey() + " moved");
+            }
+        }
+    }
+}
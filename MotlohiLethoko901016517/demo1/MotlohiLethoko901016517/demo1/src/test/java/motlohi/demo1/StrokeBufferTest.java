@@ -0,0 +1,114 @@
+package motlohi.demo1;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The freehand drag path must not allocate per sample once the buffer has grown
+class StrokeBufferTest {
+    private static final int SAMPLES = 4096;
+    private static final int ROUNDS = 20;
+    private static final int WARM_UP_ROUNDS = 500;
+    private static final int MEASUREMENTS = 3;
+
+    @Test
+    void appendKeepsSamplesInOrder() {
+        StrokeBuffer buffer = new StrokeBuffer(1);
+        for (int i = 0; i < 100; i++) {
+            buffer.append(i, -i);
+        }
+        assertEquals(100, buffer.getPointCount());
+        assertEquals(42f, buffer.getX(42));
+        assertEquals(-42f, buffer.getY(42));
+
+        buffer.clear();
+        buffer.append(1.5, 2.5);
+        assertArrayEquals(new float[]{1.5f, 2.5f}, buffer.toArray());
+    }
+
+    @Test
+    void dragPathDoesNotAllocateAfterWarmUp() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        // The same path DrawingCanvas runs, with a zoomed and panned view's transform
+        StrokeCapture capture = new StrokeCapture(new StrokeBuffer(16), x -> (x + 120) / 1.5, y -> (y - 40) / 1.5);
+        SumPath path = new SumPath();
+
+        // Warm-up grows the buffer to the longest stroke and lets the JIT compile the path
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            drag(capture, path, round);
+        }
+
+        // What reading the counter itself costs, so only the drag path is measured
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+        // The first measurement can include a one-off deoptimization as the warm-up loop is
+        // left; an allocation per sample shows up in every one
+        long allocated = Long.MAX_VALUE;
+        for (int measurement = 0; measurement < MEASUREMENTS; measurement++) {
+            before = threads.getThreadAllocatedBytes(thread);
+            for (int round = 0; round < ROUNDS; round++) {
+                drag(capture, path, round);
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before - overhead);
+        }
+
+        assertEquals(0, allocated, "bytes allocated by " + ROUNDS * SAMPLES + " drag samples (checksum " + path.sum + ")");
+    }
+
+    @Test
+    void pulsesWalkEachSampleOnce() {
+        StrokeCapture capture = new StrokeCapture(new StrokeBuffer(4), x -> x * 2, y -> y * 2);
+        SumPath path = new SumPath();
+        capture.begin(0, 0);
+        capture.dragTo(1, 1);
+        capture.dragTo(2, 2);
+        capture.walkPending(path);
+        assertEquals(1, path.moves);
+        assertEquals(2, path.curves);
+        assertEquals(4f, capture.getBuffer().getX(2));
+
+        capture.walkPending(path);
+        assertEquals(2, path.curves);
+        capture.dragTo(3, 3);
+        capture.walkPending(path);
+        assertEquals(2, path.moves);
+        assertEquals(3, path.curves);
+    }
+
+    // One stroke as DrawingCanvas handles it: every drag event goes through the capture and
+    // every few events a pulse walks the samples it has not drawn yet
+    private static void drag(StrokeCapture capture, SumPath path, int round) {
+        capture.begin(round, -round);
+        for (int i = 0; i < SAMPLES; i++) {
+            capture.dragTo(100 + (i + round) % 500, 80 + (i * 7 + round) % 400);
+            if (i % 8 == 7) {
+                capture.walkPending(path);
+            }
+        }
+        capture.walkPending(path);
+    }
+
+    // Stands in for the canvas's graphics context
+    private static class SumPath implements StrokeCapture.PathSink {
+        private double sum;
+        private int moves;
+        private int curves;
+
+        @Override
+        public void moveTo(double x, double y) {
+            sum += x - y;
+            moves++;
+        }
+
+        @Override
+        public void quadraticCurveTo(double controlX, double controlY, double x, double y) {
+            sum += controlX + x - controlY - y;
+            curves++;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package motlohi.demo1;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The fitted curve must stay within the fit tolerance of the thinned samples, both at the
+// samples and everywhere between them
+class StrokeSimplifierTest {
+    private static final int STROKES = 200;
+    private static final double CURVE_STEP = 0.1; // Board distance between checked curve points
+
+    @Test
+    void fitStaysWithinToleranceOnRandomWalks() {
+        Random random = new Random(7);
+        double tolerance = StrokeSimplifier.FIT_TOLERANCE;
+        double worstOff = 0, worstMissed = 0;
+        for (int s = 0; s < STROKES; s++) {
+            float[] samples = randomWalk(random, 20 + random.nextInt(100));
+            float[] thinned = StrokeSimplifier.douglasPeucker(samples, StrokeSimplifier.SIMPLIFY_TOLERANCE);
+            if (thinned.length < 6) {
+                continue;
+            }
+            float[] curve = StrokeSimplifier.fitCubics(thinned, tolerance);
+            assertEquals(thinned[0], curve[0]);
+            assertEquals(thinned[thinned.length - 1], curve[curve.length - 1]);
+
+            float[] points = flatten(curve);
+            for (int i = 0; i < points.length; i += 2) {
+                worstOff = Math.max(worstOff, Math.sqrt(distanceSq(points[i], points[i + 1], thinned)));
+            }
+            for (int i = 0; i < thinned.length; i += 2) {
+                worstMissed = Math.max(worstMissed, Math.sqrt(distanceSq(thinned[i], thinned[i + 1], points)));
+            }
+        }
+        assertTrue(worstOff <= tolerance, "curve strays " + worstOff + " from the samples");
+        // The curve is only checked at points CURVE_STEP apart
+        assertTrue(worstMissed <= tolerance + CURVE_STEP, "samples lie " + worstMissed + " from the curve");
+    }
+
+    @Test
+    void shortStrokesStayPolylines() {
+        Stroke stroke = StrokeSimplifier.buildStroke(null, 2, new float[]{0, 0, 10, 0, 20, 0}, 1);
+        assertEquals(2, stroke.toPolyline().length / 2);
+    }
+
+    // Pen-like motion: a heading that drifts and sometimes turns sharply, at varying speed
+    private static float[] randomWalk(Random random, int count) {
+        float[] points = new float[count * 2];
+        double x = 0, y = 0, heading = random.nextDouble() * Math.PI * 2;
+        for (int i = 0; i < count; i++) {
+            points[i * 2] = (float) x;
+            points[i * 2 + 1] = (float) y;
+            heading += random.nextInt(10) == 0 ? (random.nextDouble() - 0.5) * Math.PI * 1.5 : random.nextGaussian() * 0.3;
+            double speed = 1 + random.nextDouble() * 8;
+            x += Math.cos(heading) * speed;
+            y += Math.sin(heading) * speed;
+        }
+        return points;
+    }
+
+    // The cubics as a polyline with points at most about CURVE_STEP apart
+    private static float[] flatten(float[] curve) {
+        int size = 2;
+        float[] points = new float[1024];
+        points[0] = curve[0];
+        points[1] = curve[1];
+        for (int i = 2; i + 5 < curve.length; i += 6) {
+            double x0 = curve[i - 2], y0 = curve[i - 1];
+            double polygon = Math.hypot(curve[i] - x0, curve[i + 1] - y0)
+                    + Math.hypot(curve[i + 2] - curve[i], curve[i + 3] - curve[i + 1])
+                    + Math.hypot(curve[i + 4] - curve[i + 2], curve[i + 5] - curve[i + 3]);
+            int steps = Math.max(1, (int) Math.ceil(polygon / CURVE_STEP));
+            for (int k = 1; k <= steps; k++) {
+                double t = (double) k / steps, mt = 1 - t;
+                double a = mt * mt * mt, b = 3 * t * mt * mt, c = 3 * t * t * mt, d = t * t * t;
+                if (size + 2 > points.length) {
+                    points = Arrays.copyOf(points, points.length * 2);
+                }
+                points[size++] = (float) (a * x0 + b * curve[i] + c * curve[i + 2] + d * curve[i + 4]);
+                points[size++] = (float) (a * y0 + b * curve[i + 1] + c * curve[i + 3] + d * curve[i + 5]);
+            }
+        }
+        return Arrays.copyOf(points, size);
+    }
+
+    // Squared distance from a point to the nearest segment of a polyline
+    private static double distanceSq(double px, double py, float[] line) {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i + 3 < line.length; i += 2) {
+            double ax = line[i], ay = line[i + 1];
+            double dx = line[i + 2] - ax, dy = line[i + 3] - ay;
+            double lengthSq = dx * dx + dy * dy;
+            double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSq));
+            double ex = ax + t * dx - px, ey = ay + t * dy - py;
+            best = Math.min(best, ex * ex + ey * ey);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,146 @@
+package motlohi.demo1;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Export of many synthetic strokes through each vector writer: the file must be well formed
+// and draw every stroke. The time of a pass over a stream that drops the bytes, so only the
+// writer's own work counts, goes to the test report.
+class VectorWriterTest {
+    private static final int STROKES = 20_000;
+    private static final int POINTS = 64;
+    private static final int WARM_UP_PASSES = 3;
+
+    @Test
+    void svgExportDrawsEveryStroke(TestReporter reporter) throws IOException {
+        Stroke[] strokes = syntheticStrokes(new Random(11));
+        time(reporter, SvgWriter::new, strokes);
+
+        String svg = new String(export(SvgWriter::new, strokes), StandardCharsets.UTF_8);
+        assertTrue(svg.startsWith("<?xml"), "no XML declaration");
+        assertTrue(svg.contains("<svg "), "no svg element");
+        assertTrue(svg.endsWith("</g>\n</svg>\n"), "svg element is not closed");
+        assertEquals(STROKES, count(svg, "<path "));
+    }
+
+    @Test
+    void pdfExportDrawsEveryStroke(TestReporter reporter) throws IOException, DataFormatException {
+        Stroke[] strokes = syntheticStrokes(new Random(11));
+        time(reporter, PdfWriter::new, strokes);
+
+        // Latin-1 keeps every byte as one char, so offsets and stream contents stay exact
+        String pdf = new String(export(PdfWriter::new, strokes), StandardCharsets.ISO_8859_1);
+        assertTrue(pdf.startsWith("%PDF-1.4\n"), "no PDF header");
+        assertTrue(pdf.endsWith("%%EOF\n"), "no end of file marker");
+
+        int startXref = pdf.lastIndexOf("startxref\n");
+        int xref = Integer.parseInt(pdf.substring(startXref + "startxref\n".length(), pdf.lastIndexOf("\n%%EOF")));
+        assertTrue(pdf.startsWith("xref\n0 ", xref), "startxref does not point at the table");
+        int tableStart = pdf.indexOf('\n', xref + "xref\n".length()) + 1;
+        int objects = Integer.parseInt(pdf.substring(xref + "xref\n0 ".length(), tableStart - 1));
+        for (int i = 1; i < objects; i++) {
+            int entry = tableStart + i * 20;
+            int offset = Integer.parseInt(pdf.substring(entry, entry + 10));
+            assertTrue(pdf.startsWith(i + " 0 obj\n", offset), "object " + i + " is not where the table says");
+        }
+
+        int strokeOperators = 0;
+        for (int start = pdf.indexOf(">>\nstream\n"); start >= 0; start = pdf.indexOf(">>\nstream\n", start)) {
+            start += ">>\nstream\n".length();
+            int end = pdf.indexOf("\nendstream\n", start);
+            String content = inflate(pdf.substring(start, end).getBytes(StandardCharsets.ISO_8859_1));
+            strokeOperators += count(content, "\nS\n");
+        }
+        assertEquals(STROKES, strokeOperators);
+    }
+
+    private static void time(TestReporter reporter, Function<OutputStream, VectorWriter> writers, Stroke[] strokes)
+            throws IOException {
+        for (int i = 0; i < WARM_UP_PASSES; i++) {
+            export(writers, strokes, OutputStream.nullOutputStream());
+        }
+        long started = System.nanoTime();
+        export(writers, strokes, OutputStream.nullOutputStream());
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        reporter.publishEntry("strokes per second", String.format("%.0f", STROKES / seconds));
+    }
+
+    private static byte[] export(Function<OutputStream, VectorWriter> writers, Stroke[] strokes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bytes = export(writers, strokes, out);
+        assertEquals(out.size(), bytes);
+        return out.toByteArray();
+    }
+
+    private static long export(Function<OutputStream, VectorWriter> writers, Stroke[] strokes, OutputStream out)
+            throws IOException {
+        try (VectorWriter writer = writers.apply(out)) {
+            writer.begin(new Rectangle2D(0, 0, 4000, 4000));
+            for (Stroke stroke : strokes) {
+                writer.item(stroke);
+            }
+            writer.finish();
+            return writer.getBytesWritten();
+        }
+    }
+
+    private static String inflate(byte[] compressed) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        while (!inflater.finished()) {
+            int read = inflater.inflate(buffer);
+            if (read == 0 && inflater.needsInput()) {
+                break;
+            }
+            out.write(buffer, 0, read);
+        }
+        inflater.end();
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int at = text.indexOf(part); at >= 0; at = text.indexOf(part, at + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    // Half fitted cubics and half polylines, as the board holds both
+    private static Stroke[] syntheticStrokes(Random random) {
+        Stroke[] strokes = new Stroke[STROKES];
+        for (int s = 0; s < STROKES; s++) {
+            float[] points = new float[POINTS * 2];
+            double x = random.nextDouble() * 4000, y = random.nextDouble() * 4000;
+            double heading = random.nextDouble() * Math.PI * 2;
+            for (int i = 0; i < POINTS; i++) {
+                points[i * 2] = (float) x;
+                points[i * 2 + 1] = (float) y;
+                heading += random.nextGaussian() * 0.3;
+                x += Math.cos(heading) * 4;
+                y += Math.sin(heading) * 4;
+            }
+            Color color = Color.hsb(random.nextDouble() * 360, 0.8, 0.6);
+            strokes[s] = s % 2 == 0
+                    ? new Stroke(color, 3, StrokeSimplifier.fitCubics(points, StrokeSimplifier.FIT_TOLERANCE), true)
+                    : new Stroke(color, 3, points);
+        }
+        return strokes;
+    }
+}